@@ -21,21 +21,31 @@ import hudson.Extension;
 import hudson.model.ManagementLink;
 import hudson.model.TaskListener;
 import hudson.util.ListBoxModel;
+import jakarta.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import jenkins.model.Jenkins;
 import jenkins.util.Timer;
+import org.jvnet.hudson.plugins.thinbackup.backup.BackupCatalog;
+import org.jvnet.hudson.plugins.thinbackup.backup.BackupCatalogFile;
 import org.jvnet.hudson.plugins.thinbackup.restore.HudsonRestore;
+import org.jvnet.hudson.plugins.thinbackup.restore.RestorePaths;
+import org.jvnet.hudson.plugins.thinbackup.restore.RestoreTask;
 import org.jvnet.hudson.plugins.thinbackup.utils.Utils;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest2;
 import org.kohsuke.stapler.StaplerResponse2;
+import org.kohsuke.stapler.verb.GET;
 import org.kohsuke.stapler.verb.POST;
 
 /**
@@ -50,6 +60,16 @@ public class ThinBackupMgmtLink extends ManagementLink {
 
     private static final Logger LOGGER = Logger.getLogger("hudson.plugins.thinbackup");
 
+    private static final int MAX_RESTORE_TASKS = 10;
+
+    /** The last restore tasks by their id, oldest first. */
+    private final Map<String, RestoreTask> restoreTasks = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, RestoreTask> eldest) {
+            return size() > MAX_RESTORE_TASKS;
+        }
+    };
+
     @Override
     public String getDisplayName() {
         return "ThinBackup";
@@ -87,43 +107,117 @@ public class ThinBackupMgmtLink extends ManagementLink {
         rsp.sendRedirect(res.getContextPath() + THIN_BACKUP_SUBPATH);
     }
 
+    @POST
+    public void doRebuildCatalog(final StaplerRequest2 res, final StaplerResponse2 rsp) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        LOGGER.info("Rebuilding backup catalog.");
+
+        BackupCatalogFile.rebuild(new File(ThinBackupPluginImpl.get().getExpandedBackupPath()));
+        BackupCatalog.get().invalidate();
+
+        rsp.sendRedirect(res.getContextPath() + THIN_BACKUP_SUBPATH);
+    }
+
     @POST
     public void doRestore(
             final StaplerRequest2 res,
             final StaplerResponse2 rsp,
             @QueryParameter("restoreBackupFrom") final String restoreBackupFrom,
             @QueryParameter("restoreNextBuildNumber") final String restoreNextBuildNumber,
-            @QueryParameter("restorePlugins") final String restorePlugins)
+            @QueryParameter("restorePlugins") final String restorePlugins,
+            @QueryParameter("restoreIncremental") final String restoreIncremental,
+            @QueryParameter("restoreItems") final String restoreItems)
             throws IOException {
-        LOGGER.info("Starting restore operation.");
-
         final Jenkins jenkins = Jenkins.get();
         jenkins.checkPermission(Jenkins.ADMINISTER);
 
-        jenkins.doQuietDown();
-        LOGGER.fine("Waiting until executors are idle to perform restore...");
-        Utils.waitUntilIdle();
-
         try {
-            final File jenkinsHome = jenkins.getRootDir();
+            final RestorePaths restorePaths = RestorePaths.parse(restoreItems);
             final Date restoreFromDate = new SimpleDateFormat(Utils.DISPLAY_DATE_FORMAT).parse(restoreBackupFrom);
 
+            final ThinBackupPluginImpl plugin = ThinBackupPluginImpl.get();
             final HudsonRestore hudsonRestore = new HudsonRestore(
-                    jenkinsHome,
-                    ThinBackupPluginImpl.get().getExpandedBackupPath(),
+                    jenkins.getRootDir(),
+                    plugin.getExpandedBackupPath(),
                     restoreFromDate,
                     "on".equals(restoreNextBuildNumber),
-                    "on".equals(restorePlugins));
-            hudsonRestore.restore();
-
-            LOGGER.info("Restore finished.");
+                    "on".equals(restorePlugins),
+                    "on".equals(restoreIncremental),
+                    plugin.getBackupThreads(),
+                    restorePaths);
+            final RestoreTask task = new RestoreTask(restoreBackupFrom, hudsonRestore, restorePaths);
+            RestoreTask runningTask = null;
+            synchronized (restoreTasks) {
+                final RestoreTask lastTask = getLastRestoreTask();
+                if (lastTask != null && !lastTask.getProgress().getPhase().isDone()) {
+                    runningTask = lastTask;
+                } else {
+                    restoreTasks.put(task.getId(), task);
+                }
+            }
+            if (runningTask != null) {
+                LOGGER.warning("Restore task " + runningTask.getId() + " is still running. Not starting another one.");
+                rsp.sendError(
+                        HttpServletResponse.SC_CONFLICT,
+                        "The restore of the backup from " + runningTask.getBackup() + " is still running.");
+                return;
+            }
+            LOGGER.info("Starting restore operation.");
+            Timer.get().submit(task);
         } catch (ParseException e) {
             LOGGER.severe("Cannot parse restore option. Aborting.");
-        } catch (final Exception ise) {
-            LOGGER.severe("Could not restore. Aborting.");
-        } finally {
-            jenkins.doCancelQuietDown();
-            rsp.sendRedirect(res.getContextPath() + THIN_BACKUP_SUBPATH);
+        } catch (IllegalArgumentException e) {
+            LOGGER.severe("Cannot parse items to restore: " + e.getMessage() + " Aborting.");
+        }
+        rsp.sendRedirect(res.getContextPath() + THIN_BACKUP_SUBPATH);
+    }
+
+    /**
+     * @param id id of a restore task, or null for the last one
+     * @return the progress of the restore task as JSON.
+     */
+    @GET
+    public HttpResponse doRestoreStatus(@QueryParameter("id") final String id) {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        final RestoreTask task = getRestoreTask(id);
+        return task == null ? HttpResponses.notFound() : HttpResponses.okJSON(task.toJSON());
+    }
+
+    /**
+     * @param id id of a restore task, or null for the last one
+     */
+    @POST
+    public void doCancelRestore(
+            final StaplerRequest2 res, final StaplerResponse2 rsp, @QueryParameter("id") final String id)
+            throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        final RestoreTask task = getRestoreTask(id);
+        if (task != null) {
+            LOGGER.info("Cancelling restore task " + task.getId() + ".");
+            task.cancel();
+        }
+        rsp.sendRedirect(res.getContextPath() + THIN_BACKUP_SUBPATH);
+    }
+
+    private RestoreTask getRestoreTask(final String id) {
+        if (id == null || id.isEmpty()) {
+            return getLastRestoreTask();
+        }
+        synchronized (restoreTasks) {
+            return restoreTasks.get(id);
+        }
+    }
+
+    /**
+     * @return the restore task started last, or null if no restore has been started since Jenkins was started.
+     */
+    public RestoreTask getLastRestoreTask() {
+        synchronized (restoreTasks) {
+            RestoreTask lastTask = null;
+            for (final RestoreTask task : restoreTasks.values()) {
+                lastTask = task;
+            }
+            return lastTask;
         }
     }
 
@@ -134,14 +228,15 @@ public class ThinBackupMgmtLink extends ManagementLink {
     public List<String> getAvailableBackups() {
         Jenkins.get().checkPermission(Jenkins.ADMINISTER);
         final ThinBackupPluginImpl plugin = ThinBackupPluginImpl.get();
-        return Utils.getBackupsAsDates(new File(plugin.getExpandedBackupPath()));
+        return BackupCatalog.get().getBackupsAsDates(new File(plugin.getExpandedBackupPath()));
     }
 
     @POST
     public ListBoxModel doFillBackupItems() {
         Jenkins.get().checkPermission(Jenkins.ADMINISTER);
         final ThinBackupPluginImpl plugin = ThinBackupPluginImpl.get();
-        final List<String> backupsAsDates = Utils.getBackupsAsDates(new File(plugin.getExpandedBackupPath()));
+        final List<String> backupsAsDates =
+                BackupCatalog.get().getBackupsAsDates(new File(plugin.getExpandedBackupPath()));
         var model = new ListBoxModel();
         for (String entry : backupsAsDates) {
             model.add(new ListBoxModel.Option(entry));
@@ -68,6 +68,9 @@ public class ThinBackupPluginImpl extends GlobalConfiguration {
     private boolean backupNextBuildNumber = false;
     private boolean backupBuildsToKeepOnly = false;
     private boolean failFast = true;
+    private int backupThreads = 1;
+    private int zipThreads = 1;
+    private StorageMode storageMode = StorageMode.COPY;
 
     @DataBoundConstructor
     public ThinBackupPluginImpl() {
@@ -323,6 +326,42 @@ public class ThinBackupPluginImpl extends GlobalConfiguration {
         save();
     }
 
+    /**
+     * @return the number of threads used to back up jobs, at least 1.
+     */
+    public int getBackupThreads() {
+        return Math.max(1, backupThreads);
+    }
+
+    @DataBoundSetter
+    public void setBackupThreads(final int backupThreads) {
+        this.backupThreads = backupThreads;
+        save();
+    }
+
+    /**
+     * @return the number of threads used to compress backup sets moved to ZIP files, at least 1.
+     */
+    public int getZipThreads() {
+        return Math.max(1, zipThreads);
+    }
+
+    @DataBoundSetter
+    public void setZipThreads(final int zipThreads) {
+        this.zipThreads = zipThreads;
+        save();
+    }
+
+    public StorageMode getStorageMode() {
+        return storageMode != null ? storageMode : StorageMode.COPY;
+    }
+
+    @DataBoundSetter
+    public void setStorageMode(final StorageMode storageMode) {
+        this.storageMode = storageMode;
+        save();
+    }
+
     @POST
     public FormValidation doCheckBackupPath(@QueryParameter String value) {
         Jenkins.get().checkPermission(Jenkins.ADMINISTER);
@@ -467,4 +506,69 @@ public class ThinBackupPluginImpl extends GlobalConfiguration {
             return FormValidation.ok();
         }
     }
+
+    @POST
+    public FormValidation doCheckBackupThreads(@QueryParameter("value") final String backupThreads) {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        FormValidation validation = FormValidation.validateIntegerInRange(backupThreads, 1, Integer.MAX_VALUE);
+        if (!FormValidation.ok().equals(validation)) {
+            return validation;
+        }
+
+        if (Integer.parseInt(backupThreads) > Runtime.getRuntime().availableProcessors()) {
+            return FormValidation.warning(
+                    "More threads than available processors rarely speed up the backup, as it is bound by disk I/O.");
+        } else {
+            return FormValidation.ok();
+        }
+    }
+
+    @POST
+    public FormValidation doCheckZipThreads(@QueryParameter("value") final String zipThreads) {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        FormValidation validation = FormValidation.validateIntegerInRange(zipThreads, 1, Integer.MAX_VALUE);
+        if (!FormValidation.ok().equals(validation)) {
+            return validation;
+        }
+
+        if (Integer.parseInt(zipThreads) > Runtime.getRuntime().availableProcessors()) {
+            return FormValidation.warning(
+                    "More threads than available processors do not speed up compression, as it is bound by the CPU.");
+        } else {
+            return FormValidation.ok();
+        }
+    }
+
+    /**
+     * Defines how the files of a backup are stored in the backup directory.
+     */
+    public enum StorageMode {
+        /** Every backup contains a copy of its files. */
+        COPY("Copy files"),
+        /**
+         * Full backups hard link files which did not change since the previous full backup instead of copying them.
+         * Every full backup still is a complete directory tree.
+         */
+        HARDLINK("Hard link unchanged files to the previous full backup"),
+        /**
+         * File contents are stored once in a content addressed blob store in the backup directory, backups only
+         * contain a manifest referencing the blobs. Unreferenced blobs are removed after old backups were deleted.
+         */
+        DEDUPLICATE("Store every file content only once (deduplicated blob store)"),
+        /**
+         * Every backup is written directly into a single ZIP file instead of a directory, so no uncompressed copy is
+         * written first. Backup sets containing such archives are not moved to ZIP files again.
+         */
+        ZIP("Write every backup directly into a ZIP file");
+
+        private final String displayName;
+
+        StorageMode(final String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
 }
@@ -0,0 +1,237 @@
+/*
+ *  Copyright (C) 2011  Matthias Steinkogler, Thomas Fürer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see http://www.gnu.org/licenses.
+ */
+package org.jvnet.hudson.plugins.thinbackup.backup;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Enumeration;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.jvnet.hudson.plugins.thinbackup.ThinBackupPeriodicWork.BackupType;
+
+/**
+ * A single FULL or DIFF backup written directly into a ZIP file named like the backup directory would be, e.g.
+ * "FULL-2011-02-13_10-48.zip". The entries are the paths relative to the backup directory, using '/' as separator. An
+ * archive is written to a temporary file and only gets its final name once it is complete, so every archive found in
+ * the backup root is a completed backup.
+ */
+public class BackupArchive {
+    private static final Logger LOGGER = Logger.getLogger("hudson.plugins.thinbackup");
+
+    private static final String TMP_FILE_EXTENSION = ".tmp";
+
+    private BackupArchive() {}
+
+    /**
+     * @param backup a backup directory or archive
+     * @return true if the given file is a single backup archive.
+     */
+    public static boolean isArchive(final File backup) {
+        final String name = backup.getName();
+        return (name.startsWith(BackupType.FULL.toString()) || name.startsWith(BackupType.DIFF.toString()))
+                && name.endsWith(HudsonBackup.ZIP_FILE_EXTENSION)
+                && backup.isFile();
+    }
+
+    /**
+     * @param backupDirectory a backup directory, which does not need to exist
+     * @return the archive file for the given backup directory.
+     */
+    public static File getArchiveFile(final File backupDirectory) {
+        return new File(backupDirectory.getParentFile(), backupDirectory.getName() + HudsonBackup.ZIP_FILE_EXTENSION);
+    }
+
+    /**
+     * @param archive a single backup archive
+     * @return the name of the backup directory the archive stands for.
+     */
+    public static String getBackupName(final File archive) {
+        final String name = archive.getName();
+        return name.substring(0, name.length() - HudsonBackup.ZIP_FILE_EXTENSION.length());
+    }
+
+    /**
+     * @param archive a single backup archive
+     * @return the manifest contained in the archive, or null if it has none.
+     * @throws IOException if the archive cannot be read
+     */
+    public static BackupManifest readManifest(final File archive) throws IOException {
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            final ZipEntry entry = zipFile.getEntry(BackupManifest.MANIFEST_FILE_NAME);
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream in = zipFile.getInputStream(entry)) {
+                return BackupManifest.load(in, archive.getName());
+            }
+        }
+    }
+
+    /**
+     * Extracts the archive into a directory named like the backup within the given directory, keeping the modification
+     * times of the files.
+     *
+     * @param archive a single backup archive
+     * @param directory the directory to extract into
+     * @return the backup directory the archive was extracted to.
+     * @throws IOException if the archive cannot be read or contains entries outside of the backup directory
+     */
+    public static File extractTo(final File archive, final File directory) throws IOException {
+        return extractTo(archive, directory, name -> true);
+    }
+
+    /**
+     * Extracts the entries of the archive accepted by the given filter into a directory named like the backup within
+     * the given directory, keeping the modification times of the files.
+     *
+     * @param archive a single backup archive
+     * @param directory the directory to extract into
+     * @param entryFilter accepts the names of the entries to extract, i.e. their paths relative to the backup directory
+     *         using '/' as separator
+     * @return the backup directory the archive was extracted to.
+     * @throws IOException if the archive cannot be read or contains entries outside of the backup directory
+     */
+    public static File extractTo(final File archive, final File directory, final Predicate<String> entryFilter)
+            throws IOException {
+        final Path backupDirectory = new File(directory, getBackupName(archive))
+                .toPath()
+                .toAbsolutePath()
+                .normalize();
+        Files.createDirectories(backupDirectory);
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (!entryFilter.test(entry.getName().replaceAll("/$", ""))) {
+                    continue;
+                }
+                final Path target = backupDirectory.resolve(entry.getName()).normalize();
+                if (!target.startsWith(backupDirectory)) {
+                    throw new IOException(String.format(
+                            "Entry '%s' of archive %s is outside of the backup.", entry.getName(), archive.getName()));
+                }
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                    continue;
+                }
+                Files.createDirectories(target.getParent());
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                if (entry.getLastModifiedTime() != null) {
+                    Files.setLastModifiedTime(target, entry.getLastModifiedTime());
+                }
+            }
+        }
+        return backupDirectory.toFile();
+    }
+
+    /**
+     * @param backupDirectory the backup directory the archive stands for
+     * @return a writer for the archive of the given backup directory.
+     * @throws IOException if the archive cannot be created
+     */
+    public static Writer create(final File backupDirectory) throws IOException {
+        return new Writer(getArchiveFile(backupDirectory));
+    }
+
+    /**
+     * Writes the entries of an archive. Adding entries is thread safe.
+     */
+    public static final class Writer implements Closeable {
+        private final File archive;
+        private final File tmpFile;
+        private final ZipOutputStream zipStream;
+        private boolean committed = false;
+
+        private Writer(final File archive) throws IOException {
+            this.archive = archive;
+            this.tmpFile = new File(archive.getParentFile(), archive.getName() + TMP_FILE_EXTENSION);
+            this.zipStream = new ZipOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmpFile.toPath()), DirectoriesZipper.BUFFER_SIZE));
+        }
+
+        /**
+         * @param entryName path relative to the backup directory, using '/' as separator
+         * @param source the file to add
+         * @param attrs the attributes of the file to add
+         * @throws IOException if an I/O error occurs
+         */
+        public synchronized void add(final String entryName, final Path source, final BasicFileAttributes attrs)
+                throws IOException {
+            final ZipEntry entry = new ZipEntry(entryName);
+            entry.setLastModifiedTime(attrs.lastModifiedTime());
+            zipStream.putNextEntry(entry);
+            Files.copy(source, zipStream);
+            zipStream.closeEntry();
+        }
+
+        /**
+         * Adds an empty entry, e.g. a marker file.
+         *
+         * @param entryName path relative to the backup directory, using '/' as separator
+         * @throws IOException if an I/O error occurs
+         */
+        public synchronized void addEmpty(final String entryName) throws IOException {
+            zipStream.putNextEntry(new ZipEntry(entryName));
+            zipStream.closeEntry();
+        }
+
+        /**
+         * Completes the archive and moves it to its final name.
+         *
+         * @return the archive file.
+         * @throws IOException if an I/O error occurs
+         */
+        public synchronized File commit() throws IOException {
+            zipStream.close();
+            Files.move(tmpFile.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            committed = true;
+            return archive;
+        }
+
+        /**
+         * Discards the archive if it has not been committed.
+         */
+        @Override
+        public synchronized void close() {
+            if (!committed) {
+                try {
+                    zipStream.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Cannot close incomplete archive " + tmpFile.getName() + ".", e);
+                }
+                try {
+                    Files.deleteIfExists(tmpFile.toPath());
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Cannot delete incomplete archive " + tmpFile.getName() + ".", e);
+                }
+            }
+        }
+    }
+}
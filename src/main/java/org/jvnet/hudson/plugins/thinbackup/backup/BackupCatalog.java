@@ -0,0 +1,246 @@
+/*
+ *  Copyright (C) 2011  Matthias Steinkogler, Thomas Fürer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see http://www.gnu.org/licenses.
+ */
+package org.jvnet.hudson.plugins.thinbackup.backup;
+
+import hudson.init.Terminator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jvnet.hudson.plugins.thinbackup.ThinBackupPeriodicWork.BackupType;
+import org.jvnet.hudson.plugins.thinbackup.utils.Utils;
+
+/**
+ * Keeps the backup sets of the backup directory in memory, so the management page does not list the backup directory
+ * and open every ZIP file on each request. The catalog is updated from the changes reported by this plugin and, where
+ * the file system supports it, from a {@link WatchService} on the backup directory. Only the changed backup set ZIP
+ * files are read again; the backup sets in directories are rebuilt from one listing if any backup directory changed.
+ * <p>
+ * Without a watch service, e.g. when the backup directory cannot be watched, the catalog is reloaded completely after
+ * {@link #UNWATCHED_MAX_AGE_MILLIS}. Note that a watch service on a network share only reports changes made by this
+ * host.
+ */
+public class BackupCatalog {
+    private static final Logger LOGGER = Logger.getLogger("hudson.plugins.thinbackup");
+
+    private static final BackupCatalog INSTANCE = new BackupCatalog();
+
+    static final long UNWATCHED_MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final Set<String> changedNames = ConcurrentHashMap.newKeySet();
+    private volatile boolean reloadAll = true;
+    private volatile boolean directoriesChanged = false;
+
+    private volatile File backupRoot = null;
+    private volatile List<String> backupsAsDates = Collections.emptyList();
+    private final Map<String, BackupSet> zippedBackupSets = new HashMap<>();
+    private List<BackupSet> backupSetsFromDirectories = Collections.emptyList();
+    private volatile long lastReload = 0;
+
+    private WatchService watchService = null;
+    private volatile boolean watching = false;
+
+    BackupCatalog() {}
+
+    /**
+     * @return the catalog shared by the management page and the backups of this plugin.
+     */
+    public static BackupCatalog get() {
+        return INSTANCE;
+    }
+
+    @Terminator
+    public static void shutdown() {
+        INSTANCE.stopWatching();
+    }
+
+    /**
+     * @param directory root directory of all backups
+     * @return a list of backups in the given directory (both FULL and DIFF), displayed as the respective backup date,
+     *         from both directories and ZIP files, ordered descending by the date encoded in the backups' name.
+     * @see Utils#getBackupsAsDates(File)
+     */
+    public List<String> getBackupsAsDates(final File directory) {
+        if (isUpToDate(directory)) {
+            return backupsAsDates;
+        }
+        return refresh(directory);
+    }
+
+    /**
+     * Reports a backup directory, single backup archive or backup set ZIP file which was created, changed or deleted.
+     *
+     * @param file file or directory in the backup directory
+     */
+    public void changed(final File file) {
+        changedNames.add(file.getName());
+    }
+
+    /**
+     * Reloads all backup sets on the next request.
+     */
+    public void invalidate() {
+        reloadAll = true;
+    }
+
+    private boolean isUpToDate(final File directory) {
+        return !reloadAll
+                && changedNames.isEmpty()
+                && !directoriesChanged
+                && (watching || System.currentTimeMillis() - lastReload < UNWATCHED_MAX_AGE_MILLIS)
+                && directory.equals(backupRoot);
+    }
+
+    private synchronized List<String> refresh(final File directory) {
+        if (!directory.equals(backupRoot)) {
+            stopWatching();
+            backupRoot = directory;
+            reloadAll = true;
+            startWatching();
+        }
+        if (reloadAll || (!watching && System.currentTimeMillis() - lastReload >= UNWATCHED_MAX_AGE_MILLIS)) {
+            reload();
+        } else {
+            update();
+        }
+
+        final List<BackupSet> backupSets = new ArrayList<>(backupSetsFromDirectories);
+        backupSets.addAll(zippedBackupSets.values());
+        Collections.sort(backupSets);
+        backupsAsDates = Collections.unmodifiableList(Utils.getBackupsAsDates(backupSets));
+        return backupsAsDates;
+    }
+
+    private void reload() {
+        LOGGER.fine("Loading all backup sets into the backup catalog.");
+        reloadAll = false;
+        changedNames.clear();
+        directoriesChanged = false;
+        lastReload = System.currentTimeMillis();
+
+        zippedBackupSets.clear();
+        for (final File zipFile : Utils.getBackupSetZipFiles(backupRoot)) {
+            final BackupSet backupSet = new BackupSet(zipFile);
+            if (backupSet.isValid()) {
+                zippedBackupSets.put(zipFile.getName(), backupSet);
+            }
+        }
+        backupSetsFromDirectories = Utils.getValidBackupSetsFromDirectories(backupRoot);
+    }
+
+    private void update() {
+        final Iterator<String> names = changedNames.iterator();
+        while (names.hasNext()) {
+            final String name = names.next();
+            names.remove();
+            if (name.startsWith(BackupSet.BACKUPSET_ZIPFILE_PREFIX) && name.endsWith(HudsonBackup.ZIP_FILE_EXTENSION)) {
+                LOGGER.log(Level.FINE, "Updating backup set {0} in the backup catalog.", name);
+                final File zipFile = new File(backupRoot, name);
+                final BackupSet backupSet = zipFile.isFile() ? new BackupSet(zipFile) : null;
+                if (backupSet != null && backupSet.isValid()) {
+                    zippedBackupSets.put(name, backupSet);
+                } else {
+                    zippedBackupSets.remove(name);
+                }
+            } else if (name.startsWith(BackupType.FULL.toString()) || name.startsWith(BackupType.DIFF.toString())) {
+                directoriesChanged = true;
+            }
+        }
+        if (directoriesChanged) {
+            LOGGER.fine("Updating the backup sets in directories in the backup catalog.");
+            directoriesChanged = false;
+            backupSetsFromDirectories = Utils.getValidBackupSetsFromDirectories(backupRoot);
+        }
+    }
+
+    private void startWatching() {
+        try {
+            final Path root = backupRoot.toPath();
+            final WatchService service = root.getFileSystem().newWatchService();
+            root.register(
+                    service,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            watchService = service;
+            watching = true;
+            final Thread watcher = new Thread(() -> watch(service), "ThinBackup backup catalog watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.log(
+                    Level.FINE,
+                    "Cannot watch " + backupRoot + ", the backup catalog is reloaded periodically instead.",
+                    e);
+            watching = false;
+        }
+    }
+
+    synchronized void stopWatching() {
+        watching = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Cannot stop watching the backup directory.", e);
+            }
+            watchService = null;
+        }
+    }
+
+    private void watch(final WatchService service) {
+        while (true) {
+            final WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            for (final WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    reloadAll = true;
+                } else {
+                    changedNames.add(((Path) event.context()).toString());
+                }
+            }
+            if (!key.reset()) {
+                // the backup directory itself is gone
+                reloadAll = true;
+                watching = false;
+                return;
+            }
+        }
+    }
+}
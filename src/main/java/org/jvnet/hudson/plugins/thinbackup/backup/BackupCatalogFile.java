@@ -0,0 +1,562 @@
+/*
+ *  Copyright (C) 2011  Matthias Steinkogler, Thomas Fürer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see http://www.gnu.org/licenses.
+ */
+package org.jvnet.hudson.plugins.thinbackup.backup;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.jvnet.hudson.plugins.thinbackup.ThinBackupPeriodicWork.BackupType;
+import org.jvnet.hudson.plugins.thinbackup.backup.BackupSetGraph.BackupId;
+import org.jvnet.hudson.plugins.thinbackup.utils.Utils;
+
+/**
+ * Catalog of all backups in a backup root, kept in the file {@value #FILE_NAME} in the backup root. Each backup run
+ * updates the catalog when it creates, zips or removes backups, and plans its housekeeping from the catalog instead of
+ * listing the backup root and opening the backup set ZIP files again.
+ * <p>
+ * The catalog is replaced atomically on every change. If it is missing or cannot be read, it is rebuilt by scanning the
+ * backup root; {@link #rebuild(File)} does the same on request, e.g. after backups were changed by hand.
+ */
+public final class BackupCatalogFile {
+    private static final Logger LOGGER = Logger.getLogger("hudson.plugins.thinbackup");
+
+    public static final String FILE_NAME = "backup-catalog.txt";
+
+    private static final String HEADER = "thinBackup backup catalog 1";
+    private static final String SEPARATOR = "\t";
+    private static final int FIELDS = 8;
+
+    private static final Comparator<Entry> BY_DATE =
+            Comparator.comparingLong(Entry::timestamp).thenComparing(Entry::name);
+
+    /** Backups and the zipper thread update the catalog concurrently. */
+    private static final Object LOCK = new Object();
+
+    private final File backupRoot;
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Where a backup is stored.
+     */
+    public enum Location {
+        /** a backup directory */
+        DIRECTORY,
+        /** a single backup archive */
+        ARCHIVE,
+        /** a backup set ZIP file containing the full backup and its diff backups */
+        BACKUP_SET
+    }
+
+    /**
+     * A backup in the catalog.
+     *
+     * @param name name of the backup directory
+     * @param type type of the backup
+     * @param timestamp date encoded in the name of the backup, in milliseconds since the epoch
+     * @param location where the backup is stored
+     * @param file name of the backup directory, single backup archive or backup set ZIP file in the backup root
+     * @param size size of all files of the backup in bytes, uncompressed
+     * @param files number of files of the backup
+     * @param completed true if the backup was completed
+     */
+    public record Entry(
+            String name,
+            BackupType type,
+            long timestamp,
+            Location location,
+            String file,
+            long size,
+            int files,
+            boolean completed) {}
+
+    private BackupCatalogFile(final File backupRoot) {
+        this.backupRoot = backupRoot;
+    }
+
+    /**
+     * @param backupRoot root directory of all backups
+     * @return the catalog of the given backup root, rebuilt from a scan if there is no readable catalog yet.
+     */
+    public static BackupCatalogFile load(final File backupRoot) {
+        synchronized (LOCK) {
+            final BackupCatalogFile catalog = read(backupRoot);
+            return catalog != null ? catalog : rebuild(backupRoot);
+        }
+    }
+
+    /**
+     * Rebuilds the catalog by scanning the backup root, which opens every backup set ZIP file.
+     *
+     * @param backupRoot root directory of all backups
+     * @return the rebuilt catalog.
+     */
+    public static BackupCatalogFile rebuild(final File backupRoot) {
+        synchronized (LOCK) {
+            LOGGER.log(Level.INFO, "Rebuilding backup catalog of {0}.", backupRoot);
+            final BackupCatalogFile catalog = new BackupCatalogFile(backupRoot);
+            for (final BackupId backup : BackupSetGraph.build(backupRoot).getBackups()) {
+                final Entry entry = measure(backup.file());
+                if (entry != null) {
+                    catalog.entries.add(entry);
+                }
+            }
+            for (final File zipFile : Utils.getBackupSetZipFiles(backupRoot)) {
+                catalog.entries.addAll(scanBackupSet(zipFile));
+            }
+            catalog.entries.sort(BY_DATE);
+            catalog.saveQuietly();
+            return catalog;
+        }
+    }
+
+    /**
+     * Applies a change to the catalog of the given backup root and saves it.
+     *
+     * @param backupRoot root directory of all backups
+     * @param change the change to apply
+     */
+    public static void update(final File backupRoot, final Consumer<BackupCatalogFile> change) {
+        synchronized (LOCK) {
+            final BackupCatalogFile catalog = load(backupRoot);
+            change.accept(catalog);
+            catalog.saveQuietly();
+        }
+    }
+
+    /**
+     * Applies a change to the catalog of the given backup root if there is one. Without a catalog, the change is picked
+     * up when the catalog is rebuilt.
+     *
+     * @param backupRoot root directory of all backups
+     * @param change the change to apply
+     */
+    public static void updateIfPresent(final File backupRoot, final Consumer<BackupCatalogFile> change) {
+        synchronized (LOCK) {
+            final BackupCatalogFile catalog = read(backupRoot);
+            if (catalog != null) {
+                change.accept(catalog);
+                catalog.saveQuietly();
+            }
+        }
+    }
+
+    /**
+     * @param backup a backup directory or single backup archive, which does not need to exist
+     * @return the catalog entry for the given backup as it is on disk, or null if its name cannot be parsed.
+     */
+    public static Entry measure(final File backup) {
+        final boolean archive = backup.getName().endsWith(HudsonBackup.ZIP_FILE_EXTENSION);
+        final Totals totals = new Totals();
+        try {
+            if (archive && backup.isFile()) {
+                try (ZipFile zip = new ZipFile(backup)) {
+                    final Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+                    while (zipEntries.hasMoreElements()) {
+                        final ZipEntry zipEntry = zipEntries.nextElement();
+                        if (!zipEntry.isDirectory() && !zipEntry.getName().equals(HudsonBackup.COMPLETED_BACKUP_FILE)) {
+                            totals.add(zipEntry.getSize());
+                        }
+                    }
+                }
+                // archives are only renamed to their final name once they are complete
+                totals.completed = true;
+            } else if (!archive && backup.isDirectory()) {
+                final Path marker = backup.toPath().resolve(HudsonBackup.COMPLETED_BACKUP_FILE);
+                Files.walkFileTree(backup.toPath(), new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                        if (attrs.isRegularFile() && !file.equals(marker)) {
+                            totals.add(attrs.size());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+                totals.completed = Files.exists(marker);
+            }
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot measure backup " + backup.getName() + ".", e);
+        }
+
+        return newEntry(backup, totals.size, totals.files, totals.completed);
+    }
+
+    /**
+     * @param backup a backup directory or single backup archive, which does not need to exist
+     * @param size size of all files of the backup in bytes, uncompressed
+     * @param files number of files of the backup
+     * @param completed true if the backup was completed
+     * @return the catalog entry for the given backup, or null if its name cannot be parsed.
+     */
+    public static Entry newEntry(final File backup, final long size, final int files, final boolean completed) {
+        final boolean archive = backup.getName().endsWith(HudsonBackup.ZIP_FILE_EXTENSION);
+        final String name = archive ? BackupArchive.getBackupName(backup) : backup.getName();
+        final BackupType type = getType(name);
+        final Date date = Utils.getDateFromBackupDirectoryName(name);
+        if (type == null || date == null) {
+            return null;
+        }
+        return new Entry(
+                name,
+                type,
+                date.getTime(),
+                archive ? Location.ARCHIVE : Location.DIRECTORY,
+                backup.getName(),
+                size,
+                files,
+                completed);
+    }
+
+    /**
+     * @return all backups, ordered ascending by date.
+     */
+    @NonNull
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Full backups which were not completed or which no longer exist, e.g. because they were deleted by hand, cannot be
+     * the base of differential backups and are skipped.
+     *
+     * @return the date of the latest completed full backup in a backup directory or single backup archive which still
+     *         exists, or null if there is none.
+     */
+    public Date getLatestFullBackupDate() {
+        Date result = null;
+        for (final Entry entry : entries) {
+            if (entry.type() == BackupType.FULL
+                    && entry.location() != Location.BACKUP_SET
+                    && entry.completed()
+                    && (result == null || entry.timestamp() > result.getTime())
+                    && new File(backupRoot, entry.file()).exists()) {
+                result = new Date(entry.timestamp());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param type type of backup
+     * @return the backup directories and single backup archives of the given type which still exist, ordered ascending
+     *         by date.
+     */
+    @NonNull
+    public List<File> getBackups(final BackupType type) {
+        final List<File> backups = new ArrayList<>();
+        for (final Entry entry : entries) {
+            if (entry.type() == type && entry.location() != Location.BACKUP_SET) {
+                final File backup = new File(backupRoot, entry.file());
+                if (backup.exists()) {
+                    backups.add(backup);
+                }
+            }
+        }
+        return backups;
+    }
+
+    /**
+     * @return the valid backup sets of all backups which still exist, both in directories and ZIP files, ordered
+     *         ascending by the backup date of the BackupSets' full backup.
+     */
+    @NonNull
+    public List<BackupSet> getBackupSets() {
+        final List<BackupId> backups = new ArrayList<>();
+        final Map<String, List<Entry>> backupSetZipFiles = new LinkedHashMap<>();
+        for (final Entry entry : entries) {
+            final File file = new File(backupRoot, entry.file());
+            if (!file.exists()) {
+                LOGGER.log(Level.FINE, "{0} is in the backup catalog but no longer exists.", file);
+            } else if (entry.location() == Location.BACKUP_SET) {
+                backupSetZipFiles
+                        .computeIfAbsent(entry.file(), key -> new ArrayList<>())
+                        .add(entry);
+            } else {
+                backups.add(new BackupId(entry.type(), entry.timestamp(), file));
+            }
+        }
+
+        final List<BackupSet> backupSets = new ArrayList<>(new BackupSetGraph(backups).getBackupSets());
+        for (final Map.Entry<String, List<Entry>> backupSetZipFile : backupSetZipFiles.entrySet()) {
+            String fullBackupName = null;
+            final List<String> diffBackupNames = new ArrayList<>();
+            for (final Entry entry : backupSetZipFile.getValue()) {
+                if (entry.type() == BackupType.FULL) {
+                    fullBackupName = entry.name();
+                } else {
+                    diffBackupNames.add(entry.name());
+                }
+            }
+            if (fullBackupName != null) {
+                backupSets.add(new BackupSet(
+                        new File(backupRoot, backupSetZipFile.getKey()), fullBackupName, diffBackupNames));
+            }
+        }
+        backupSets.removeIf(backupSet -> !backupSet.isValid());
+        Collections.sort(backupSets);
+        return backupSets;
+    }
+
+    /**
+     * Adds a backup directory or single backup archive, replacing an earlier entry of the same backup.
+     *
+     * @param entry the backup
+     */
+    public void put(final Entry entry) {
+        entries.removeIf(
+                existing -> existing.name().equals(entry.name()) && existing.location() != Location.BACKUP_SET);
+        entries.add(entry);
+        entries.sort(BY_DATE);
+    }
+
+    /**
+     * Marks a backup directory as completed.
+     *
+     * @param name name of the backup directory
+     */
+    public void complete(final String name) {
+        for (int i = 0; i < entries.size(); i++) {
+            final Entry entry = entries.get(i);
+            if (entry.name().equals(name) && entry.location() != Location.BACKUP_SET) {
+                entries.set(
+                        i,
+                        new Entry(
+                                entry.name(),
+                                entry.type(),
+                                entry.timestamp(),
+                                entry.location(),
+                                entry.file(),
+                                entry.size(),
+                                entry.files(),
+                                true));
+            }
+        }
+    }
+
+    /**
+     * Removes the backups stored in the given backup directory, single backup archive or backup set ZIP file.
+     *
+     * @param file name of the file or directory in the backup root
+     */
+    public void remove(final String file) {
+        entries.removeIf(entry -> entry.file().equals(file));
+    }
+
+    /**
+     * Records that backup directories were zipped into a backup set ZIP file.
+     *
+     * @param backupNames names of the zipped backup directories
+     * @param zipFile the backup set ZIP file
+     */
+    public void moveToBackupSet(final Collection<String> backupNames, final File zipFile) {
+        for (int i = 0; i < entries.size(); i++) {
+            final Entry entry = entries.get(i);
+            if (entry.location() == Location.DIRECTORY && backupNames.contains(entry.name())) {
+                entries.set(
+                        i,
+                        new Entry(
+                                entry.name(),
+                                entry.type(),
+                                entry.timestamp(),
+                                Location.BACKUP_SET,
+                                zipFile.getName(),
+                                entry.size(),
+                                entry.files(),
+                                entry.completed()));
+            }
+        }
+    }
+
+    private static BackupCatalogFile read(final File backupRoot) {
+        final File file = new File(backupRoot, FILE_NAME);
+        final BackupCatalogFile catalog = new BackupCatalogFile(backupRoot);
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                LOGGER.log(Level.WARNING, "{0} is not a backup catalog, rebuilding it.", file);
+                return null;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    catalog.entries.add(parse(line));
+                }
+            }
+            catalog.entries.sort(BY_DATE);
+            return catalog;
+        } catch (final NoSuchFileException e) {
+            return null;
+        } catch (final IOException | IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Cannot read backup catalog " + file + ", rebuilding it.", e);
+            return null;
+        }
+    }
+
+    private static Entry parse(final String line) {
+        final String[] fields = line.split(SEPARATOR);
+        if (fields.length != FIELDS) {
+            throw new IllegalArgumentException("Invalid backup catalog entry: " + line);
+        }
+        return new Entry(
+                fields[0],
+                BackupType.valueOf(fields[1]),
+                Long.parseLong(fields[2]),
+                Location.valueOf(fields[3]),
+                fields[4],
+                Long.parseLong(fields[5]),
+                Integer.parseInt(fields[6]),
+                Boolean.parseBoolean(fields[7]));
+    }
+
+    private static String format(final Entry entry) {
+        return String.join(
+                SEPARATOR,
+                entry.name(),
+                entry.type().toString(),
+                Long.toString(entry.timestamp()),
+                entry.location().toString(),
+                entry.file(),
+                Long.toString(entry.size()),
+                Integer.toString(entry.files()),
+                Boolean.toString(entry.completed()));
+    }
+
+    /**
+     * Writes the catalog to a temporary file which then replaces the catalog, so readers never see a partial catalog.
+     */
+    private void save() throws IOException {
+        if (!backupRoot.isDirectory()) {
+            return;
+        }
+        final Path file = backupRoot.toPath().resolve(FILE_NAME);
+        final Path tmpFile = backupRoot.toPath().resolve(FILE_NAME + ".new");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (final Entry entry : entries) {
+                writer.write(format(entry));
+                writer.newLine();
+            }
+        }
+        try {
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (final IOException e) {
+            // the catalog is rebuilt from a scan when it cannot be read
+            LOGGER.log(Level.WARNING, "Cannot write backup catalog of " + backupRoot + ".", e);
+        }
+    }
+
+    /**
+     * @return the backups in the given backup set ZIP file.
+     */
+    private static List<Entry> scanBackupSet(final File zipFile) {
+        final Map<String, Totals> backups = new TreeMap<>();
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            final Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+            while (zipEntries.hasMoreElements()) {
+                final ZipEntry zipEntry = zipEntries.nextElement();
+                final String entryName = zipEntry.getName().replace(File.separatorChar, '/');
+                final int separator = entryName.indexOf('/');
+                if (separator <= 0 || zipEntry.isDirectory()) {
+                    continue;
+                }
+                final Totals totals = backups.computeIfAbsent(entryName.substring(0, separator), key -> new Totals());
+                if (entryName.substring(separator + 1).equals(HudsonBackup.COMPLETED_BACKUP_FILE)) {
+                    totals.completed = true;
+                } else {
+                    totals.add(zipEntry.getSize());
+                }
+            }
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot read backup set " + zipFile.getName() + ".", e);
+            return Collections.emptyList();
+        }
+
+        final List<Entry> result = new ArrayList<>();
+        for (final Map.Entry<String, Totals> backup : backups.entrySet()) {
+            final String name = backup.getKey();
+            final BackupType type = getType(name);
+            final Date date = Utils.getDateFromBackupDirectoryName(name);
+            if (type != null && date != null) {
+                result.add(backup.getValue().toEntry(name, type, date, Location.BACKUP_SET, zipFile.getName()));
+            }
+        }
+        return result;
+    }
+
+    private static BackupType getType(final String name) {
+        if (name.startsWith(BackupType.FULL.toString())) {
+            return BackupType.FULL;
+        } else if (name.startsWith(BackupType.DIFF.toString())) {
+            return BackupType.DIFF;
+        }
+        return null;
+    }
+
+    private static final class Totals {
+        private long size = 0;
+        private int files = 0;
+        private boolean completed = false;
+
+        private void add(final long fileSize) {
+            size += fileSize;
+            files++;
+        }
+
+        private Entry toEntry(
+                final String name, final BackupType type, final Date date, final Location location, final String file) {
+            return new Entry(name, type, date.getTime(), location, file, size, files, completed);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ *  Copyright (C) 2011  Matthias Steinkogler, Thomas Fürer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see http://www.gnu.org/licenses.
+ */
+package org.jvnet.hudson.plugins.thinbackup.backup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A compact list of the files covered by a backup, stored as gzipped, tab separated lines in the backup directory.
+ * Every line holds the size, the last modification time, the content hash (or "-" if unknown) and the path relative
+ * to JENKINS_HOME, using '/' as separator.
+ * <p>
+ * The manifest describes the state of JENKINS_HOME at the time of the backup, including files which were not copied
+ * because they did not change since the previous backup. Therefore the next differential backup only needs the
+ * newest manifest to decide what has to be copied.
+ * <p>
+ * Recording entries is thread safe.
+ */
+public class BackupManifest {
+    public static final String MANIFEST_FILE_NAME = "backup-manifest.gz";
+
+    private static final String HEADER = "# thinBackup manifest v1";
+    private static final String NO_HASH = "-";
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param backupDirectory a FULL or DIFF backup directory
+     * @return the manifest file of the given backup directory, which might not exist.
+     */
+    public static File getManifestFile(final File backupDirectory) {
+        return new File(backupDirectory, MANIFEST_FILE_NAME);
+    }
+
+    /**
+     * @param backupDirectory a FULL or DIFF backup directory
+     * @return true if the given backup directory contains a manifest.
+     */
+    public static boolean hasManifest(final File backupDirectory) {
+        return getManifestFile(backupDirectory).isFile();
+    }
+
+    /**
+     * @param backupDirectory a FULL or DIFF backup directory containing a manifest
+     * @return the manifest read from the given backup directory.
+     * @throws IOException if the manifest cannot be read
+     */
+    public static BackupManifest load(final File backupDirectory) throws IOException {
+        try (InputStream in =
+                Files.newInputStream(getManifestFile(backupDirectory).toPath())) {
+            return load(in, backupDirectory.getName());
+        }
+    }
+
+    /**
+     * @param in the gzipped manifest, which is not closed by this method
+     * @param name name of the backup the manifest belongs to, used in error messages
+     * @return the manifest read from the given stream.
+     * @throws IOException if the manifest cannot be read
+     */
+    public static BackupManifest load(final InputStream in, final String name) throws IOException {
+        final BackupManifest manifest = new BackupManifest();
+        final BufferedReader reader =
+                new BufferedReader(new InputStreamReader(new GZIPInputStream(in), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final String[] fields = line.split("\t", 4);
+            if (fields.length != 4) {
+                throw new IOException("Invalid line in backup manifest of " + name + ": " + line);
+            }
+            try {
+                manifest.entries.put(
+                        fields[3],
+                        new Entry(
+                                Long.parseLong(fields[0]),
+                                Long.parseLong(fields[1]),
+                                NO_HASH.equals(fields[2]) ? null : fields[2]));
+            } catch (final NumberFormatException e) {
+                throw new IOException("Invalid line in backup manifest of " + name + ": " + line, e);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Records a file. Paths containing line breaks are not recorded, thus such files are always considered changed.
+     *
+     * @param relativePath path relative to JENKINS_HOME, using '/' as separator
+     * @param size size of the file in bytes
+     * @param lastModified last modification time of the file in milliseconds
+     * @param hash content hash of the file, or null if unknown
+     */
+    public void record(final String relativePath, final long size, final long lastModified, final String hash) {
+        if (relativePath.indexOf('\n') < 0 && relativePath.indexOf('\r') < 0) {
+            entries.put(relativePath, new Entry(size, lastModified, hash));
+        }
+    }
+
+    /**
+     * Records the entry of the given path from another manifest, if it exists there.
+     *
+     * @param relativePath path relative to JENKINS_HOME, using '/' as separator
+     * @param other manifest to take the entry from
+     */
+    public void recordFrom(final String relativePath, final BackupManifest other) {
+        final Entry entry = other.getEntry(relativePath);
+        if (entry != null) {
+            entries.put(relativePath, entry);
+        }
+    }
+
+    /**
+     * @param relativePath path relative to JENKINS_HOME, using '/' as separator
+     * @return the entry of the given path, or null if the path is not in this manifest.
+     */
+    public Entry getEntry(final String relativePath) {
+        return entries.get(relativePath);
+    }
+
+    /**
+     * @param relativePath path relative to JENKINS_HOME, using '/' as separator
+     * @param size current size of the file in bytes
+     * @param lastModified current last modification time of the file in milliseconds
+     * @return true if the path is in this manifest with the same size and last modification time.
+     */
+    public boolean isUnchanged(final String relativePath, final long size, final long lastModified) {
+        final Entry entry = entries.get(relativePath);
+        return entry != null && entry.size() == size && entry.lastModified() == lastModified;
+    }
+
+    /**
+     * @return an unmodifiable view of all entries, keyed by their path relative to JENKINS_HOME.
+     */
+    public Map<String, Entry> getEntries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes this manifest to the given backup directory. The file is written to a temporary file first and then moved
+     * into place, so a manifest is either complete or missing.
+     *
+     * @param backupDirectory a FULL or DIFF backup directory
+     * @throws IOException if the manifest cannot be written
+     */
+    public void save(final File backupDirectory) throws IOException {
+        final File manifestFile = getManifestFile(backupDirectory);
+        final File tmpFile = new File(backupDirectory, MANIFEST_FILE_NAME + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(tmpFile.toPath())), StandardCharsets.UTF_8))) {
+            writer.write(HEADER);
+            writer.write('\n');
+            for (final Map.Entry<String, Entry> entry : new TreeMap<>(entries).entrySet()) {
+                final Entry value = entry.getValue();
+                writer.write(Long.toString(value.size()));
+                writer.write('\t');
+                writer.write(Long.toString(value.lastModified()));
+                writer.write('\t');
+                writer.write(value.hash() == null ? NO_HASH : value.hash());
+                writer.write('\t');
+                writer.write(entry.getKey());
+                writer.write('\n');
+            }
+        }
+        Files.move(tmpFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * A single file of the manifest.
+     *
+     * @param size size of the file in bytes
+     * @param lastModified last modification time of the file in milliseconds
+     * @param hash content hash of the file, or null if unknown
+     */
+    public record Entry(long size, long lastModified, String hash) {}
+}
@@ -73,7 +73,7 @@ public class BackupSet implements Comparable<BackupSet> {
             if (name.startsWith(BackupType.FULL.toString())) {
                 fullBackup = initial;
             } else if (name.startsWith(BackupType.DIFF.toString())) {
-                fullBackup = Utils.getReferencedFullBackup(initial);
+                fullBackup = BackupSetGraph.build(initial.getParentFile()).getReferencedFullBackup(initial);
             }
         }
 
@@ -85,6 +85,36 @@ public class BackupSet implements Comparable<BackupSet> {
         }
     }
 
+    /**
+     * @param fullBackup a full backup directory or single backup archive
+     * @param diffBackups the diff backups referencing the given full backup
+     */
+    BackupSet(final File fullBackup, final List<File> diffBackups) {
+        this.fullBackup = fullBackup;
+        this.diffBackups = diffBackups;
+
+        if (!initialize() && LOGGER.isLoggable(Level.WARNING)) {
+            LOGGER.warning(String.format(
+                    "Could not initialize backup set from file/directory '%s' as it is not valid.",
+                    fullBackup.getName()));
+        }
+    }
+
+    /**
+     * @param zipFile a backup set ZIP file
+     * @param fullBackupName name of the full backup in the ZIP file
+     * @param diffBackupNames names of the diff backups in the ZIP file
+     */
+    BackupSet(final File zipFile, final String fullBackupName, final List<String> diffBackupNames) {
+        inZipFile = true;
+        backupSetzipFile = zipFile;
+        fullBackup = null;
+        diffBackups = null;
+        this.fullBackupName = fullBackupName;
+        diffBackupsNames = new ArrayList<>(diffBackupNames);
+        Collections.sort(diffBackupsNames);
+    }
+
     private boolean initialize() {
         boolean success = false;
 
@@ -117,6 +147,14 @@ public class BackupSet implements Comparable<BackupSet> {
     }
 
     private boolean initializeFromZipFile() {
+        // an index is only written to complete ZIP files, so there is no need to wait for the file
+        final BackupSetIndex index = BackupSetIndex.read(backupSetzipFile);
+        if (index != null) {
+            fullBackupName = index.fullBackupName();
+            diffBackupsNames.addAll(index.diffBackupNames());
+            return true;
+        }
+
         boolean success = true;
 
         try (ZipFile zipFile = new ZipFile(backupSetzipFile)) {
@@ -157,7 +195,10 @@ public class BackupSet implements Comparable<BackupSet> {
 
         if (fullBackup != null) {
             fullBackupName = fullBackup.getName();
-            diffBackups = Utils.getReferencingDiffBackups(fullBackup);
+            if (diffBackups == null) {
+                diffBackups = new ArrayList<>(
+                        BackupSetGraph.build(fullBackup.getParentFile()).getReferencingDiffBackups(fullBackup));
+            }
             success = true;
         }
         if (success && !diffBackups.isEmpty()) {
@@ -188,22 +229,30 @@ public class BackupSet implements Comparable<BackupSet> {
         if (isValid()) {
             if (!inZipFile) {
                 if (fullBackup != null) {
-                    FileUtils.deleteDirectory(fullBackup);
+                    FileUtils.forceDelete(fullBackup);
+                    removeFromCatalogFile(fullBackup);
                     fullBackup = null;
                 }
                 if (diffBackups != null) {
                     for (final File diffBackup : diffBackups) {
-                        FileUtils.deleteDirectory(diffBackup);
+                        FileUtils.forceDelete(diffBackup);
+                        removeFromCatalogFile(diffBackup);
                     }
                     diffBackups = null;
                 }
             } else {
                 FileUtils.deleteQuietly(backupSetzipFile);
+                removeFromCatalogFile(backupSetzipFile);
                 deleteUnzipDir();
             }
         }
     }
 
+    private static void removeFromCatalogFile(final File file) {
+        BackupCatalog.get().changed(file);
+        BackupCatalogFile.updateIfPresent(file.getParentFile(), catalog -> catalog.remove(file.getName()));
+    }
+
     /**
      * Deletes the directory used for unzipping this BackupSet. Note that this will make BackupSets created from that
      * directory no longer usable.
@@ -354,11 +403,22 @@ public class BackupSet implements Comparable<BackupSet> {
      *         zipping is performed in this case), or null if this BackupSet is invalid.
      */
     public File zipTo(final File directory) {
+        return zipTo(directory, 1);
+    }
+
+    /**
+     * @param directory target directory
+     * @param zipThreads number of threads used to compress the files
+     * @return a reference to the created ZIP file, the current ZIP file if the BackupSet was created from one (because no
+     *         zipping is performed in this case), or null if this BackupSet is invalid.
+     */
+    public File zipTo(final File directory, final int zipThreads) {
         File zipFile = null;
 
         if (isValid()) {
             if (!inZipFile) {
                 DirectoriesZipper zipper = null;
+                boolean zipped = false;
                 try {
                     if (!directory.exists()) {
                         final boolean success = directory.mkdirs();
@@ -370,12 +430,13 @@ public class BackupSet implements Comparable<BackupSet> {
 
                     final String zipFileName = getBackupSetZipFileName();
                     zipFile = new File(directory, zipFileName);
-                    zipper = new DirectoriesZipper(zipFile);
+                    zipper = new DirectoriesZipper(zipFile, zipThreads);
 
                     zipper.addToZip(getFullBackup());
                     for (final File diffBackup : getDiffBackups()) {
                         zipper.addToZip(diffBackup);
                     }
+                    zipped = true;
                 } catch (final IOException ioe) {
                     LOGGER.log(Level.SEVERE, "Could not zip backup set.", ioe);
                 } finally {
@@ -384,9 +445,23 @@ public class BackupSet implements Comparable<BackupSet> {
                             zipper.close();
                         }
                     } catch (final IOException ioe) {
+                        zipped = false;
                         LOGGER.log(Level.SEVERE, "Could not zip backup set.", ioe);
                     }
                 }
+                if (zipped) {
+                    writeIndex(zipFile);
+                    if (directory
+                            .getAbsoluteFile()
+                            .equals(fullBackup.getAbsoluteFile().getParentFile())) {
+                        final List<String> zippedBackups = new ArrayList<>(diffBackupsNames);
+                        zippedBackups.add(fullBackupName);
+                        final File zippedBackupSet = zipFile;
+                        BackupCatalogFile.updateIfPresent(
+                                directory, catalog -> catalog.moveToBackupSet(zippedBackups, zippedBackupSet));
+                    }
+                }
+                BackupCatalog.get().changed(zipFile);
             } else {
                 zipFile = backupSetzipFile;
             }
@@ -395,6 +470,17 @@ public class BackupSet implements Comparable<BackupSet> {
         return zipFile;
     }
 
+    private void writeIndex(final File zipFile) {
+        try {
+            BackupSetIndex.write(zipFile, fullBackupName, diffBackupsNames);
+        } catch (final IOException ioe) {
+            LOGGER.log(
+                    Level.WARNING,
+                    String.format("Could not write index of '%s', it will be scanned instead.", zipFile.getName()),
+                    ioe);
+        }
+    }
+
     private String getBackupSetZipFileName() {
         return String.format(
                 "%s_%s_%s%s",
@@ -516,6 +602,19 @@ public class BackupSet implements Comparable<BackupSet> {
         return (inDiffs || (date.equals(tmp)));
     }
 
+    /**
+     * @return true if the full backup or one of the diff backups of this BackupSet is a single backup archive.
+     */
+    public boolean containsBackupArchives() {
+        if (inZipFile || !isValid()) {
+            return false;
+        }
+        if (BackupArchive.isArchive(fullBackup)) {
+            return true;
+        }
+        return diffBackups != null && diffBackups.stream().anyMatch(BackupArchive::isArchive);
+    }
+
     /**
      * @return true if this BackupSet was constructed from a ZIP file.
      */
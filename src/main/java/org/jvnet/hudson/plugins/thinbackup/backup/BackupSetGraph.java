@@ -0,0 +1,174 @@
+/*
+ *  Copyright (C) 2011  Matthias Steinkogler, Thomas Fürer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see http://www.gnu.org/licenses.
+ */
+package org.jvnet.hudson.plugins.thinbackup.backup;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.File;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jvnet.hudson.plugins.thinbackup.ThinBackupPeriodicWork.BackupType;
+import org.jvnet.hudson.plugins.thinbackup.utils.Utils;
+
+/**
+ * The backup directories and single backup archives of a backup root, grouped into backup sets. The backup root is
+ * listed once and each name is parsed once. A diff backup belongs to the full backup with the latest date not after its
+ * own date, which is found with a single pass over all backups ordered by date.
+ */
+public final class BackupSetGraph {
+    private static final Logger LOGGER = Logger.getLogger("hudson.plugins.thinbackup");
+
+    /** Full backups first, so a diff backup of the same minute belongs to that full backup. */
+    private static final Comparator<BackupId> BY_DATE = Comparator.comparingLong(BackupId::timestamp)
+            .thenComparing(BackupId::type)
+            .thenComparing(id -> id.file().getName());
+
+    private final List<BackupId> backups;
+
+    /** Diff backups by the name of their full backup, in the order of the full backups' dates. */
+    private final Map<String, List<File>> diffBackupsByFullBackup = new LinkedHashMap<>();
+
+    private final Map<String, File> fullBackupByDiffBackup = new HashMap<>();
+    private final Map<String, File> fullBackups = new HashMap<>();
+
+    /**
+     * A backup directory or single backup archive.
+     *
+     * @param type type of the backup
+     * @param timestamp date encoded in the name of the backup, in milliseconds since the epoch
+     * @param file the backup directory or archive
+     */
+    public record BackupId(BackupType type, long timestamp, File file) {}
+
+    /**
+     * @param backups the backups of one backup root, in any order
+     */
+    BackupSetGraph(final List<BackupId> backups) {
+        this.backups = new ArrayList<>(backups);
+        this.backups.sort(BY_DATE);
+        File currentFullBackup = null;
+        for (final BackupId backup : this.backups) {
+            if (backup.type() == BackupType.FULL) {
+                currentFullBackup = backup.file();
+                fullBackups.put(currentFullBackup.getName(), currentFullBackup);
+                diffBackupsByFullBackup.put(currentFullBackup.getName(), new ArrayList<>());
+            } else if (currentFullBackup != null) {
+                fullBackupByDiffBackup.put(backup.file().getName(), currentFullBackup);
+                diffBackupsByFullBackup.get(currentFullBackup.getName()).add(backup.file());
+            } else {
+                LOGGER.log(Level.FINE, "{0} does not reference any full backup.", backup.file());
+            }
+        }
+    }
+
+    /**
+     * @param backupRoot root directory of all backups
+     * @return the backup sets in the given directory; without any backup if it cannot be listed.
+     */
+    public static BackupSetGraph build(final File backupRoot) {
+        final File[] files = backupRoot.listFiles();
+        final List<BackupId> backups = new ArrayList<>();
+        if (files != null) {
+            final SimpleDateFormat format = new SimpleDateFormat(Utils.DIRECTORY_NAME_DATE_FORMAT);
+            for (final File file : files) {
+                final BackupId backup = parse(file, format);
+                if (backup != null) {
+                    backups.add(backup);
+                }
+            }
+        }
+        return new BackupSetGraph(backups);
+    }
+
+    /**
+     * @return the backup the given file stands for, or null if it is neither a backup directory nor a single backup
+     *         archive.
+     */
+    private static BackupId parse(final File file, final SimpleDateFormat format) {
+        final String name = file.getName();
+        final BackupType type;
+        if (name.startsWith(BackupType.FULL.toString())) {
+            type = BackupType.FULL;
+        } else if (name.startsWith(BackupType.DIFF.toString())) {
+            type = BackupType.DIFF;
+        } else {
+            return null;
+        }
+        if (!file.isDirectory() && !BackupArchive.isArchive(file)) {
+            return null;
+        }
+
+        final Date date = format.parse(name, new ParsePosition(type.toString().length() + 1));
+        if (date == null) {
+            LOGGER.warning(String.format("Could not parse directory name '%s'.", name));
+            return null;
+        }
+        return new BackupId(type, date.getTime(), file);
+    }
+
+    /**
+     * @return all backup directories and single backup archives, ordered ascending by date.
+     */
+    @NonNull
+    public List<BackupId> getBackups() {
+        return Collections.unmodifiableList(backups);
+    }
+
+    /**
+     * @param backup a full or diff backup in the backup root
+     * @return the given backup if it is a full backup, otherwise the full backup referenced by the given diff backup,
+     *         or null if none can be found.
+     */
+    public File getReferencedFullBackup(final File backup) {
+        if (backup.getName().startsWith(BackupType.FULL.toString())) {
+            return backup;
+        }
+        return fullBackupByDiffBackup.get(backup.getName());
+    }
+
+    /**
+     * @param fullBackup a full backup in the backup root
+     * @return the diff backups referencing the given full backup, ordered ascending by date.
+     */
+    @NonNull
+    public List<File> getReferencingDiffBackups(final File fullBackup) {
+        final List<File> diffBackups = diffBackupsByFullBackup.get(fullBackup.getName());
+        return diffBackups == null ? Collections.emptyList() : Collections.unmodifiableList(diffBackups);
+    }
+
+    /**
+     * @return the backup sets in backup directories and single backup archives, ordered ascending by the date of their
+     *         full backup.
+     */
+    @NonNull
+    public List<BackupSet> getBackupSets() {
+        final List<BackupSet> backupSets = new ArrayList<>(diffBackupsByFullBackup.size());
+        for (final Map.Entry<String, List<File>> entry : diffBackupsByFullBackup.entrySet()) {
+            backupSets.add(new BackupSet(fullBackups.get(entry.getKey()), new ArrayList<>(entry.getValue())));
+        }
+        return backupSets;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ *  Copyright (C) 2011  Matthias Steinkogler, Thomas Fürer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see http://www.gnu.org/licenses.
+ */
+package org.jvnet.hudson.plugins.thinbackup.backup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Index of a backup set ZIP file, stored as the comment of the ZIP file. The comment is located in the end of central
+ * directory record at the very end of the file, so the index is read without reading the central directory. Old ZIP
+ * files have no index and need to be scanned.
+ * <p>
+ * The index is written as last step after the ZIP file is complete, so a ZIP file with an index is never still being
+ * written.
+ *
+ * @param fullBackupName name of the full backup in the ZIP file
+ * @param diffBackupNames names of the diff backups in the ZIP file, sorted
+ * @param entries number of entries in the ZIP file
+ * @param size uncompressed size of all entries in bytes
+ * @param compressedSize compressed size of all entries in bytes
+ * @param checksum CRC-32 over the names and CRC-32 checksums of all entries in the order of the ZIP file
+ */
+public record BackupSetIndex(
+        String fullBackupName,
+        List<String> diffBackupNames,
+        int entries,
+        long size,
+        long compressedSize,
+        long checksum) {
+    private static final Logger LOGGER = Logger.getLogger("hudson.plugins.thinbackup");
+
+    private static final String HEADER = "thinBackup backup set index 1";
+    private static final String FULL = "full ";
+    private static final String DIFF = "diff ";
+    private static final String ENTRIES = "entries ";
+    private static final String SIZE = "size ";
+    private static final String COMPRESSED_SIZE = "compressed ";
+    private static final String CHECKSUM = "checksum ";
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int EOCD_TOTAL_ENTRIES_OFFSET = 10;
+    private static final int EOCD_COMMENT_LENGTH_OFFSET = 20;
+    private static final int MAX_COMMENT_LENGTH = 0xffff;
+
+    /**
+     * Creates the index of a complete ZIP file and writes it as comment of the ZIP file.
+     *
+     * @param zipFile the ZIP file
+     * @param fullBackupName name of the full backup in the ZIP file
+     * @param diffBackupNames names of the diff backups in the ZIP file
+     * @return the written index.
+     * @throws IOException if the ZIP file cannot be read or written, or the index does not fit into the comment
+     */
+    public static BackupSetIndex write(
+            final File zipFile, final String fullBackupName, final List<String> diffBackupNames) throws IOException {
+        int entries = 0;
+        long size = 0;
+        long compressedSize = 0;
+        final CRC32 checksum = new CRC32();
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            final Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+            while (zipEntries.hasMoreElements()) {
+                final ZipEntry entry = zipEntries.nextElement();
+                ++entries;
+                size += entry.getSize();
+                compressedSize += entry.getCompressedSize();
+                checksum.update(entry.getName().getBytes(StandardCharsets.UTF_8));
+                checksum.update(Long.toString(entry.getCrc()).getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+
+        final List<String> sortedDiffBackupNames = new ArrayList<>(diffBackupNames);
+        sortedDiffBackupNames.sort(null);
+        final BackupSetIndex index = new BackupSetIndex(
+                fullBackupName, List.copyOf(sortedDiffBackupNames), entries, size, compressedSize, checksum.getValue());
+
+        final byte[] comment = index.format().getBytes(StandardCharsets.UTF_8);
+        if (comment.length > MAX_COMMENT_LENGTH) {
+            throw new IOException(String.format("Index of %s is too large for a ZIP comment.", zipFile.getName()));
+        }
+        try (RandomAccessFile file = new RandomAccessFile(zipFile, "rw")) {
+            final long eocd = findEndOfCentralDirectory(file);
+            if (eocd < 0) {
+                throw new IOException(String.format("%s is not a complete ZIP file.", zipFile.getName()));
+            }
+            file.seek(eocd + EOCD_COMMENT_LENGTH_OFFSET);
+            file.write(comment.length & 0xff);
+            file.write(comment.length >>> 8);
+            file.write(comment);
+            file.setLength(eocd + EOCD_SIZE + comment.length);
+        }
+        return index;
+    }
+
+    /**
+     * @param zipFile a backup set ZIP file
+     * @return the index of the given ZIP file, or null if it has none or it does not match the ZIP file.
+     */
+    public static BackupSetIndex read(final File zipFile) {
+        try (RandomAccessFile file = new RandomAccessFile(zipFile, "r")) {
+            final long eocd = findEndOfCentralDirectory(file);
+            if (eocd < 0) {
+                return null;
+            }
+            file.seek(eocd + EOCD_TOTAL_ENTRIES_OFFSET);
+            final int totalEntries = readUnsignedShort(file);
+            file.seek(eocd + EOCD_COMMENT_LENGTH_OFFSET);
+            final byte[] comment = new byte[readUnsignedShort(file)];
+            file.readFully(comment);
+
+            final BackupSetIndex index = parse(new String(comment, StandardCharsets.UTF_8));
+            // ZIP64 files keep the number of entries elsewhere
+            if (index != null && totalEntries != 0xffff && totalEntries != (index.entries() & 0xffff)) {
+                LOGGER.log(Level.WARNING, "Index of {0} does not match its entries, ignoring it.", zipFile.getName());
+                return null;
+            }
+            return index;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cannot read index of " + zipFile.getName() + ".", e);
+            return null;
+        }
+    }
+
+    private String format() {
+        final StringBuilder result = new StringBuilder(HEADER).append('\n');
+        result.append(FULL).append(fullBackupName).append('\n');
+        for (final String diffBackupName : diffBackupNames) {
+            result.append(DIFF).append(diffBackupName).append('\n');
+        }
+        result.append(ENTRIES).append(entries).append('\n');
+        result.append(SIZE).append(size).append('\n');
+        result.append(COMPRESSED_SIZE).append(compressedSize).append('\n');
+        result.append(CHECKSUM).append(checksum).append('\n');
+        return result.toString();
+    }
+
+    private static BackupSetIndex parse(final String comment) {
+        final String[] lines = comment.split("\n");
+        if (lines.length == 0 || !HEADER.equals(lines[0])) {
+            return null;
+        }
+        String fullBackupName = null;
+        final List<String> diffBackupNames = new ArrayList<>();
+        int entries = -1;
+        long size = -1;
+        long compressedSize = -1;
+        long checksum = -1;
+        try {
+            for (final String line : lines) {
+                if (line.startsWith(FULL)) {
+                    fullBackupName = line.substring(FULL.length());
+                } else if (line.startsWith(DIFF)) {
+                    diffBackupNames.add(line.substring(DIFF.length()));
+                } else if (line.startsWith(ENTRIES)) {
+                    entries = Integer.parseInt(line.substring(ENTRIES.length()));
+                } else if (line.startsWith(SIZE)) {
+                    size = Long.parseLong(line.substring(SIZE.length()));
+                } else if (line.startsWith(COMPRESSED_SIZE)) {
+                    compressedSize = Long.parseLong(line.substring(COMPRESSED_SIZE.length()));
+                } else if (line.startsWith(CHECKSUM)) {
+                    checksum = Long.parseLong(line.substring(CHECKSUM.length()));
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (fullBackupName == null || entries < 0) {
+            return null;
+        }
+        return new BackupSetIndex(
+                fullBackupName, List.copyOf(diffBackupNames), entries, size, compressedSize, checksum);
+    }
+
+    /**
+     * @return the position of the end of central directory record, or -1 if there is none.
+     */
+    private static long findEndOfCentralDirectory(final RandomAccessFile file) throws IOException {
+        final long length = file.length();
+        if (length < EOCD_SIZE) {
+            return -1;
+        }
+        final int tailLength = (int) Math.min(length, EOCD_SIZE + MAX_COMMENT_LENGTH);
+        final byte[] tail = new byte[tailLength];
+        file.seek(length - tailLength);
+        file.readFully(tail);
+        // the comment may contain the signature as well, so the record has to end exactly with the comment
+        for (int i = tailLength - EOCD_SIZE; i >= 0; i--) {
+            if (getInt(tail, i) == EOCD_SIGNATURE
+                    && getUnsignedShort(tail, i + EOCD_COMMENT_LENGTH_OFFSET) == tailLength - i - EOCD_SIZE) {
+                return length - tailLength + i;
+            }
+        }
+        return -1;
+    }
+
+    private static int readUnsignedShort(final RandomAccessFile file) throws IOException {
+        final int low = file.read();
+        final int high = file.read();
+        if ((low | high) < 0) {
+            throw new IOException("Unexpected end of ZIP file.");
+        }
+        return low | (high << 8);
+    }
+
+    private static int getUnsignedShort(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xff) | ((bytes[offset + 1] & 0xff) << 8);
+    }
+
+    private static int getInt(final byte[] bytes, final int offset) {
+        return getUnsignedShort(bytes, offset) | (getUnsignedShort(bytes, offset + 2) << 16);
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ *  Copyright (C) 2011  Matthias Steinkogler, Thomas Fürer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see http://www.gnu.org/licenses.
+ */
+package org.jvnet.hudson.plugins.thinbackup.backup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.jvnet.hudson.plugins.thinbackup.ThinBackupPeriodicWork.BackupType;
+import org.jvnet.hudson.plugins.thinbackup.utils.Utils;
+
+/**
+ * Content addressed store for the files of deduplicated backups. Every distinct file content is stored exactly once in
+ * the directory "blobs" of the backup root, named by its SHA-256 hash. The backup directories only contain their
+ * manifest, which maps the backed up paths to these hashes.
+ * <p>
+ * Blobs are never changed once written. Blobs no longer referenced by any backup are removed by
+ * {@link #collectGarbage()}. Backups and restores hold the read lock of {@link #LOCK} while they run, garbage
+ * collection holds the write lock, so no blob is removed while a backup is about to reference it or a restore reads it.
+ */
+public class BlobStore {
+    private static final Logger LOGGER = Logger.getLogger("hudson.plugins.thinbackup");
+
+    public static final String BLOBS_DIR_NAME = "blobs";
+    public static final ReadWriteLock LOCK = new ReentrantReadWriteLock();
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final String TMP_DIR_NAME = "tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File backupRoot;
+    private final File blobsDirectory;
+
+    public BlobStore(final File backupRoot) {
+        this.backupRoot = backupRoot;
+        this.blobsDirectory = new File(backupRoot, BLOBS_DIR_NAME);
+    }
+
+    /**
+     * @return true if any blobs were stored in this backup root.
+     */
+    public boolean exists() {
+        return blobsDirectory.isDirectory();
+    }
+
+    /**
+     * @param hash SHA-256 hash of the content
+     * @return the file holding the content with the given hash, which might not exist.
+     */
+    public File getBlobFile(final String hash) {
+        return new File(new File(blobsDirectory, hash.substring(0, 2)), hash);
+    }
+
+    public boolean contains(final String hash) {
+        return getBlobFile(hash).isFile();
+    }
+
+    /**
+     * Stores the content of the given file, unless the same content is already stored. The file is read only once, its
+     * hash is computed while it is copied to a temporary file.
+     *
+     * @param file file to store
+     * @return the SHA-256 hash of the content of the file.
+     * @throws IOException if an I/O error occurs
+     */
+    public String store(final File file) throws IOException {
+        final Path tmpDirectory = new File(blobsDirectory, TMP_DIR_NAME).toPath();
+        Files.createDirectories(tmpDirectory);
+        final Path tmpFile = Files.createTempFile(tmpDirectory, "blob", ".tmp");
+        try {
+            final MessageDigest digest = newDigest();
+            try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), digest);
+                    OutputStream out = Files.newOutputStream(tmpFile)) {
+                in.transferTo(out);
+            }
+            final String hash = HexFormat.of().formatHex(digest.digest());
+            final File blobFile = getBlobFile(hash);
+            if (!blobFile.isFile()) {
+                Files.createDirectories(blobFile.getParentFile().toPath());
+                try {
+                    Files.move(tmpFile, blobFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException e) {
+                    // stored concurrently by another thread
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmpFile, blobFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            return hash;
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    /**
+     * Computes the hash of the given file without storing it.
+     *
+     * @param file file to hash
+     * @return the SHA-256 hash of the content of the file.
+     * @throws IOException if an I/O error occurs
+     */
+    public static String hash(final File file) throws IOException {
+        final MessageDigest digest = newDigest();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (in.read(buffer) != -1) {
+                // only digest
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Removes all blobs which are not referenced by the manifest of any backup in the backup root, neither in backup
+     * directories, single backup archives nor in zipped backup sets. If any manifest cannot be read, nothing is removed.
+     *
+     * @return the number of removed blobs.
+     * @throws IOException if an I/O error occurs
+     */
+    public int collectGarbage() throws IOException {
+        if (!exists()) {
+            return 0;
+        }
+
+        LOCK.writeLock().lock();
+        try {
+            LOGGER.fine("Collecting unreferenced blobs...");
+            final Set<String> referenced = new HashSet<>();
+            try {
+                markReferencedBlobs(referenced);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Cannot read all backup manifests, thus no blobs are removed.", e);
+                return 0;
+            }
+
+            final int[] removed = {0};
+            Files.walkFileTree(blobsDirectory.toPath(), new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                    final boolean isTmpFile =
+                            file.getParent().getFileName().toString().equals(TMP_DIR_NAME);
+                    if (isTmpFile || !referenced.contains(file.getFileName().toString())) {
+                        Files.delete(file);
+                        ++removed[0];
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException {
+                    if (exc != null) {
+                        throw exc;
+                    }
+                    final String[] remaining = dir.toFile().list();
+                    if (!dir.equals(blobsDirectory.toPath()) && remaining != null && remaining.length == 0) {
+                        Files.delete(dir);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            LOGGER.log(Level.FINE, "DONE. Removed {0} unreferenced blobs, {1} blobs are in use.", new Object[] {
+                removed[0], referenced.size()
+            });
+            return removed[0];
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    private void markReferencedBlobs(final Set<String> referenced) throws IOException {
+        // directories first: a backup set is only deleted after it has been zipped completely
+        for (final BackupType type : new BackupType[] {BackupType.FULL, BackupType.DIFF}) {
+            for (final File backup : Utils.getBackupTypeDirectories(backupRoot, type)) {
+                if (BackupArchive.isArchive(backup)) {
+                    final BackupManifest manifest = BackupArchive.readManifest(backup);
+                    if (manifest != null) {
+                        markReferencedBlobs(manifest, referenced);
+                    }
+                } else if (BackupManifest.hasManifest(backup)) {
+                    markReferencedBlobs(BackupManifest.load(backup), referenced);
+                }
+            }
+        }
+        for (final File zip : Utils.getBackupSetZipFiles(backupRoot)) {
+            try (ZipFile zipFile = new ZipFile(zip)) {
+                final Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+                while (zipEntries.hasMoreElements()) {
+                    final ZipEntry entry = zipEntries.nextElement();
+                    if (entry.getName().endsWith(BackupManifest.MANIFEST_FILE_NAME)) {
+                        try (InputStream in = zipFile.getInputStream(entry)) {
+                            markReferencedBlobs(BackupManifest.load(in, entry.getName()), referenced);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void markReferencedBlobs(final BackupManifest manifest, final Set<String> referenced) {
+        for (final BackupManifest.Entry entry : manifest.getEntries().values()) {
+            if (entry.hash() != null) {
+                referenced.add(entry.hash());
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(HASH_ALGORITHM + " is not available.", e);
+        }
+    }
+}
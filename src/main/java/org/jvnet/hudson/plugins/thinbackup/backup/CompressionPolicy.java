@@ -0,0 +1,251 @@
+package org.jvnet.hudson.plugins.thinbackup.backup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Decides whether a file is deflated or stored uncompressed in a ZIP file. Files with the extension of an already
+ * compressed format are stored. For other extensions, the compression ratios measured so far decide once enough files
+ * with this extension were deflated. Until then, and for every {@value #RESAMPLE_INTERVAL}th file so that changed
+ * contents are noticed, the entropy of the first block of the file decides. Files without an extension, like build
+ * logs, have nothing in common and are always sampled.
+ * <p>
+ * Only deflated files are measured, a stored file tells nothing about how well it compresses. The ratios are kept in
+ * the file {@value #FILE_NAME} of the backup root, so later runs decide by what earlier runs measured. Each ZIP file is
+ * written with a policy loaded from there, so no ratios are kept in memory between runs. Instances are thread safe.
+ */
+public class CompressionPolicy {
+    private static final Logger LOGGER = Logger.getLogger("hudson.plugins.thinbackup");
+
+    public static final String FILE_NAME = "compression-ratios.txt";
+
+    private static final String HEADER = "thinBackup compression ratios 1";
+    private static final String SEPARATOR = "\t";
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "jpi", "hpi", "jar", "war", "ear", "zip", "gz", "tgz", "bz2", "xz", "zst", "7z", "rar", "png", "jpg",
+            "jpeg", "gif", "webp", "woff2", "mp4");
+
+    /** Deflating small files is cheap, so they are not worth a decision. */
+    static final long MIN_SIZE = 4 * 1024;
+
+    static final int SAMPLE_SIZE = 16 * 1024;
+    /** Compressed formats come close to 8 bits per byte, text and XML stay far below. */
+    static final double MAX_ENTROPY = 7.5;
+
+    /** Number of files with an extension that have to be seen before their ratio is trusted. */
+    static final int MIN_RECORDED_FILES = 5;
+    /** Stores files whose extension did not get below this ratio of compressed to uncompressed size. */
+    static final double MAX_RATIO = 0.9;
+    /** Every this many files of an extension with a trusted ratio, the file is sampled nevertheless. */
+    static final int RESAMPLE_INTERVAL = 50;
+
+    private final Map<String, Ratio> ratios = new ConcurrentHashMap<>();
+    private final File ratiosFile;
+
+    /**
+     * Creates a policy which does not keep its ratios.
+     */
+    CompressionPolicy() {
+        this.ratiosFile = null;
+    }
+
+    /**
+     * Creates a policy with the ratios kept in the given backup root.
+     */
+    CompressionPolicy(final File backupRoot) {
+        this.ratiosFile = new File(backupRoot, FILE_NAME);
+        load();
+    }
+
+    /**
+     * @param file the file to add to a ZIP file
+     * @param size the size of the file in bytes
+     * @return {@link ZipEntry#STORED} if the file is not worth compressing, otherwise {@link ZipEntry#DEFLATED}.
+     */
+    public int getMethod(final File file, final long size) {
+        if (size < MIN_SIZE) {
+            return ZipEntry.DEFLATED;
+        }
+        final String extension = getExtension(file.getName());
+        if (COMPRESSED_EXTENSIONS.contains(extension)) {
+            return ZipEntry.STORED;
+        }
+        final Ratio ratio = ratios.get(extension);
+        if (ratio != null
+                && ratio.files.get() >= MIN_RECORDED_FILES
+                && ratio.decisions.incrementAndGet() % RESAMPLE_INTERVAL != 0) {
+            return ratio.get() > MAX_RATIO ? ZipEntry.STORED : ZipEntry.DEFLATED;
+        }
+        return isIncompressible(file) ? ZipEntry.STORED : ZipEntry.DEFLATED;
+    }
+
+    /**
+     * Records the size of a zipped file. Only deflated files with an extension are recorded.
+     *
+     * @param name name of the file or ZIP entry
+     * @param method the method the file was zipped with
+     * @param size uncompressed size
+     * @param compressedSize size in the ZIP file
+     */
+    public void record(final String name, final int method, final long size, final long compressedSize) {
+        final String extension = getExtension(name);
+        if (method != ZipEntry.DEFLATED || size < MIN_SIZE || compressedSize < 0 || extension.isEmpty()) {
+            return;
+        }
+        final Ratio ratio = ratios.computeIfAbsent(extension, key -> new Ratio());
+        ratio.files.incrementAndGet();
+        ratio.size.addAndGet(size);
+        ratio.compressedSize.addAndGet(compressedSize);
+    }
+
+    /**
+     * Records the sizes of all entries of a ZIP file.
+     *
+     * @param zipFile the ZIP file
+     */
+    public void recordEntries(final File zipFile) {
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                record(entry.getName(), entry.getMethod(), entry.getSize(), entry.getCompressedSize());
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cannot read compression ratios from " + zipFile.getName() + ".", e);
+        }
+    }
+
+    /**
+     * Writes the ratios to the backup root, replacing the previous ones. Policies not kept in a backup root do
+     * nothing.
+     */
+    public synchronized void save() {
+        if (ratiosFile == null || !ratiosFile.getParentFile().isDirectory()) {
+            return;
+        }
+        final Path file = ratiosFile.toPath();
+        final Path tmpFile = file.resolveSibling(FILE_NAME + ".new");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+                writer.write(HEADER);
+                writer.newLine();
+                for (final Map.Entry<String, Ratio> entry : new TreeMap<>(ratios).entrySet()) {
+                    final Ratio ratio = entry.getValue();
+                    writer.write(String.join(
+                            SEPARATOR,
+                            entry.getKey(),
+                            Long.toString(ratio.files.get()),
+                            Long.toString(ratio.size.get()),
+                            Long.toString(ratio.compressedSize.get())));
+                    writer.newLine();
+                }
+            }
+            try {
+                Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot write compression ratios to " + file + ".", e);
+        }
+    }
+
+    private void load() {
+        if (!ratiosFile.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(ratiosFile.toPath(), StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                LOGGER.log(Level.WARNING, "Ignoring compression ratios of unknown format in {0}.", ratiosFile);
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split(SEPARATOR);
+                if (fields.length != 4) {
+                    continue;
+                }
+                final Ratio ratio = new Ratio();
+                ratio.files.set(Long.parseLong(fields[1]));
+                ratio.size.set(Long.parseLong(fields[2]));
+                ratio.compressedSize.set(Long.parseLong(fields[3]));
+                ratios.put(fields[0], ratio);
+            }
+        } catch (final IOException | NumberFormatException e) {
+            // the ratios are measured again
+            LOGGER.log(Level.WARNING, "Cannot read compression ratios from " + ratiosFile + ".", e);
+        }
+    }
+
+    /**
+     * @return true if the entropy of the first block of the file is as high as that of compressed data.
+     */
+    private static boolean isIncompressible(final File file) {
+        final byte[] sample;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            sample = in.readNBytes(SAMPLE_SIZE);
+        } catch (IOException e) {
+            // the zipper reports unreadable files
+            return false;
+        }
+        return getEntropy(sample) > MAX_ENTROPY;
+    }
+
+    /**
+     * @return the Shannon entropy of the given bytes in bits per byte.
+     */
+    static double getEntropy(final byte[] sample) {
+        if (sample.length == 0) {
+            return 0;
+        }
+        final int[] counts = new int[256];
+        for (final byte b : sample) {
+            counts[b & 0xff]++;
+        }
+        double entropy = 0;
+        for (final int count : counts) {
+            if (count > 0) {
+                final double p = (double) count / sample.length;
+                entropy -= p * Math.log(p) / Math.log(2);
+            }
+        }
+        return entropy;
+    }
+
+    private static String getExtension(final String name) {
+        final int separator = Math.max(name.lastIndexOf('/'), name.lastIndexOf(File.separatorChar));
+        final int dot = name.lastIndexOf('.');
+        return dot > separator ? name.substring(dot + 1).toLowerCase(Locale.ENGLISH) : "";
+    }
+
+    private static final class Ratio {
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong size = new AtomicLong();
+        private final AtomicLong compressedSize = new AtomicLong();
+        private final AtomicLong decisions = new AtomicLong();
+
+        private double get() {
+            return (double) compressedSize.get() / Math.max(1, size.get());
+        }
+    }
+}
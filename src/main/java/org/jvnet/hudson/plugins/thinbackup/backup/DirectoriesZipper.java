@@ -6,29 +6,76 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
+import org.apache.commons.compress.archivers.zip.ScatterZipOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntryRequest;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.apache.commons.io.DirectoryWalker;
+import org.apache.commons.io.FileUtils;
 
+/**
+ * Zips directories into a single ZIP file. Files which are not worth compressing according to the
+ * {@link CompressionPolicy} are stored uncompressed. With more than one thread, the files are split into consecutive batches
+ * which are compressed concurrently into files in a temporary directory, which is removed afterwards. The batches are
+ * appended to the ZIP file in their original order when the zipper is closed, so the entries are the same as with a
+ * single thread.
+ */
 public class DirectoriesZipper extends DirectoryWalker<Object> implements Closeable {
     private static final Logger LOGGER = Logger.getLogger("hudson.plugins.thinbackup");
 
     public static final int BUFFER_SIZE = 512 * 1024;
 
+    /** Each thread gets several batches, so threads finishing early pick up the remaining work. */
+    private static final int BATCHES_PER_THREAD = 4;
+
+    private static final String TMP_DIR_PREFIX = "zipper-";
+
+    private final File zipFile;
     private final ZipOutputStream zipStream;
     private final String rootPath;
+    private final int threads;
+    private final List<FileToZip> files = new ArrayList<>();
+    private final CompressionPolicy compressionPolicy;
 
     public DirectoriesZipper(final File zipFile) throws IOException {
+        this(zipFile, 1);
+    }
+
+    /**
+     * @param zipFile the ZIP file to create
+     * @param threads number of threads used to compress the files
+     * @throws IOException if the ZIP file cannot be created
+     */
+    public DirectoriesZipper(final File zipFile, final int threads) throws IOException {
         if (!zipFile.createNewFile()) {
             LOGGER.log(Level.WARNING, "{0} already exists. Previous backup will be overridden.", zipFile.getName());
         }
-        zipStream = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(zipFile.toPath())));
+        this.zipFile = zipFile;
+        this.threads = Math.max(1, threads);
+        zipStream = this.threads == 1
+                ? new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(zipFile.toPath())))
+                : null;
         this.rootPath = zipFile.getParent();
+        this.compressionPolicy = new CompressionPolicy(zipFile.getParentFile());
     }
 
     public void addToZip(final File directory) throws IOException {
@@ -37,17 +84,34 @@ public class DirectoriesZipper extends DirectoryWalker<Object> implements Closea
 
     @Override
     public void close() throws IOException {
-        zipStream.close();
+        if (zipStream != null) {
+            zipStream.close();
+        } else {
+            zipInParallel();
+        }
+        compressionPolicy.save();
     }
 
     @Override
     protected void handleFile(final File file, final int depth, final Collection<Object> results) {
+        if (zipStream == null) {
+            files.add(new FileToZip(file, file.length()));
+            return;
+        }
+
         try (FileInputStream fi = new FileInputStream(file);
                 BufferedInputStream origin = new BufferedInputStream(fi)) {
-            // make entry relative to the root directory
-            String entryPath = file.getAbsolutePath();
-            entryPath = entryPath.replace(rootPath + File.separator, "");
-            final ZipEntry entry = new ZipEntry(entryPath);
+            final ZipEntry entry = new ZipEntry(getEntryPath(file));
+            entry.setTime(file.lastModified());
+            final long size = file.length();
+            final int method = compressionPolicy.getMethod(file, size);
+            if (method == ZipEntry.STORED) {
+                // stored entries need their size and checksum up front
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(size);
+                entry.setCompressedSize(size);
+                entry.setCrc(getCrc(file));
+            }
 
             zipStream.putNextEntry(entry);
             int count;
@@ -55,8 +119,143 @@ public class DirectoriesZipper extends DirectoryWalker<Object> implements Closea
             while ((count = origin.read(buffer)) != -1) {
                 zipStream.write(buffer, 0, count);
             }
+            zipStream.closeEntry();
+            compressionPolicy.record(entry.getName(), method, entry.getSize(), entry.getCompressedSize());
         } catch (final IOException ioe) {
             LOGGER.log(Level.SEVERE, "Could not create ZIP entry", ioe);
         }
     }
+
+    private static long getCrc(final File file) throws IOException {
+        final CRC32 crc = new CRC32();
+        try (InputStream in = new CheckedInputStream(Files.newInputStream(file.toPath()), crc)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * @return the path of the file relative to the directory of the ZIP file.
+     */
+    private String getEntryPath(final File file) {
+        return file.getAbsolutePath().replace(rootPath + File.separator, "");
+    }
+
+    private void zipInParallel() throws IOException {
+        final List<List<FileToZip>> batches = getBatches();
+        LOGGER.log(Level.FINE, "Compressing {0} files in {1} batches with {2} threads.", new Object[] {
+            files.size(), batches.size(), threads
+        });
+
+        final File batchDirectory = Files.createTempDirectory(
+                        zipFile.getParentFile().toPath(), TMP_DIR_PREFIX)
+                .toFile();
+        final AtomicInteger workerIndex = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "ThinBackup zipper worker " + workerIndex.getAndIncrement());
+            thread.setDaemon(true);
+            thread.setContextClassLoader(DirectoriesZipper.class.getClassLoader());
+            return thread;
+        });
+        final List<Future<ScatterZipOutputStream>> compressedBatches = new ArrayList<>(batches.size());
+        try (ZipArchiveOutputStream target = new ZipArchiveOutputStream(zipFile)) {
+            for (int i = 0; i < batches.size(); i++) {
+                final List<FileToZip> batch = batches.get(i);
+                final File batchFile = new File(batchDirectory, "batch" + i);
+                compressedBatches.add(executor.submit(() -> compress(batch, batchFile)));
+            }
+            // appending in submission order keeps the entries in the order they were walked
+            for (final Future<ScatterZipOutputStream> compressedBatch : compressedBatches) {
+                try (ScatterZipOutputStream batch = compressedBatch.get()) {
+                    batch.writeTo(target);
+                }
+            }
+        } catch (final ExecutionException e) {
+            throw new IOException("Could not compress backup set.", e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing backup set.", e);
+        } finally {
+            executor.shutdownNow();
+            for (final Future<ScatterZipOutputStream> compressedBatch : compressedBatches) {
+                if (!compressedBatch.isCancelled() && compressedBatch.isDone()) {
+                    closeQuietly(compressedBatch);
+                }
+            }
+            try {
+                FileUtils.deleteDirectory(batchDirectory);
+            } catch (final IOException e) {
+                LOGGER.log(Level.WARNING, "Could not remove temporary batch directory " + batchDirectory + ".", e);
+            }
+        }
+        compressionPolicy.recordEntries(zipFile);
+    }
+
+    /**
+     * Splits the files into consecutive batches of roughly the same size in bytes.
+     */
+    private List<List<FileToZip>> getBatches() {
+        long totalSize = 0;
+        for (final FileToZip file : files) {
+            totalSize += file.size();
+        }
+        final long batchSize = Math.max(1, totalSize / ((long) threads * BATCHES_PER_THREAD));
+
+        final List<List<FileToZip>> batches = new ArrayList<>();
+        List<FileToZip> batch = new ArrayList<>();
+        long size = 0;
+        for (final FileToZip file : files) {
+            batch.add(file);
+            size += file.size();
+            if (size >= batchSize) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                size = 0;
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private ScatterZipOutputStream compress(final List<FileToZip> batch, final File batchFile) throws IOException {
+        final ScatterZipOutputStream scatterStream =
+                ScatterZipOutputStream.fileBased(batchFile, Deflater.DEFAULT_COMPRESSION);
+        try {
+            for (final FileToZip fileToZip : batch) {
+                final File file = fileToZip.file();
+                final InputStream in;
+                try {
+                    in = new BufferedInputStream(Files.newInputStream(file.toPath()), BUFFER_SIZE);
+                } catch (final IOException ioe) {
+                    LOGGER.log(Level.SEVERE, "Could not create ZIP entry", ioe);
+                    continue;
+                }
+                final ZipArchiveEntry entry = new ZipArchiveEntry(getEntryPath(file));
+                entry.setMethod(compressionPolicy.getMethod(file, fileToZip.size()));
+                entry.setTime(file.lastModified());
+                scatterStream.addArchiveEntry(ZipArchiveEntryRequest.createZipArchiveEntryRequest(entry, () -> in));
+            }
+            return scatterStream;
+        } catch (final IOException | RuntimeException e) {
+            scatterStream.close();
+            throw e;
+        }
+    }
+
+    private static void closeQuietly(final Future<ScatterZipOutputStream> compressedBatch) {
+        try {
+            compressedBatch.get().close();
+        } catch (final IOException | ExecutionException e) {
+            LOGGER.log(Level.FINE, "Could not remove temporary batch file.", e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A file to compress with its size, as measured when the file was walked.
+     */
+    private record FileToZip(File file, long size) {}
 }
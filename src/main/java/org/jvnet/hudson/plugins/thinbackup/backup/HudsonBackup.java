@@ -20,41 +20,58 @@ import com.google.common.base.Throwables;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.PluginWrapper;
 import hudson.model.ItemGroup;
-import hudson.model.Job;
-import hudson.model.Run;
 import hudson.model.TopLevelItem;
-import hudson.util.RunList;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import java.util.stream.Stream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import jenkins.model.Jenkins;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.DirectoryFileFilter;
-import org.apache.commons.io.filefilter.FileFileFilter;
 import org.apache.commons.io.filefilter.FileFilterUtils;
-import org.apache.commons.io.filefilter.IOFileFilter;
-import org.apache.commons.io.filefilter.RegexFileFilter;
 import org.apache.commons.io.filefilter.TrueFileFilter;
 import org.jvnet.hudson.plugins.thinbackup.ThinBackupPeriodicWork.BackupType;
 import org.jvnet.hudson.plugins.thinbackup.ThinBackupPluginImpl;
-import org.jvnet.hudson.plugins.thinbackup.utils.ExistsAndReadableFileFilter;
+import org.jvnet.hudson.plugins.thinbackup.ThinBackupPluginImpl.StorageMode;
+import org.jvnet.hudson.plugins.thinbackup.utils.FileCopier;
+import org.jvnet.hudson.plugins.thinbackup.utils.FileSelector;
 import org.jvnet.hudson.plugins.thinbackup.utils.Utils;
 
 public class HudsonBackup {
@@ -85,30 +102,58 @@ public class HudsonBackup {
     public static final String SVN_CREDENTIALS_FILE_NAME = "subversion.credentials";
     public static final String SVN_EXTERNALS_FILE_NAME = "svnexternals.txt";
     public static final String COMPLETED_BACKUP_FILE = "backup-completed.info";
+    public static final String BUILD_XML = "build" + XML_FILE_EXTENSION;
+
+    private static final String KEEP_LOG_ELEMENT = "keepLog";
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
 
     private final ThinBackupPluginImpl plugin;
     private final File hudsonHome;
+    private final Path hudsonHomePath;
     private final File backupRoot;
+    private final Path backupRootPath;
     private final File backupDirectory;
+    private final Path backupDirectoryPath;
     private final BackupType backupType;
     private final Date latestFullBackupDate;
     private Pattern excludedFilesRegexPattern = null;
     private Pattern backupAdditionalFilesRegexPattern = null;
-    private ItemGroup<TopLevelItem> hudson;
+    private final BackupManifest manifest = new BackupManifest();
+    private BackupManifest previousManifest = null;
+    private File previousFullBackup = null;
+    private final AtomicBoolean linkUnchangedFiles = new AtomicBoolean();
+    private final AtomicInteger linkedFiles = new AtomicInteger();
+    /** Files written to the backup directory or archive, counted for the backup catalog. */
+    private final AtomicInteger writtenFiles = new AtomicInteger();
+
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private BlobStore blobStore = null;
+    private PluginArchivePool pluginArchivePool = null;
+    private final Map<String, String> pluginArchives = new HashMap<>();
+    private final FileCopier fileCopier = new FileCopier();
+    private BackupArchive.Writer archiveWriter = null;
 
     public HudsonBackup(final ThinBackupPluginImpl plugin, final BackupType backupType) {
-        this(plugin, backupType, new Date(), Jenkins.get());
+        this(plugin, backupType, new Date());
     }
 
-    // package visible constructor for unit testing purposes only.
+    /**
+     * @deprecated the items are not needed, use {@link #HudsonBackup(ThinBackupPluginImpl, BackupType, Date)}
+     */
+    @Deprecated
     public HudsonBackup(
             final ThinBackupPluginImpl plugin,
             final BackupType backupType,
             final Date date,
             ItemGroup<TopLevelItem> hudson) {
-        this.hudson = hudson;
+        this(plugin, backupType, date);
+    }
+
+    // package visible constructor for unit testing purposes only.
+    public HudsonBackup(final ThinBackupPluginImpl plugin, final BackupType backupType, final Date date) {
         this.plugin = plugin;
         this.hudsonHome = plugin.getJenkinsHome();
+        this.hudsonHomePath = hudsonHome.getAbsoluteFile().toPath();
 
         final String excludedFilesRegex = plugin.getExcludedFilesRegex();
         if ((excludedFilesRegex != null) && !excludedFilesRegex.trim().isEmpty()) {
@@ -142,6 +187,7 @@ public class HudsonBackup {
         }
 
         this.backupRoot = new File(plugin.getExpandedBackupPath());
+        this.backupRootPath = backupRoot.getAbsoluteFile().toPath().normalize();
         if (!backupRoot.exists()) {
             final boolean dirCreationResult = backupRoot.mkdirs();
             if (!dirCreationResult) {
@@ -159,6 +205,7 @@ public class HudsonBackup {
         }
 
         backupDirectory = Utils.getFormattedDirectory(backupRoot, this.backupType, date);
+        backupDirectoryPath = backupDirectory.getAbsoluteFile().toPath();
     }
 
     public void backup() throws IOException {
@@ -184,6 +231,131 @@ public class HudsonBackup {
             }
         }
 
+        final StorageMode storageMode = plugin.getStorageMode();
+        if (storageMode == StorageMode.DEDUPLICATE) {
+            blobStore = new BlobStore(backupRoot);
+            // blobs must not be collected while this backup references them without a written manifest
+            BlobStore.LOCK.readLock().lock();
+        } else if (storageMode == StorageMode.ZIP) {
+            archiveWriter = BackupArchive.create(backupDirectory);
+        }
+        if (plugin.isBackupPluginArchives()) {
+            pluginArchivePool = new PluginArchivePool(backupRoot);
+            // archives must not be collected while this backup references them without a stored plugin list
+            PluginArchivePool.LOCK.readLock().lock();
+        }
+        recordBackup(false);
+        try {
+            if (backupType == BackupType.DIFF
+                    || (storageMode == StorageMode.DEDUPLICATE && latestFullBackupDate != null)) {
+                previousManifest = loadPreviousManifest();
+            } else if (storageMode == StorageMode.HARDLINK && latestFullBackupDate != null) {
+                previousFullBackup = Utils.getFormattedDirectory(backupRoot, BackupType.FULL, latestFullBackupDate);
+                previousManifest = loadManifest(previousFullBackup);
+                linkUnchangedFiles.set(previousManifest != null);
+            }
+
+            backupFiles();
+            if (archiveWriter != null) {
+                completeArchive();
+            }
+        } finally {
+            if (blobStore != null) {
+                BlobStore.LOCK.readLock().unlock();
+            }
+            if (pluginArchivePool != null) {
+                PluginArchivePool.LOCK.readLock().unlock();
+            }
+            if (archiveWriter != null) {
+                archiveWriter.close();
+            }
+        }
+
+        if (isCopyingToBackupDirectory()) {
+            LOGGER.log(Level.INFO, "Copied {0}.", fileCopier.getSummary());
+        }
+        if (previousFullBackup != null) {
+            LOGGER.log(Level.INFO, "Hard linked {0} unchanged files from {1}.", new Object[] {
+                linkedFiles.get(), previousFullBackup.getName()
+            });
+        }
+
+        // an archive only gets its final name once it is complete
+        recordBackup(archiveWriter != null);
+
+        if (backupType == BackupType.FULL) {
+            cleanupDiffs();
+            moveOldBackupsToZipFile(backupDirectory);
+            removeSuperfluousBackupSets();
+            removeUnreferencedBlobs();
+            removeUnreferencedPluginArchives();
+        }
+        if (archiveWriter == null) {
+            touchCompleteFile();
+            BackupCatalogFile.update(backupRoot, catalog -> catalog.complete(backupDirectory.getName()));
+        }
+        BackupCatalog.get().changed(backupDirectory);
+    }
+
+    /**
+     * Records this backup with the files written so far in the backup catalog, so the housekeeping after a full backup
+     * counts it. The files are counted while they are written, thus the backup is not walked again.
+     *
+     * @param completed true if the backup is complete
+     */
+    private void recordBackup(final boolean completed) {
+        final BackupCatalogFile.Entry entry = BackupCatalogFile.newEntry(
+                archiveWriter != null ? BackupArchive.getArchiveFile(backupDirectory) : backupDirectory,
+                writtenBytes.get(),
+                writtenFiles.get(),
+                completed);
+        if (entry != null) {
+            BackupCatalogFile.update(backupRoot, catalog -> catalog.put(entry));
+        }
+    }
+
+    /**
+     * Counts a file written to the backup directory or archive for the backup catalog.
+     */
+    private void countWrittenFile(final long size) {
+        writtenFiles.incrementAndGet();
+        writtenBytes.addAndGet(size);
+    }
+
+    /**
+     * @return true if files are copied into the backup directory, false if they are stored in the blob store or an
+     *         archive.
+     */
+    private boolean isCopyingToBackupDirectory() {
+        return blobStore == null && archiveWriter == null;
+    }
+
+    /**
+     * Adds the files written to the backup directory itself, like the list of installed plugins and the manifest, and
+     * the completed marker to the archive. Then the archive gets its final name and the backup directory is removed.
+     *
+     * @throws IOException if an I/O Error occurs
+     */
+    private void completeArchive() throws IOException {
+        final Path backupPath = backupDirectory.toPath();
+        if (Files.isDirectory(backupPath)) {
+            Files.walkFileTree(backupPath, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isRegularFile()) {
+                        archiveWriter.add(toManifestPath(backupPath.relativize(file)), file, attrs);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        archiveWriter.addEmpty(COMPLETED_BACKUP_FILE);
+        final File archive = archiveWriter.commit();
+        FileUtils.deleteDirectory(backupDirectory);
+        LOGGER.log(Level.INFO, "Wrote backup archive {0}.", archive.getName());
+    }
+
+    private void backupFiles() throws IOException {
         backupGlobalXmls();
         backupJobs();
         backupRootFolder(USERS_DIR_NAME);
@@ -217,13 +389,213 @@ public class HudsonBackup {
         }
 
         removeEmptyDirs(backupDirectory);
+        writeManifest();
+    }
 
-        if (backupType == BackupType.FULL) {
-            cleanupDiffs();
-            moveOldBackupsToZipFile(backupDirectory);
-            removeSuperfluousBackupSets();
+    /**
+     * Writes the manifest of this backup. It consists of the entries of the previous manifest for all files which were
+     * skipped as unchanged, and of the files actually copied into this backup. The copies keep the modification time
+     * of their source, so their attributes can be taken from the backup directory itself.
+     * <p>
+     * A differential backup without a previous manifest was planned by file age only and does not know about the
+     * unchanged files, so no manifest is written for it. Deduplicated backups always need their manifest, as it is the
+     * only record of the stored blobs.
+     *
+     * @throws IOException if an I/O Error occurs
+     */
+    private void writeManifest() throws IOException {
+        if (backupType == BackupType.DIFF && previousManifest == null && blobStore == null) {
+            LOGGER.fine("No manifest of a previous backup available, thus no manifest is written for this backup.");
+            return;
         }
-        touchCompleteFile();
+
+        final Path backupPath = backupDirectory.toPath();
+        // removed by removeEmptyDirs if nothing changed since the previous backup
+        Files.createDirectories(backupPath);
+        Files.walkFileTree(backupPath, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                final String name = file.getFileName().toString();
+                if (attrs.isRegularFile()
+                        && !name.equals(BackupManifest.MANIFEST_FILE_NAME)
+                        && !name.equals(COMPLETED_BACKUP_FILE)) {
+                    manifest.record(
+                            toManifestPath(backupPath.relativize(file)),
+                            attrs.size(),
+                            attrs.lastModifiedTime().toMillis(),
+                            null);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        manifest.save(backupDirectory);
+        countWrittenFile(new File(backupDirectory, BackupManifest.MANIFEST_FILE_NAME).length());
+        LOGGER.log(Level.FINE, "Wrote backup manifest with {0} entries.", manifest.size());
+    }
+
+    /**
+     * @return the newest manifest of the latest full backup and its differential backups, or null if none of them has
+     *         a readable manifest.
+     */
+    private BackupManifest loadPreviousManifest() {
+        File latestFullBackup = Utils.getFormattedDirectory(backupRoot, BackupType.FULL, latestFullBackupDate);
+        if (!latestFullBackup.isDirectory()) {
+            latestFullBackup = BackupArchive.getArchiveFile(latestFullBackup);
+        }
+        final List<File> backupChain = new ArrayList<>(Utils.getReferencingDiffBackups(latestFullBackup));
+        backupChain.add(latestFullBackup);
+        backupChain.removeIf(dir -> dir.getName().equals(backupDirectory.getName()));
+        backupChain.sort(Comparator.comparing(
+                        Utils::getDateFromBackupDirectory, Comparator.nullsFirst(Comparator.<Date>naturalOrder()))
+                .reversed());
+
+        for (final File backup : backupChain) {
+            final BackupManifest result = loadManifest(backup);
+            if (result != null) {
+                LOGGER.log(Level.FINE, "Planning differential backup against manifest of {0}.", backup.getName());
+                return result;
+            }
+        }
+        LOGGER.info("No backup manifest found, thus the differential backup contains all files changed since the"
+                + " latest full backup.");
+        return null;
+    }
+
+    /**
+     * @return the manifest of the given backup directory, or null if it has none or it cannot be read.
+     */
+    private BackupManifest loadManifest(final File backup) {
+        if (BackupArchive.isArchive(backup)) {
+            try {
+                return BackupArchive.readManifest(backup);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Cannot read backup manifest of " + backup.getName() + ", ignoring it.", e);
+            }
+        } else if (BackupManifest.hasManifest(backup)) {
+            try {
+                return BackupManifest.load(backup);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Cannot read backup manifest of " + backup.getName() + ", ignoring it.", e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copies the files selected by the selector from the source to the destination directory in a single walk of the
+     * source tree. The attributes of every entry are read once and all selection rules are evaluated against them.
+     * Only directories accepted by the selector are descended into. The backup root is never descended into, in case
+     * it is located inside JENKINS_HOME. Entries which cannot be read are skipped.
+     *
+     * @throws IOException if the source is not a directory or an I/O Error occurs
+     */
+    private void copyDirectory(final File srcDir, final File destDir, final FileSelector selector) throws IOException {
+        final Path source = srcDir.getAbsoluteFile().toPath();
+        Files.walkFileTree(
+                source,
+                EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+                Integer.MAX_VALUE,
+                new SelectiveCopyVisitor(source, destDir.getAbsoluteFile().toPath(), selector));
+    }
+
+    private boolean isBackupRoot(final Path directory) {
+        return directory.normalize().equals(backupRootPath);
+    }
+
+    /**
+     * Copies a single file, creating its parent directories if necessary.
+     *
+     * @throws IOException if an I/O Error occurs
+     */
+    private void copyFile(final File srcFile, final File destFile) throws IOException {
+        final Path source = srcFile.getAbsoluteFile().toPath();
+        final Path target = destFile.getAbsoluteFile().toPath();
+        if (isCopyingToBackupDirectory()) {
+            Files.createDirectories(target.getParent());
+        }
+        copyFile(source, Files.readAttributes(source, BasicFileAttributes.class), target);
+    }
+
+    /**
+     * Copies a file into an existing directory, keeping its modification time. In hard link mode, files which did not
+     * change since the previous full backup are hard linked to the file in that backup instead. In deduplicating mode,
+     * the content is put into the blob store and only recorded in the manifest. In archive mode, the file is added to
+     * the archive instead.
+     *
+     * @throws IOException if an I/O Error occurs
+     */
+    private void copyFile(final Path source, final BasicFileAttributes attrs, final Path target) throws IOException {
+        if (blobStore != null) {
+            storeBlob(source, attrs);
+            return;
+        }
+        if (archiveWriter != null) {
+            archiveWriter.add(toManifestPath(backupDirectoryPath.relativize(target)), source, attrs);
+            manifest.record(
+                    getManifestPath(source),
+                    attrs.size(),
+                    attrs.lastModifiedTime().toMillis(),
+                    null);
+        } else if (linkUnchangedFiles.get() && linkToPreviousFullBackup(source, attrs, target)) {
+            linkedFiles.incrementAndGet();
+        } else {
+            fileCopier.copy(source, attrs, target);
+        }
+        countWrittenFile(attrs.size());
+    }
+
+    /**
+     * @return true if the file was hard linked, false if it has to be copied.
+     */
+    private boolean linkToPreviousFullBackup(final Path source, final BasicFileAttributes attrs, final Path target) {
+        final String manifestPath = getManifestPath(source);
+        if (!previousManifest.isUnchanged(
+                manifestPath, attrs.size(), attrs.lastModifiedTime().toMillis())) {
+            return false;
+        }
+        try {
+            Files.createLink(target, new File(previousFullBackup, manifestPath).toPath());
+            return true;
+        } catch (FileAlreadyExistsException | NoSuchFileException e) {
+            LOGGER.log(Level.FINE, "Cannot hard link " + manifestPath + ", copying it.", e);
+            return false;
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            if (linkUnchangedFiles.compareAndSet(true, false)) {
+                LOGGER.log(
+                        Level.WARNING,
+                        "Cannot create hard links in " + backupRoot + ", copying all remaining files instead.",
+                        e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Stores the file in the blob store. Files which did not change since the previous backup are not read again, if
+     * their blob still exists.
+     *
+     * @throws IOException if an I/O Error occurs
+     */
+    private void storeBlob(final Path source, final BasicFileAttributes attrs) throws IOException {
+        final String manifestPath = getManifestPath(source);
+        final long size = attrs.size();
+        final long lastModified = attrs.lastModifiedTime().toMillis();
+        if (previousManifest != null && previousManifest.isUnchanged(manifestPath, size, lastModified)) {
+            final String hash = previousManifest.getEntry(manifestPath).hash();
+            if (hash != null && blobStore.contains(hash)) {
+                manifest.record(manifestPath, size, lastModified, hash);
+                return;
+            }
+        }
+        manifest.record(manifestPath, size, lastModified, blobStore.store(source.toFile()));
+    }
+
+    private String getManifestPath(final Path path) {
+        return toManifestPath(hudsonHomePath.relativize(path));
+    }
+
+    private static String toManifestPath(final Path relativePath) {
+        return relativePath.toString().replace(File.separatorChar, '/');
     }
 
     /**
@@ -265,14 +637,12 @@ public class HudsonBackup {
     private void backupGlobalXmls() throws IOException {
         LOGGER.fine("Backing up global configuration files...");
 
-        IOFileFilter suffixFileFilter = FileFilterUtils.and(
-                FileFileFilter.INSTANCE,
-                FileFilterUtils.suffixFileFilter(XML_FILE_EXTENSION),
-                getFileAgeDiffFilter(),
-                getExcludedFilesFilter());
+        final FileSelector selector = FileSelector.files()
+                .and(FileSelector.nameSuffix(XML_FILE_EXTENSION))
+                .and(getExcludedFilesSelector())
+                .and(getFileAgeDiffSelector());
         try {
-            FileUtils.copyDirectory(
-                    hudsonHome, backupDirectory, ExistsAndReadableFileFilter.wrapperFilter(suffixFileFilter));
+            copyDirectory(hudsonHome, backupDirectory, selector);
         } catch (IOException e) {
             if (plugin.isFailFast()) {
                 throw e;
@@ -295,56 +665,121 @@ public class HudsonBackup {
 
     private void backupJobsDirectory(@NonNull final File jobsDirectory, final File jobsBackupDirectory)
             throws IOException {
-        final String[] list = jobsDirectory.list();
-        Collection<String> jobNames = Arrays.asList(list != null ? list : new String[0]);
-        LOGGER.log(Level.INFO, "Found " + jobNames.size() + " jobs in " + jobsDirectory.getPath() + " to back up.");
-        LOGGER.log(Level.FINE, "\t{0}", jobNames);
+        final int backupThreads = plugin.getBackupThreads();
+        if (backupThreads > 1) {
+            backupJobsDirectoryInParallel(jobsDirectory, jobsBackupDirectory, backupThreads);
+            return;
+        }
 
-        for (final String jobName : jobNames) {
+        for (final String jobName : listJobNames(jobsDirectory)) {
             final File jobDirectory = new File(jobsDirectory, jobName);
-            if (jobDirectory.exists() && jobDirectory.canRead()) {
-                if (jobDirectory.isDirectory()) { // sub jobs e.g. maven modules need not be copied
-                    File childJobsFolder = new File(jobDirectory, HudsonBackup.JOBS_DIR_NAME);
-                    if (childJobsFolder.exists()) { // found CloudBeesFolder
-                        File folderBackupDirectory = new File(jobsBackupDirectory, jobName);
-                        File folderJobsBackupDirectory = new File(folderBackupDirectory, JOBS_DIR_NAME);
-                        final boolean dirCreationResult = folderJobsBackupDirectory.mkdirs();
-                        if (!dirCreationResult) {
-                            LOGGER.log(
-                                    Level.WARNING,
-                                    "Unable to create following directory during backup creation: "
-                                            + folderJobsBackupDirectory.getAbsolutePath());
-                        }
-                        File expectedConfigXml = new File(jobDirectory, CONFIG_XML);
-                        if (expectedConfigXml.exists() && expectedConfigXml.isFile()) {
-                            FileUtils.copyFile(expectedConfigXml, new File(folderBackupDirectory, CONFIG_XML));
-                        }
-                        backupJobsDirectory(childJobsFolder, folderJobsBackupDirectory);
-                    } else {
-                        try {
-                            backupJob(jobDirectory, jobsBackupDirectory, jobName);
-                        } catch (Exception e) {
-                            if (plugin.isFailFast()) {
-                                throw new IOException("Exception in backing up job in directory: " + jobDirectory, e);
-                            } else {
-                                LOGGER.warning(
-                                        "Failed to backup job " + jobName + " correctly: " + e.getLocalizedMessage());
-                                LOGGER.warning(Throwables.getStackTraceAsString(e));
-                            }
+            if (isReadableJobDirectory(jobDirectory, jobName)) {
+                File childJobsFolder = new File(jobDirectory, HudsonBackup.JOBS_DIR_NAME);
+                if (childJobsFolder.exists()) { // found CloudBeesFolder
+                    File folderJobsBackupDirectory = backupFolderConfig(jobDirectory, jobsBackupDirectory, jobName);
+                    backupJobsDirectory(childJobsFolder, folderJobsBackupDirectory);
+                } else {
+                    try {
+                        backupJob(jobDirectory, jobsBackupDirectory, jobName);
+                    } catch (Exception e) {
+                        if (plugin.isFailFast()) {
+                            throw new IOException("Exception in backing up job in directory: " + jobDirectory, e);
+                        } else {
+                            LOGGER.warning(
+                                    "Failed to backup job " + jobName + " correctly: " + e.getLocalizedMessage());
+                            LOGGER.warning(Throwables.getStackTraceAsString(e));
                         }
                     }
-                } else if (FileUtils.isSymlink(jobDirectory)) {
-                    // TODO: check if copySymLink needed here
                 }
-            } else {
-                final String msg = String.format(
-                        "Either file does not exist or read access denied on directory '%s', cannot back up the job '%s'.",
-                        jobDirectory.getAbsolutePath(), jobName);
-                LOGGER.severe(msg);
             }
         }
     }
 
+    /**
+     * Backs up the jobs directory with a work-stealing pool of the given size. Every folder and every job is a task of
+     * its own, so idle workers steal jobs from folder subtrees other workers are still busy with.
+     * <p>
+     * With failFast enabled no new job is started after the first failure, and the first failure is rethrown with the
+     * failures of jobs that were already running attached as suppressed exceptions. Otherwise failures are logged and
+     * counted.
+     */
+    private void backupJobsDirectoryInParallel(
+            final File jobsDirectory, final File jobsBackupDirectory, final int backupThreads) throws IOException {
+        LOGGER.log(Level.FINE, "Backing up jobs with {0} threads.", backupThreads);
+
+        final ParallelJobBackup parallelJobBackup = new ParallelJobBackup();
+        final ForkJoinPool pool = new ForkJoinPool(backupThreads, JobBackupWorkerThread::new, null, false);
+        try {
+            pool.invoke(parallelJobBackup.new JobsDirectoryTask(jobsDirectory, jobsBackupDirectory));
+        } finally {
+            pool.shutdownNow();
+        }
+
+        final IOException failure = parallelJobBackup.failures.poll();
+        if (failure != null) {
+            IOException suppressed;
+            while ((suppressed = parallelJobBackup.failures.poll()) != null) {
+                failure.addSuppressed(suppressed);
+            }
+            throw failure;
+        }
+        final int failedJobs = parallelJobBackup.failedJobs.get();
+        if (failedJobs > 0) {
+            LOGGER.log(Level.WARNING, "Failed to backup {0} job(s) correctly.", failedJobs);
+        }
+    }
+
+    private Collection<String> listJobNames(final File jobsDirectory) {
+        final String[] list = jobsDirectory.list();
+        Collection<String> jobNames = Arrays.asList(list != null ? list : new String[0]);
+        LOGGER.log(Level.INFO, "Found " + jobNames.size() + " jobs in " + jobsDirectory.getPath() + " to back up.");
+        LOGGER.log(Level.FINE, "\t{0}", jobNames);
+        return jobNames;
+    }
+
+    /**
+     * @return true if the given job directory can be backed up, false if it is not readable or not a directory (e.g.
+     *         sub jobs like maven modules need not be copied).
+     */
+    private boolean isReadableJobDirectory(final File jobDirectory, final String jobName) {
+        if (jobDirectory.exists() && jobDirectory.canRead()) {
+            if (jobDirectory.isDirectory()) {
+                return true;
+            } else if (FileUtils.isSymlink(jobDirectory)) {
+                // TODO: check if copySymLink needed here
+            }
+        } else {
+            final String msg = String.format(
+                    "Either file does not exist or read access denied on directory '%s', cannot back up the job '%s'.",
+                    jobDirectory.getAbsolutePath(), jobName);
+            LOGGER.severe(msg);
+        }
+        return false;
+    }
+
+    /**
+     * Backs up the config.xml of a folder.
+     *
+     * @return the directory the jobs of the folder are backed up to.
+     */
+    private File backupFolderConfig(final File folderDirectory, final File jobsBackupDirectory, final String folderName)
+            throws IOException {
+        File folderBackupDirectory = new File(jobsBackupDirectory, folderName);
+        File folderJobsBackupDirectory = new File(folderBackupDirectory, JOBS_DIR_NAME);
+        final boolean dirCreationResult = folderJobsBackupDirectory.mkdirs();
+        if (!dirCreationResult) {
+            LOGGER.log(
+                    Level.WARNING,
+                    "Unable to create following directory during backup creation: "
+                            + folderJobsBackupDirectory.getAbsolutePath());
+        }
+        File expectedConfigXml = new File(folderDirectory, CONFIG_XML);
+        if (expectedConfigXml.exists() && expectedConfigXml.isFile()) {
+            copyFile(expectedConfigXml, new File(folderBackupDirectory, CONFIG_XML));
+        }
+        return folderJobsBackupDirectory;
+    }
+
     private void backupJob(final File jobDirectory, final File jobsBackupDirectory, final String jobName)
             throws IOException, NoSuchFileException, FileNotFoundException {
         final File jobBackupDirectory = new File(jobsBackupDirectory, jobName);
@@ -370,9 +805,10 @@ public class HudsonBackup {
             }
         }
         if (isMultibranchJob(jobDirectory)) {
-            FileUtils.copyDirectory(
+            copyDirectory(
                     new File(jobDirectory, HudsonBackup.INDEXING_DIR_NAME),
-                    new File(jobBackupDirectory, HudsonBackup.INDEXING_DIR_NAME));
+                    new File(jobBackupDirectory, HudsonBackup.INDEXING_DIR_NAME),
+                    FileSelector.all());
             List<File> configurations =
                     findAllConfigurations(new File(jobDirectory, HudsonBackup.MULTIBRANCH_DIR_NAME));
             for (File configurationDirectory : configurations) {
@@ -384,38 +820,69 @@ public class HudsonBackup {
         }
     }
 
+    /**
+     * Stores the plugin archives in the plugin archive pool, which the list of installed plugins references, and backs
+     * up the markers of disabled plugins. Archives without a plugin version are backed up like other files.
+     *
+     * @throws IOException if an I/O Error occurs
+     */
     private void backupPluginArchives() throws IOException {
         LOGGER.fine("Backing up actual plugin archives...");
 
-        final IOFileFilter pluginArchivesFilter = FileFilterUtils.or(
-                FileFilterUtils.suffixFileFilter(JPI_FILE_EXTENSION),
-                FileFilterUtils.suffixFileFilter(HPI_FILE_EXTENSION));
-        final IOFileFilter disabledPluginMarkersFilter = FileFilterUtils.or(
-                FileFilterUtils.suffixFileFilter(JPI_FILE_EXTENSION + DISABLED_EXTENSION),
-                FileFilterUtils.suffixFileFilter(HPI_FILE_EXTENSION + DISABLED_EXTENSION));
-
-        final IOFileFilter filter = FileFilterUtils.and(
-                FileFileFilter.INSTANCE, FileFilterUtils.or(pluginArchivesFilter, disabledPluginMarkersFilter));
+        final FileSelector pluginArchivesSelector =
+                FileSelector.nameSuffix(JPI_FILE_EXTENSION).or(FileSelector.nameSuffix(HPI_FILE_EXTENSION));
+        final FileSelector disabledPluginMarkersSelector = FileSelector.nameSuffix(
+                        JPI_FILE_EXTENSION + DISABLED_EXTENSION)
+                .or(FileSelector.nameSuffix(HPI_FILE_EXTENSION + DISABLED_EXTENSION));
+
+        backupRootFolder(PLUGINS_DIR_NAME, FileSelector.files().and(disabledPluginMarkersSelector));
+
+        final File pluginsDirectory = new File(hudsonHome, PLUGINS_DIR_NAME);
+        final File[] archives = pluginsDirectory.listFiles(File::isFile);
+        if (archives != null) {
+            final FileSelector selector = pluginArchivesSelector.and(getExcludedFilesSelector());
+            for (final File archive : archives) {
+                final Path archivePath = archive.toPath();
+                final BasicFileAttributes attrs = Files.readAttributes(archivePath, BasicFileAttributes.class);
+                if (selector.accept(archivePath, attrs)) {
+                    poolPluginArchive(archive, attrs);
+                }
+            }
+        }
 
-        backupRootFolder(PLUGINS_DIR_NAME, filter);
+        LOGGER.log(
+                Level.FINE,
+                "DONE backing up actual plugin archives, {0} are in the plugin archive pool.",
+                pluginArchives.size());
+    }
 
-        LOGGER.fine("DONE backing up actual plugin archives.");
+    private void poolPluginArchive(final File archive, final BasicFileAttributes attrs) throws IOException {
+        final String fileName = archive.getName();
+        final String pluginName = fileName.substring(0, fileName.lastIndexOf('.'));
+        String version = null;
+        try {
+            version = PluginArchivePool.readVersion(archive);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot read the version of plugin archive " + fileName + ".", e);
+        }
+        if (version != null) {
+            pluginArchives.put(pluginName, pluginArchivePool.store(archive, pluginName, version));
+        } else if (getFileAgeDiffSelector().accept(archive.toPath(), attrs)) {
+            copyFile(archive, new File(new File(backupDirectory, PLUGINS_DIR_NAME), fileName));
+        }
     }
 
     private void backupAdditionalFiles() throws IOException {
         LOGGER.info("Backing up additional files...");
 
         if (backupAdditionalFilesRegexPattern != null) {
-            final IOFileFilter addFilesFilter = new RegexFileFilter(backupAdditionalFilesRegexPattern);
+            final FileSelector addFilesSelector = FileSelector.nameMatches(backupAdditionalFilesRegexPattern);
 
-            final IOFileFilter filter = FileFilterUtils.and(
-                    addFilesFilter,
-                    FileFilterUtils.or(
-                            DirectoryFileFilter.DIRECTORY,
-                            FileFilterUtils.and(getFileAgeDiffFilter(), getExcludedFilesFilter())));
+            final FileSelector selector = addFilesSelector.and(
+                    FileSelector.directories().or(getExcludedFilesSelector().and(getFileAgeDiffSelector())));
 
             try {
-                FileUtils.copyDirectory(hudsonHome, backupDirectory, ExistsAndReadableFileFilter.wrapperFilter(filter));
+                copyDirectory(hudsonHome, backupDirectory, selector);
             } catch (IOException e) {
                 if (plugin.isFailFast()) {
                     throw e;
@@ -434,9 +901,9 @@ public class HudsonBackup {
     private void backupNodes() throws IOException {
         LOGGER.fine("Backing up nodes configuration files...");
 
-        final IOFileFilter filter = FileFilterUtils.nameFileFilter(CONFIG_XML);
+        final FileSelector selector = FileSelector.name(CONFIG_XML);
         try {
-            backupRootFolder(NODES_DIR_NAME, filter);
+            backupRootFolder(NODES_DIR_NAME, selector);
         } catch (IOException e) {
             if (plugin.isFailFast()) {
                 throw e;
@@ -489,15 +956,12 @@ public class HudsonBackup {
     }
 
     private void backupJobConfigFor(final File jobDirectory, final File jobBackupDirectory) throws IOException {
-        final IOFileFilter filter = FileFilterUtils.and(
-                FileFilterUtils.or(
-                        FileFilterUtils.suffixFileFilter(XML_FILE_EXTENSION),
-                        FileFilterUtils.nameFileFilter(SVN_CREDENTIALS_FILE_NAME),
-                        FileFilterUtils.nameFileFilter(SVN_EXTERNALS_FILE_NAME)),
-                getFileAgeDiffFilter(),
-                getExcludedFilesFilter());
-
-        FileUtils.copyDirectory(jobDirectory, jobBackupDirectory, ExistsAndReadableFileFilter.wrapperFilter(filter));
+        final FileSelector selector = FileSelector.nameSuffix(XML_FILE_EXTENSION)
+                .or(FileSelector.name(SVN_CREDENTIALS_FILE_NAME, SVN_EXTERNALS_FILE_NAME))
+                .and(getExcludedFilesSelector())
+                .and(getFileAgeDiffSelector());
+
+        copyDirectory(jobDirectory, jobBackupDirectory, selector);
         backupNextBuildNumberFile(jobDirectory, jobBackupDirectory);
     }
 
@@ -505,7 +969,7 @@ public class HudsonBackup {
         if (plugin.isBackupNextBuildNumber()) {
             final File nextBuildNumberFile = new File(jobDirectory, NEXT_BUILD_NUMBER_FILE_NAME);
             if (nextBuildNumberFile.exists()) {
-                FileUtils.copyFileToDirectory(nextBuildNumberFile, jobBackupDirectory, true);
+                copyFile(nextBuildNumberFile, new File(jobBackupDirectory, NEXT_BUILD_NUMBER_FILE_NAME));
             }
         }
     }
@@ -515,11 +979,10 @@ public class HudsonBackup {
             final File buildsDir = new File(jobDirectory, BUILDS_DIR_NAME);
             if (buildsDir.list() != null && buildsDir.exists() && buildsDir.isDirectory()) {
                 final String[] builds = buildsDir.list();
-                TopLevelItem job = hudson.getItem(jobDirectory.getName());
                 if (builds != null) {
                     for (final String build : builds) {
                         final File source = new File(buildsDir, build);
-                        if ((!plugin.isBackupBuildsToKeepOnly() || isBuildToKeep(job, source))) {
+                        if ((!plugin.isBackupBuildsToKeepOnly() || isBuildToKeep(source))) {
                             final File destDir = new File(new File(jobBackupDirectory, BUILDS_DIR_NAME), build);
                             if (!isSymLinkFile(source)) {
                                 backupBuildFiles(source, destDir);
@@ -534,35 +997,65 @@ public class HudsonBackup {
         }
     }
 
-    @SuppressWarnings({"unchecked", "rawtypes"})
-    private boolean isBuildToKeep(TopLevelItem item, File buildDir) {
-        if (item instanceof Job job) {
-            RunList<Run> builds = job.getBuilds();
-            for (Run run : builds) {
-                if (run.getRootDir().equals(buildDir)) {
-                    return run.isKeepLog();
+    /**
+     * Reads the keep forever flag of a build from its build.xml with a streaming parser, so the build is not loaded
+     * into Jenkins. Only direct children of the root element are considered.
+     *
+     * @param buildDir the directory of the build
+     * @return true if the build is kept forever, or if this cannot be determined.
+     */
+    static boolean isBuildToKeep(final File buildDir) {
+        final File buildXml = new File(buildDir, BUILD_XML);
+        if (!buildXml.isFile()) {
+            // default to true, in the case we can't resolve this folder as a build
+            return true;
+        }
+        try (InputStream in = Files.newInputStream(buildXml.toPath())) {
+            final XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                int depth = 0;
+                while (reader.hasNext()) {
+                    final int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        ++depth;
+                        if (depth == 2 && KEEP_LOG_ELEMENT.equals(reader.getLocalName())) {
+                            return Boolean.parseBoolean(reader.getElementText().trim());
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        --depth;
+                    }
                 }
+                return false;
+            } finally {
+                reader.close();
             }
+        } catch (IOException | XMLStreamException e) {
+            LOGGER.log(Level.FINE, "Cannot read keepLog flag of " + buildXml + ", thus backing up the build.", e);
+            return true;
         }
-        // default to true, in the case we can't resolve this folder in the Jenkins instance
-        return true;
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
     }
 
     private void backupBuildFiles(final File source, final File destination) throws IOException {
         if (source.isDirectory()) {
-            final IOFileFilter changelogFilter = FileFilterUtils.and(
-                    DirectoryFileFilter.DIRECTORY, FileFilterUtils.nameFileFilter(CHANGELOG_HISTORY_PLUGIN_DIR_NAME));
-            final IOFileFilter fileFilter = FileFilterUtils.and(FileFileFilter.INSTANCE, getFileAgeDiffFilter());
-
-            IOFileFilter filter = FileFilterUtils.and(
-                    FileFilterUtils.or(changelogFilter, fileFilter),
-                    getExcludedFilesFilter(),
-                    FileFilterUtils.notFileFilter(FileFilterUtils.suffixFileFilter(ZIP_FILE_EXTENSION)));
-            FileUtils.copyDirectory(source, destination, ExistsAndReadableFileFilter.wrapperFilter(filter));
+            final FileSelector changelogSelector =
+                    FileSelector.directories().and(FileSelector.name(CHANGELOG_HISTORY_PLUGIN_DIR_NAME));
+            final FileSelector fileSelector = FileSelector.files().and(getFileAgeDiffSelector());
+
+            final FileSelector selector = getExcludedFilesSelector()
+                    .and(FileSelector.nameSuffix(ZIP_FILE_EXTENSION).negate())
+                    .and(changelogSelector.or(fileSelector));
+            copyDirectory(source, destination, selector);
         } else if (FileUtils.isSymlink(source)) {
             // TODO: check if copy symlink needed here
         } else if (source.isFile()) {
-            FileUtils.copyFile(source, destination);
+            copyFile(source, destination);
         }
     }
 
@@ -570,20 +1063,16 @@ public class HudsonBackup {
         if (plugin.isBackupBuildArchive()) {
             final File archiveSrcDir = new File(buildSrcDir, ARCHIVE_DIR_NAME);
             if (archiveSrcDir.isDirectory()) {
-                final IOFileFilter filter = FileFilterUtils.or(
-                        FileFilterUtils.directoryFileFilter(),
-                        FileFilterUtils.and(FileFileFilter.INSTANCE, getFileAgeDiffFilter()));
-                FileUtils.copyDirectory(
-                        archiveSrcDir,
-                        new File(buildDestDir, ARCHIVE_DIR_NAME),
-                        ExistsAndReadableFileFilter.wrapperFilter(filter));
+                final FileSelector selector =
+                        FileSelector.directories().or(FileSelector.files().and(getFileAgeDiffSelector()));
+                copyDirectory(archiveSrcDir, new File(buildDestDir, ARCHIVE_DIR_NAME), selector);
             }
         }
     }
 
     private void backupRootFolder(String folderName) throws IOException {
         try {
-            backupRootFolder(folderName, TrueFileFilter.INSTANCE);
+            backupRootFolder(folderName, FileSelector.all());
         } catch (IOException e) {
             if (plugin.isFailFast()) {
                 throw e;
@@ -594,14 +1083,16 @@ public class HudsonBackup {
         }
     }
 
-    private void backupRootFolder(String folderName, IOFileFilter fileFilter) throws IOException {
+    private void backupRootFolder(String folderName, FileSelector fileSelector) throws IOException {
         final File srcDirectory = new File(hudsonHome.getAbsolutePath(), folderName);
         if (srcDirectory.exists() && srcDirectory.isDirectory()) {
             LOGGER.log(Level.FINE, "Backing up {0}...", folderName);
             final File destDirectory = new File(backupDirectory.getAbsolutePath(), folderName);
-            IOFileFilter filter = FileFilterUtils.and(fileFilter, getFileAgeDiffFilter(), getExcludedFilesFilter());
-            filter = FileFilterUtils.or(filter, DirectoryFileFilter.DIRECTORY);
-            FileUtils.copyDirectory(srcDirectory, destDirectory, ExistsAndReadableFileFilter.wrapperFilter(filter));
+            final FileSelector selector = fileSelector
+                    .and(getExcludedFilesSelector())
+                    .and(getFileAgeDiffSelector())
+                    .or(FileSelector.directories());
+            copyDirectory(srcDirectory, destDirectory, selector);
             LOGGER.log(Level.FINE, "DONE backing up {0}.", folderName);
         }
     }
@@ -624,6 +1115,7 @@ public class HudsonBackup {
         if (latestFullPlugins == null || pluginList.compareTo(latestFullPlugins) != 0) {
             LOGGER.fine("Storing list of installed plugins...");
             pluginList.save();
+            countWrittenFile(new File(backupDirectory, INSTALLED_PLUGINS_XML).length());
         } else {
             LOGGER.fine("No changes in plugin list since last full backup.");
         }
@@ -641,6 +1133,7 @@ public class HudsonBackup {
         for (final PluginWrapper pluginWrapper : installedPlugins) {
             newPluginList.add(pluginWrapper.getShortName(), pluginWrapper.getVersion());
         }
+        newPluginList.setArchives(pluginArchives);
 
         return newPluginList;
     }
@@ -656,7 +1149,8 @@ public class HudsonBackup {
     private void removeSuperfluousBackupSets() throws IOException {
         if (plugin.getNrMaxStoredFull() > 0) {
             LOGGER.fine("Removing superfluous backup sets...");
-            final List<BackupSet> validBackupSets = Utils.getValidBackupSets(new File(plugin.getExpandedBackupPath()));
+            final List<BackupSet> validBackupSets =
+                    BackupCatalogFile.load(backupRoot).getBackupSets();
             int nrOfRemovedBackups = 0;
             while (validBackupSets.size() > plugin.getNrMaxStoredFull()) {
                 final BackupSet set = validBackupSets.get(0);
@@ -668,69 +1162,275 @@ public class HudsonBackup {
         }
     }
 
+    /**
+     * Removes the blobs no longer referenced by any backup, after backup sets were removed. This also covers blobs of
+     * deduplicated backups made before the storage mode was changed.
+     */
+    private void removeUnreferencedBlobs() throws IOException {
+        final BlobStore store = new BlobStore(backupRoot);
+        if (store.exists()) {
+            try {
+                store.collectGarbage();
+            } catch (IOException e) {
+                if (plugin.isFailFast()) {
+                    throw e;
+                } else {
+                    LOGGER.warning("Failed to remove unreferenced blobs: " + e.getLocalizedMessage());
+                    LOGGER.warning(Throwables.getStackTraceAsString(e));
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the plugin archives no longer referenced by any backup, after backup sets were removed. This also covers
+     * archives of backups made before backing up plugin archives was disabled.
+     */
+    private void removeUnreferencedPluginArchives() throws IOException {
+        final PluginArchivePool pool = new PluginArchivePool(backupRoot);
+        if (pool.exists()) {
+            try {
+                pool.collectGarbage();
+            } catch (IOException e) {
+                if (plugin.isFailFast()) {
+                    throw e;
+                } else {
+                    LOGGER.warning("Failed to remove unreferenced plugin archives: " + e.getLocalizedMessage());
+                    LOGGER.warning(Throwables.getStackTraceAsString(e));
+                }
+            }
+        }
+    }
+
     private void cleanupDiffs() throws IOException {
         if (plugin.isCleanupDiff()) {
             LOGGER.fine("Cleaning up diffs...");
 
-            final Collection<File> diffDirs =
-                    Utils.getBackupTypeDirectories(backupDirectory.getParentFile(), BackupType.DIFF);
+            final List<File> diffDirs = BackupCatalogFile.load(backupRoot).getBackups(BackupType.DIFF);
 
             for (final File diffDirToDelete : diffDirs) {
-                FileUtils.deleteDirectory(diffDirToDelete);
+                FileUtils.forceDelete(diffDirToDelete);
+                BackupCatalog.get().changed(diffDirToDelete);
             }
+            BackupCatalogFile.update(backupRoot, catalog -> {
+                for (final File diffDir : diffDirs) {
+                    catalog.remove(diffDir.getName());
+                }
+            });
             LOGGER.log(Level.FINE, "DONE. Removed {0} unnecessary diff directories.", diffDirs.size());
         }
     }
 
     private void moveOldBackupsToZipFile(final File currentBackup) {
         if (plugin.isMoveOldBackupsToZipFile()) {
-            final ZipperThread zipperThread = new ZipperThread(backupRoot, currentBackup);
+            final ZipperThread zipperThread = new ZipperThread(backupRoot, currentBackup, plugin.getZipThreads());
             zipperThread.start();
         }
     }
 
-    private IOFileFilter getFileAgeDiffFilter() {
-        IOFileFilter result = FileFilterUtils.trueFileFilter();
+    /**
+     * For differential backups, files are compared against the manifest of the previous backup if there is one, so
+     * only files changed since the previous backup are accepted. Unchanged files are recorded in the manifest of this
+     * backup. Without a previous manifest all files changed since the latest full backup are accepted.
+     * <p>
+     * As this selector records files, it has to be the last one in a chain of selectors.
+     */
+    private FileSelector getFileAgeDiffSelector() {
+        FileSelector result = FileSelector.all();
 
         if (backupType == BackupType.DIFF) {
-            result = FileFilterUtils.ageFileFilter(latestFullBackupDate, false);
+            if (previousManifest != null) {
+                result = (path, attrs) -> {
+                    if (attrs.isDirectory()) {
+                        return true;
+                    }
+                    final String manifestPath = getManifestPath(path);
+                    if (previousManifest.isUnchanged(
+                            manifestPath, attrs.size(), attrs.lastModifiedTime().toMillis())) {
+                        manifest.recordFrom(manifestPath, previousManifest);
+                        return false;
+                    }
+                    return true;
+                };
+            } else {
+                result = FileSelector.modifiedAfter(latestFullBackupDate);
+            }
         }
 
         return result;
     }
 
-    private IOFileFilter getExcludedFilesFilter() {
-        IOFileFilter result = FileFilterUtils.trueFileFilter();
+    private FileSelector getExcludedFilesSelector() {
+        FileSelector result = FileSelector.all();
 
         if (excludedFilesRegexPattern != null) {
-            result = FileFilterUtils.notFileFilter(new RegexFileFilter(excludedFilesRegexPattern));
+            result = FileSelector.nameMatches(excludedFilesRegexPattern).negate();
         }
 
         return result;
     }
 
     private Date getLatestFullBackupDate() {
-        final List<File> fullBackups = Utils.getBackupTypeDirectories(backupRoot, BackupType.FULL);
-        if ((fullBackups == null) || (fullBackups.isEmpty())) {
-            return null;
+        return BackupCatalogFile.load(backupRoot).getLatestFullBackupDate();
+    }
+
+    /**
+     * Walks a source tree and copies the selected regular files to the same relative path in the destination. The
+     * directories of the destination are only created when the first file is copied into them.
+     */
+    private final class SelectiveCopyVisitor extends SimpleFileVisitor<Path> {
+        private final Path source;
+        private final Path destination;
+        private final FileSelector selector;
+        private Path createdDirectory = null;
+
+        SelectiveCopyVisitor(final Path source, final Path destination, final FileSelector selector) {
+            this.source = source;
+            this.destination = destination;
+            this.selector = selector;
         }
 
-        Date result = new Date(0);
-        for (final File fullBackup : fullBackups) {
-            final Date tmp = Utils.getDateFromBackupDirectory(fullBackup);
-            if (tmp != null) {
-                if (tmp.after(result)) {
-                    result = tmp;
+        @Override
+        public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+            if (isBackupRoot(dir) || (!dir.equals(source) && !selector.accept(dir, attrs))) {
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+            if (file.equals(source)) {
+                throw new FileNotFoundException("Source '" + source + "' is not a directory.");
+            }
+            if (attrs.isRegularFile() && selector.accept(file, attrs)) {
+                final Path target = destination.resolve(source.relativize(file));
+                final Path targetDirectory = target.getParent();
+                if (isCopyingToBackupDirectory() && !targetDirectory.equals(createdDirectory)) {
+                    Files.createDirectories(targetDirectory);
+                    createdDirectory = targetDirectory;
+                }
+                try {
+                    copyFile(file, attrs, target);
+                } catch (AccessDeniedException e) {
+                    if (!file.toString().equals(e.getFile())) {
+                        throw e;
+                    }
+                    LOGGER.log(Level.FINE, "Cannot read " + file + ", thus it is not backed up.", e);
                 }
-            } else {
-                LOGGER.log(
-                        Level.INFO,
-                        "Cannot parse directory name ' {0} ', thus ignoring it when getting latest backup date.",
-                        fullBackup.getName());
             }
+            return FileVisitResult.CONTINUE;
         }
 
-        return result;
+        @Override
+        public FileVisitResult visitFileFailed(final Path file, final IOException exc) throws IOException {
+            if (file.equals(source)) {
+                if (exc instanceof NoSuchFileException) {
+                    throw new FileNotFoundException("Source '" + source + "' does not exist.");
+                }
+                throw exc;
+            }
+            // broken links, unreadable directories and files removed while walking the tree
+            LOGGER.log(Level.FINE, "Cannot read " + file + ", thus it is not backed up.", exc);
+            return FileVisitResult.CONTINUE;
+        }
+    }
+
+    /**
+     * State shared by the tasks of one parallel backup of the jobs directory.
+     */
+    private final class ParallelJobBackup {
+        private final Queue<IOException> failures = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger failedJobs = new AtomicInteger();
+        private final AtomicBoolean aborted = new AtomicBoolean();
+
+        /**
+         * Backs up one jobs directory: forks a task for every job and every sub folder and waits for all of them.
+         */
+        private final class JobsDirectoryTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final File jobsDirectory;
+            private final File jobsBackupDirectory;
+
+            JobsDirectoryTask(final File jobsDirectory, final File jobsBackupDirectory) {
+                this.jobsDirectory = jobsDirectory;
+                this.jobsBackupDirectory = jobsBackupDirectory;
+            }
+
+            @Override
+            protected void compute() {
+                final List<RecursiveAction> tasks = new ArrayList<>();
+                for (final String jobName : listJobNames(jobsDirectory)) {
+                    if (aborted.get()) {
+                        return;
+                    }
+                    final File jobDirectory = new File(jobsDirectory, jobName);
+                    if (isReadableJobDirectory(jobDirectory, jobName)) {
+                        File childJobsFolder = new File(jobDirectory, HudsonBackup.JOBS_DIR_NAME);
+                        if (childJobsFolder.exists()) { // found CloudBeesFolder
+                            try {
+                                File folderJobsBackupDirectory =
+                                        backupFolderConfig(jobDirectory, jobsBackupDirectory, jobName);
+                                tasks.add(new JobsDirectoryTask(childJobsFolder, folderJobsBackupDirectory));
+                            } catch (IOException e) {
+                                // like in the sequential backup, a folder which cannot be backed up fails the backup
+                                aborted.set(true);
+                                failures.add(e);
+                                return;
+                            }
+                        } else {
+                            tasks.add(new JobTask(jobDirectory, jobsBackupDirectory, jobName));
+                        }
+                    }
+                }
+                invokeAll(tasks);
+            }
+        }
+
+        /**
+         * Backs up a single job.
+         */
+        private final class JobTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final File jobDirectory;
+            private final File jobsBackupDirectory;
+            private final String jobName;
+
+            JobTask(final File jobDirectory, final File jobsBackupDirectory, final String jobName) {
+                this.jobDirectory = jobDirectory;
+                this.jobsBackupDirectory = jobsBackupDirectory;
+                this.jobName = jobName;
+            }
+
+            @Override
+            protected void compute() {
+                if (aborted.get()) {
+                    return;
+                }
+                try {
+                    backupJob(jobDirectory, jobsBackupDirectory, jobName);
+                } catch (Exception e) {
+                    if (plugin.isFailFast()) {
+                        aborted.set(true);
+                        failures.add(new IOException("Exception in backing up job in directory: " + jobDirectory, e));
+                    } else {
+                        failedJobs.incrementAndGet();
+                        LOGGER.warning("Failed to backup job " + jobName + " correctly: " + e.getLocalizedMessage());
+                        LOGGER.warning(Throwables.getStackTraceAsString(e));
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class JobBackupWorkerThread extends ForkJoinWorkerThread {
+        JobBackupWorkerThread(final ForkJoinPool pool) {
+            super(pool);
+            setName("ThinBackup job backup worker " + getPoolIndex());
+            setContextClassLoader(HudsonBackup.class.getClassLoader());
+        }
     }
 
     /**
@@ -742,16 +1442,22 @@ public class HudsonBackup {
 
         private final File backupRoot;
         private final File currentBackup;
+        private final int zipThreads;
 
         public ZipperThread(final File backupRoot, final File currentBackup) {
+            this(backupRoot, currentBackup, 1);
+        }
+
+        public ZipperThread(final File backupRoot, final File currentBackup, final int zipThreads) {
             this.backupRoot = backupRoot;
             this.currentBackup = currentBackup;
+            this.zipThreads = zipThreads;
         }
 
         @Override
         public void run() {
             LOGGER.fine("Starting zipper thread...");
-            Utils.moveOldBackupsToZipFile(backupRoot, currentBackup);
+            Utils.moveOldBackupsToZipFile(backupRoot, currentBackup, zipThreads);
             LOGGER.fine("DONE zipping.");
         }
     }
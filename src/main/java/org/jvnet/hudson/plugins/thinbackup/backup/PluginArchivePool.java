@@ -0,0 +1,244 @@
+/*
+ *  Copyright (C) 2011  Matthias Steinkogler, Thomas Fürer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see http://www.gnu.org/licenses.
+ */
+package org.jvnet.hudson.plugins.thinbackup.backup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.apache.commons.io.FileUtils;
+import org.jvnet.hudson.plugins.thinbackup.ThinBackupPeriodicWork.BackupType;
+import org.jvnet.hudson.plugins.thinbackup.utils.Utils;
+
+/**
+ * Pool of the plugin archives of all backups. Every version of a plugin archive is stored exactly once in the directory
+ * "plugin-archives" of the backup root, named {@code name@version.jpi}. The lists of installed plugins of the backups
+ * reference the archives in the pool instead of every backup containing a copy of JENKINS_HOME/plugins.
+ * <p>
+ * Archives no longer referenced by any backup are removed by {@link #collectGarbage()}. Backups hold the read lock of
+ * {@link #LOCK} while they run, garbage collection holds the write lock, so no archive is removed while a backup is
+ * about to reference it.
+ */
+public class PluginArchivePool {
+    private static final Logger LOGGER = Logger.getLogger("hudson.plugins.thinbackup");
+
+    public static final String POOL_DIR_NAME = "plugin-archives";
+    public static final String PLUGIN_VERSION_ATTRIBUTE = "Plugin-Version";
+    public static final ReadWriteLock LOCK = new ReentrantReadWriteLock();
+
+    private static final String TMP_DIR_NAME = "tmp";
+
+    private final File backupRoot;
+    private final File poolDirectory;
+
+    public PluginArchivePool(final File backupRoot) {
+        this.backupRoot = backupRoot;
+        this.poolDirectory = new File(backupRoot, POOL_DIR_NAME);
+    }
+
+    /**
+     * @return true if any plugin archives were stored in this backup root.
+     */
+    public boolean exists() {
+        return poolDirectory.isDirectory();
+    }
+
+    /**
+     * @param archiveName name of an archive in the pool, as referenced by a {@link PluginList}
+     * @return the file holding the archive, which might not exist.
+     */
+    public File getArchiveFile(final String archiveName) {
+        return new File(poolDirectory, archiveName);
+    }
+
+    /**
+     * @param pluginName short name of the plugin
+     * @param version version of the plugin
+     * @param extension extension of the archive, {@code .jpi} or {@code .hpi}
+     * @return the name of the archive in the pool. Characters of the version not allowed in file names are replaced.
+     */
+    public static String getArchiveName(final String pluginName, final String version, final String extension) {
+        return pluginName + "@" + version.replaceAll("[^\\w.+-]", "_") + extension;
+    }
+
+    /**
+     * @param archive a plugin archive
+     * @return the version of the plugin from the manifest of the archive, or null if it has none.
+     * @throws IOException if the archive cannot be read
+     */
+    public static String readVersion(final File archive) throws IOException {
+        try (JarFile jar = new JarFile(archive)) {
+            final Manifest manifest = jar.getManifest();
+            return manifest == null ? null : manifest.getMainAttributes().getValue(PLUGIN_VERSION_ATTRIBUTE);
+        }
+    }
+
+    /**
+     * Stores the plugin archive, unless the same version of the plugin is already stored.
+     *
+     * @param archive plugin archive to store
+     * @param pluginName short name of the plugin
+     * @param version version of the plugin in the archive
+     * @return the name of the archive in the pool.
+     * @throws IOException if an I/O error occurs
+     */
+    public String store(final File archive, final String pluginName, final String version) throws IOException {
+        final String extension = archive.getName().endsWith(HudsonBackup.HPI_FILE_EXTENSION)
+                ? HudsonBackup.HPI_FILE_EXTENSION
+                : HudsonBackup.JPI_FILE_EXTENSION;
+        final String archiveName = getArchiveName(pluginName, version, extension);
+        final File pooledArchive = getArchiveFile(archiveName);
+        if (pooledArchive.isFile()) {
+            return archiveName;
+        }
+
+        final Path tmpDirectory = new File(poolDirectory, TMP_DIR_NAME).toPath();
+        Files.createDirectories(tmpDirectory);
+        final Path tmpFile = Files.createTempFile(tmpDirectory, pluginName, ".tmp");
+        try {
+            Files.copy(
+                    archive.toPath(), tmpFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            try {
+                Files.move(tmpFile, pooledArchive.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // stored concurrently by another backup
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile, pooledArchive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            LOGGER.log(Level.FINE, "Stored plugin archive {0}.", archiveName);
+            return archiveName;
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    /**
+     * Removes all archives which are not referenced by the list of installed plugins of any backup in the backup root,
+     * neither in backup directories nor in ZIP files. If any list cannot be read, nothing is removed.
+     *
+     * @return the number of removed archives.
+     * @throws IOException if an I/O error occurs
+     */
+    public int collectGarbage() throws IOException {
+        if (!exists()) {
+            return 0;
+        }
+
+        LOCK.writeLock().lock();
+        try {
+            LOGGER.fine("Collecting unreferenced plugin archives...");
+            final Set<String> referenced = new HashSet<>();
+            try {
+                markReferencedArchives(referenced);
+            } catch (IOException e) {
+                LOGGER.log(
+                        Level.WARNING, "Cannot read all lists of installed plugins, thus no archives are removed.", e);
+                return 0;
+            }
+
+            FileUtils.deleteDirectory(new File(poolDirectory, TMP_DIR_NAME));
+            int removed = 0;
+            final File[] archives = poolDirectory.listFiles(File::isFile);
+            if (archives != null) {
+                for (final File archive : archives) {
+                    if (!referenced.contains(archive.getName())) {
+                        Files.delete(archive.toPath());
+                        ++removed;
+                    }
+                }
+            }
+            LOGGER.log(
+                    Level.FINE,
+                    "DONE. Removed {0} unreferenced plugin archives, {1} archives are in use.",
+                    new Object[] {removed, referenced.size()});
+            return removed;
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    private void markReferencedArchives(final Set<String> referenced) throws IOException {
+        // directories first: a backup set is only deleted after it has been zipped completely
+        for (final BackupType type : new BackupType[] {BackupType.FULL, BackupType.DIFF}) {
+            for (final File backup : Utils.getBackupTypeDirectories(backupRoot, type)) {
+                if (BackupArchive.isArchive(backup)) {
+                    try (ZipFile zipFile = new ZipFile(backup)) {
+                        final ZipEntry entry = zipFile.getEntry(HudsonBackup.INSTALLED_PLUGINS_XML);
+                        if (entry != null) {
+                            markReferencedArchives(zipFile, entry, referenced);
+                        }
+                    }
+                } else {
+                    final File pluginsXml = new File(backup, HudsonBackup.INSTALLED_PLUGINS_XML);
+                    if (pluginsXml.isFile()) {
+                        final PluginList pluginList = new PluginList(pluginsXml);
+                        pluginList.load();
+                        referenced.addAll(pluginList.getArchives().values());
+                    }
+                }
+            }
+        }
+        for (final File zip : Utils.getBackupSetZipFiles(backupRoot)) {
+            try (ZipFile zipFile = new ZipFile(zip)) {
+                boolean foundPluginList = false;
+                final Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+                while (zipEntries.hasMoreElements()) {
+                    final ZipEntry entry = zipEntries.nextElement();
+                    if (isPluginList(entry)) {
+                        markReferencedArchives(zipFile, entry, referenced);
+                        foundPluginList = true;
+                    }
+                }
+                // every full backup has a list of installed plugins, so missing ones mean the zip is not understood
+                if (!foundPluginList) {
+                    throw new IOException("No list of installed plugins found in '" + zip + "'.");
+                }
+            }
+        }
+    }
+
+    /**
+     * The entries of zipped backup sets are named with the file separator of the system which zipped them.
+     */
+    private static boolean isPluginList(final ZipEntry entry) {
+        return entry.getName().replace('\\', '/').endsWith("/" + HudsonBackup.INSTALLED_PLUGINS_XML);
+    }
+
+    private static void markReferencedArchives(
+            final ZipFile zipFile, final ZipEntry entry, final Set<String> referenced) throws IOException {
+        final PluginList pluginList = new PluginList(null);
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            pluginList.load(in);
+        }
+        referenced.addAll(pluginList.getArchives().values());
+    }
+}
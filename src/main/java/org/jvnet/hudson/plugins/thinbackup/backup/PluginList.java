@@ -20,6 +20,7 @@ import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.XmlFile;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -28,6 +29,9 @@ import jenkins.model.Jenkins;
 
 public class PluginList implements Comparable<PluginList> {
     private Map<String, String> plugins;
+    /** The archives of the plugins in the {@link PluginArchivePool} by plugin name, null in older lists. */
+    private Map<String, String> archives;
+
     private final File pluginsXml;
 
     public PluginList(final File pluginsXml) {
@@ -47,6 +51,18 @@ public class PluginList implements Comparable<PluginList> {
         this.plugins = plugins;
     }
 
+    /**
+     * @return the names of the archives in the {@link PluginArchivePool} by plugin name, empty if the plugin archives
+     *         were not backed up into the pool.
+     */
+    public Map<String, String> getArchives() {
+        return archives == null ? Map.of() : archives;
+    }
+
+    public void setArchives(final Map<String, String> archives) {
+        this.archives = archives == null || archives.isEmpty() ? null : new HashMap<>(archives);
+    }
+
     public void save() throws IOException {
         new XmlFile(Jenkins.XSTREAM, pluginsXml).write(this);
     }
@@ -58,6 +74,20 @@ public class PluginList implements Comparable<PluginList> {
         }
     }
 
+    /**
+     * Loads the list from a stream, e.g. an entry of a ZIP file.
+     *
+     * @param in the stream to read the list from, which is not closed
+     * @throws IOException if the list cannot be read
+     */
+    public void load(final InputStream in) throws IOException {
+        try {
+            Jenkins.XSTREAM.fromXML(in, this);
+        } catch (RuntimeException e) {
+            throw new IOException("Cannot read the list of installed plugins.", e);
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -67,12 +97,12 @@ public class PluginList implements Comparable<PluginList> {
             return false;
         }
         PluginList that = (PluginList) o;
-        return Objects.equals(plugins, that.plugins);
+        return Objects.equals(plugins, that.plugins) && getArchives().equals(that.getArchives());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(plugins);
+        return Objects.hash(plugins, getArchives());
     }
 
     @Override
@@ -83,7 +113,7 @@ public class PluginList implements Comparable<PluginList> {
 
         final Map<String, String> plugins2 = other.getPlugins();
 
-        if (plugins2.size() != plugins.size()) {
+        if (plugins2.size() != plugins.size() || !getArchives().equals(other.getArchives())) {
             return -1;
         }
 
@@ -19,45 +19,62 @@ package org.jvnet.hudson.plugins.thinbackup.restore;
 import static org.jvnet.hudson.plugins.thinbackup.backup.HudsonBackup.COMPLETED_BACKUP_FILE;
 
 import hudson.PluginManager;
-import hudson.model.UpdateCenter;
-import hudson.model.UpdateCenter.UpdateCenterJob;
-import hudson.model.UpdateSite;
-import hudson.model.UpdateSite.Plugin;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileReader;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.Future;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.commons.io.filefilter.FileFileFilter;
 import org.apache.commons.io.filefilter.FileFilterUtils;
 import org.apache.commons.io.filefilter.IOFileFilter;
-import org.apache.commons.io.filefilter.TrueFileFilter;
 import org.jvnet.hudson.plugins.thinbackup.ThinBackupPeriodicWork.BackupType;
+import org.jvnet.hudson.plugins.thinbackup.backup.BackupArchive;
+import org.jvnet.hudson.plugins.thinbackup.backup.BackupManifest;
 import org.jvnet.hudson.plugins.thinbackup.backup.BackupSet;
+import org.jvnet.hudson.plugins.thinbackup.backup.BackupSetGraph;
+import org.jvnet.hudson.plugins.thinbackup.backup.BlobStore;
 import org.jvnet.hudson.plugins.thinbackup.backup.HudsonBackup;
+import org.jvnet.hudson.plugins.thinbackup.backup.PluginArchivePool;
 import org.jvnet.hudson.plugins.thinbackup.backup.PluginList;
+import org.jvnet.hudson.plugins.thinbackup.restore.PluginRestoreUpdateCenter.PluginRestoreJob;
+import org.jvnet.hudson.plugins.thinbackup.restore.RestoreProgress.Phase;
+import org.jvnet.hudson.plugins.thinbackup.utils.FileCopier;
+import org.jvnet.hudson.plugins.thinbackup.utils.FileSelector;
 import org.jvnet.hudson.plugins.thinbackup.utils.Utils;
 
 public class HudsonRestore {
-    private static final int SLEEP_TIMEOUT = 500;
+    /** System property with the maximum number of plugins downloaded at the same time. */
+    private static final String PLUGIN_DOWNLOAD_THREADS_PROPERTY =
+            HudsonRestore.class.getName() + ".pluginDownloadThreads";
+
+    private static final int DEFAULT_PLUGIN_DOWNLOAD_THREADS = 4;
 
     private static final Logger LOGGER = Logger.getLogger("hudson.plugins.thinbackup");
 
@@ -66,7 +83,11 @@ public class HudsonRestore {
     private final Date restoreFromDate;
     private final boolean restoreNextBuildNumber;
     private final boolean restorePlugins;
-    private final Map<String, List<Plugin>> availablePluginLocations;
+    private final boolean restoreIncremental;
+    private final int restoreThreads;
+    private final RestorePaths restorePaths;
+    private final FileCopier fileCopier = new FileCopier();
+    private final RestoreProgress progress = new RestoreProgress(fileCopier);
 
     public HudsonRestore(
             final File hudsonConfigurationPath,
@@ -74,48 +95,115 @@ public class HudsonRestore {
             final Date restoreFromDate,
             final boolean restoreNextBuildNumber,
             final boolean restorePlugins) {
+        this(hudsonConfigurationPath, backupPath, restoreFromDate, restoreNextBuildNumber, restorePlugins, false, 1);
+    }
+
+    /**
+     * @param restoreIncremental true to only copy the files which differ from the ones in JENKINS_HOME
+     * @param restoreThreads number of threads used to copy the files of backup directories to JENKINS_HOME
+     */
+    public HudsonRestore(
+            final File hudsonConfigurationPath,
+            final String backupPath,
+            final Date restoreFromDate,
+            final boolean restoreNextBuildNumber,
+            final boolean restorePlugins,
+            final boolean restoreIncremental,
+            final int restoreThreads) {
+        this(
+                hudsonConfigurationPath,
+                backupPath,
+                restoreFromDate,
+                restoreNextBuildNumber,
+                restorePlugins,
+                restoreIncremental,
+                restoreThreads,
+                RestorePaths.ALL);
+    }
+
+    /**
+     * @param restorePaths the items and paths to restore, {@link RestorePaths#ALL} to restore the whole backup; the
+     *         plugin archives are restored as well if the plugins are restored
+     */
+    public HudsonRestore(
+            final File hudsonConfigurationPath,
+            final String backupPath,
+            final Date restoreFromDate,
+            final boolean restoreNextBuildNumber,
+            final boolean restorePlugins,
+            final boolean restoreIncremental,
+            final int restoreThreads,
+            final RestorePaths restorePaths) {
         this.hudsonHome = hudsonConfigurationPath;
         this.backupPath = backupPath;
         this.restoreFromDate = restoreFromDate;
         this.restoreNextBuildNumber = restoreNextBuildNumber;
         this.restorePlugins = restorePlugins;
-        this.availablePluginLocations = new HashMap<>();
+        this.restoreIncremental = restoreIncremental;
+        this.restoreThreads = Math.max(1, restoreThreads);
+        // plugin archives in the backup are restored like other files and installed instead of downloading the plugins
+        this.restorePaths = restorePlugins ? restorePaths.and("/" + HudsonBackup.PLUGINS_DIR_NAME) : restorePaths;
     }
 
-    public void restore() {
+    /**
+     * @return true if the backup was restored.
+     */
+    public boolean restore() {
         if (backupPath == null || backupPath.isEmpty()) {
             LOGGER.severe("Backup path not specified for restoration. Aborting.");
-            return;
+            progress.setPhase(Phase.FAILED);
+            return false;
         }
         if (restoreFromDate == null) {
             LOGGER.severe("Backup date to restore from was not specified. Aborting.");
-            return;
+            progress.setPhase(Phase.FAILED);
+            return false;
         }
 
+        if (!restorePaths.isAll()) {
+            LOGGER.log(Level.INFO, "Restoring {0} only.", restorePaths);
+        }
+        progress.setPhase(Phase.RESTORING_FILES);
+        boolean success = false;
         try {
-            boolean success = restoreFromDirectories(backupPath);
+            success = restoreFromDirectories(backupPath);
             if (!success) {
                 success = restoreFromZipFile();
             }
             if (!success) {
                 LOGGER.severe("Could not restore backup.");
             } else {
-                LOGGER.info("Restore completed successfully.");
+                LOGGER.log(Level.INFO, "Restore completed successfully, copied {0}.", fileCopier.getSummary());
+            }
+        } catch (final InterruptedIOException e) {
+            if (progress.isCancelled()) {
+                LOGGER.log(Level.INFO, "Restore cancelled, copied {0}.", fileCopier.getSummary());
+                progress.setPhase(Phase.CANCELLED);
+                return false;
             }
+            LOGGER.log(Level.SEVERE, "Could not restore backup.", e);
         } catch (final IOException ioe) {
             LOGGER.log(Level.SEVERE, "Could not restore backup.", ioe);
         }
+        progress.setPhase(success ? Phase.FINISHED : Phase.FAILED);
+        return success;
+    }
+
+    /**
+     * @return the progress of the restore, which can also be used to cancel it.
+     */
+    public RestoreProgress getProgress() {
+        return progress;
     }
 
     private boolean restoreFromDirectories(final String parentDirectory) throws IOException {
         boolean success = false;
 
-        IOFileFilter suffixFilter = FileFilterUtils.and(
-                FileFilterUtils.suffixFileFilter(
-                        new SimpleDateFormat(Utils.DIRECTORY_NAME_DATE_FORMAT).format(restoreFromDate)),
-                DirectoryFileFilter.DIRECTORY);
-
-        final File[] candidates = new File(parentDirectory).listFiles((FileFilter) suffixFilter);
+        final String formattedDate = new SimpleDateFormat(Utils.DIRECTORY_NAME_DATE_FORMAT).format(restoreFromDate);
+        final File[] candidates = new File(parentDirectory)
+                .listFiles(file -> (file.isDirectory() && file.getName().endsWith(formattedDate))
+                        || (BackupArchive.isArchive(file)
+                                && BackupArchive.getBackupName(file).endsWith(formattedDate)));
         if (candidates == null) {
             return false;
         }
@@ -125,12 +213,39 @@ public class HudsonRestore {
                     "More than one backup with date '%s' found. This is not allowed. Aborting restore.",
                     new SimpleDateFormat(Utils.DISPLAY_DATE_FORMAT).format(restoreFromDate)));
         } else if (candidates.length == 1) {
-            final File toRestore = candidates[0];
-            if (toRestore.getName().startsWith(BackupType.DIFF.toString())) {
-                final File referencedFullBackup = Utils.getReferencedFullBackup(toRestore);
-                restore(referencedFullBackup);
+            final List<File> backupChain = getBackupChain(candidates[0]);
+            // single backup archives are read in place, their entries are streamed to JENKINS_HOME
+            final Map<File, ZipFile> archives = new HashMap<>();
+            // blobs must not be collected while the plan references them
+            BlobStore.LOCK.readLock().lock();
+            try {
+                for (final File backup : backupChain) {
+                    if (BackupArchive.isArchive(backup)) {
+                        archives.put(backup, new ZipFile(backup));
+                    }
+                }
+                // merge the chain first, so files contained in several backups are copied only once
+                final RestorePlan plan = new RestorePlan(restoreIncremental);
+                BackupManifest previousManifest = null;
+                for (final File toRestore : backupChain) {
+                    progress.checkCancelled();
+                    previousManifest = addToPlan(plan, toRestore, archives.get(toRestore), previousManifest);
+                }
+                if (restoreNextBuildNumber) {
+                    restoreNextBuildNumbers(plan);
+                }
+                plan.execute(hudsonHome, fileCopier, restoreThreads, loadManifest(backupChain), progress);
+                if (restorePlugins) {
+                    progress.checkCancelled();
+                    progress.setPhase(Phase.RESTORING_PLUGINS);
+                    restorePlugins(backupChain, archives);
+                }
+            } finally {
+                BlobStore.LOCK.readLock().unlock();
+                for (final ZipFile archive : archives.values()) {
+                    archive.close();
+                }
             }
-            restore(toRestore);
             success = true;
         } else {
             LOGGER.info(String.format(
@@ -141,6 +256,35 @@ public class HudsonRestore {
         return success;
     }
 
+    /**
+     * Differential backups only contain the files changed since the previous backup. Restoring one of them requires
+     * restoring the referenced full backup and all differential backups up to the given one in chronological order.
+     *
+     * @param toRestore the backup directory to restore
+     * @return the backup directories to restore, oldest first.
+     */
+    private List<File> getBackupChain(final File toRestore) {
+        final List<File> backupChain = new ArrayList<>();
+        if (toRestore.getName().startsWith(BackupType.DIFF.toString())) {
+            final BackupSetGraph backupSets = BackupSetGraph.build(toRestore.getParentFile());
+            final File referencedFullBackup = backupSets.getReferencedFullBackup(toRestore);
+            if (referencedFullBackup != null) {
+                backupChain.add(referencedFullBackup);
+                // the diff backups are ordered by date, so the ones to restore first come before toRestore
+                for (final File diffBackup : backupSets.getReferencingDiffBackups(referencedFullBackup)) {
+                    if (diffBackup.getName().equals(toRestore.getName())) {
+                        break;
+                    }
+                    if (BackupArchive.isArchive(diffBackup) || new File(diffBackup, COMPLETED_BACKUP_FILE).exists()) {
+                        backupChain.add(diffBackup);
+                    }
+                }
+            }
+        }
+        backupChain.add(toRestore);
+        return backupChain;
+    }
+
     private boolean restoreFromZipFile() throws IOException {
         boolean success = false;
 
@@ -154,11 +298,7 @@ public class HudsonRestore {
             for (final File candidate : candidates) {
                 final BackupSet backupSet = new BackupSet(candidate);
                 if (backupSet.isValid() && backupSet.containsBackupForDate(restoreFromDate)) {
-                    final BackupSet unzippedBackup = backupSet.unzip();
-                    if (unzippedBackup.isValid()) {
-                        success = restoreFromDirectories(backupSet.getUnzipDir().getAbsolutePath());
-                    }
-                    backupSet.deleteUnzipDir();
+                    success = restoreFromBackupSetZipFile(candidate, backupSet);
                 }
             }
         }
@@ -166,48 +306,342 @@ public class HudsonRestore {
         return success;
     }
 
-    private void restore(final File toRestore) throws IOException {
-        final IOFileFilter nextBuildNumberFileFilter = FileFilterUtils.nameFileFilter("nextBuildNumber");
-        final IOFileFilter noBackupCompletedFile =
-                FileFilterUtils.notFileFilter(FileFilterUtils.nameFileFilter(COMPLETED_BACKUP_FILE));
-        IOFileFilter restoreNextBuildNumberFilter;
+    /**
+     * Restores the backup for the restore date straight from the backup set ZIP file. Only the entries of the full
+     * backup and the diff backups up to the restore date are read, and of each file only the newest copy is written to
+     * JENKINS_HOME. An incremental restore compares the CRC-32 checksums of the entries with the files in JENKINS_HOME.
+     * The entries of each backup are indexed by path, so a selective restore only visits the entries to restore.
+     * Deduplicated backups need their manifests and the blob store, so these backup sets are still unzipped
+     * to a temporary directory first.
+     *
+     * @param zipFile the backup set ZIP file
+     * @param backupSet the backup set read from the ZIP file
+     * @return true if the backup was restored.
+     */
+    private boolean restoreFromBackupSetZipFile(final File zipFile, final BackupSet backupSet) throws IOException {
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            final List<String> backupChain = getBackupChain(backupSet);
+            final Set<String> completedBackups = new HashSet<>();
+            // index the entries of each backup of the chain by path, so the entries to restore are looked up directly
+            final Map<String, NavigableMap<String, ZipEntry>> indexes = new HashMap<>();
+            for (final ZipEntry entry : Collections.list(zip.entries())) {
+                final String relativePath = getRelativePath(entry);
+                if (relativePath == null || !backupChain.contains(getBackupName(entry))) {
+                    continue;
+                }
+                if (relativePath.equals(BackupManifest.MANIFEST_FILE_NAME)) {
+                    return restoreFromUnzippedBackupSet(backupSet);
+                }
+                if (relativePath.equals(COMPLETED_BACKUP_FILE)) {
+                    completedBackups.add(getBackupName(entry));
+                }
+                indexes.computeIfAbsent(getBackupName(entry), name -> new TreeMap<>())
+                        .put(relativePath, entry);
+            }
+            // like in getBackupChain(File), incomplete diff backups before the one to restore are skipped
+            final String lastBackup = backupChain.get(backupChain.size() - 1);
+            backupChain.removeIf(name -> name.startsWith(BackupType.DIFF.toString())
+                    && !name.equals(lastBackup)
+                    && !completedBackups.contains(name));
+
+            // a file of a later backup of the chain replaces the copy of an earlier one
+            final Map<String, ZipEntry> toRestore = new LinkedHashMap<>();
+            ZipEntry installedPlugins = null;
+            for (final String backupName : backupChain) {
+                final NavigableMap<String, ZipEntry> index =
+                        indexes.getOrDefault(backupName, Collections.emptyNavigableMap());
+                toRestore.putAll(restorePaths.select(index));
+                installedPlugins = index.getOrDefault(HudsonBackup.INSTALLED_PLUGINS_XML, installedPlugins);
+            }
 
-        if (restoreNextBuildNumber) {
-            restoreNextBuildNumberFilter = noBackupCompletedFile;
-
-            final Collection<File> restore =
-                    FileUtils.listFiles(toRestore, nextBuildNumberFileFilter, TrueFileFilter.INSTANCE);
-            final Map<String, Integer> nextBuildNumbers = new HashMap<>();
-            for (final File file : restore) {
-                try (BufferedReader reader = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
-                    nextBuildNumbers.put(file.getParentFile().getName(), Integer.parseInt(reader.readLine()));
+            toRestore.keySet().removeIf(relativePath -> {
+                final String fileName = relativePath.substring(relativePath.lastIndexOf('/') + 1);
+                return fileName.equals(COMPLETED_BACKUP_FILE)
+                        || (!restoreNextBuildNumber && fileName.equals(HudsonBackup.NEXT_BUILD_NUMBER_FILE_NAME));
+            });
+            progress.setTotal(
+                    toRestore.size(),
+                    toRestore.values().stream()
+                            .mapToLong(entry -> Math.max(0, entry.getSize()))
+                            .sum());
+
+            LOGGER.log(Level.FINE, "Restoring {0} from {1}.", new Object[] {backupChain, zipFile.getName()});
+            final Path target = hudsonHome.toPath().toAbsolutePath().normalize();
+            for (final Entry<String, ZipEntry> entry : toRestore.entrySet()) {
+                progress.checkCancelled();
+                final String relativePath = entry.getKey();
+                final String fileName = relativePath.substring(relativePath.lastIndexOf('/') + 1);
+                final Path file = target.resolve(relativePath).normalize();
+                if (!file.startsWith(target)) {
+                    throw new IOException(String.format(
+                            "Entry '%s' of '%s' is outside of the target directory.",
+                            entry.getValue().getName(), zipFile.getName()));
+                }
+                if (fileName.equals(HudsonBackup.NEXT_BUILD_NUMBER_FILE_NAME)
+                        && !isLowerNextBuildNumber(file, readNextBuildNumber(zip, entry.getValue()))) {
+                    continue;
+                }
+                if (restoreIncremental && RestorePlan.isUnchanged(entry.getValue(), file)) {
+                    fileCopier.skip(entry.getValue().getSize());
+                    continue;
+                }
+                Files.createDirectories(file.getParent());
+                try (InputStream in = zip.getInputStream(entry.getValue())) {
+                    fileCopier.copy(in, entry.getValue().getLastModifiedTime(), file);
                 }
             }
 
-            final Collection<File> current =
-                    FileUtils.listFiles(hudsonHome, nextBuildNumberFileFilter, TrueFileFilter.INSTANCE);
-            for (final File file : current) {
-                try (BufferedReader reader = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
-                    final int currentBuildNumber = Integer.parseInt(reader.readLine());
-                    final Integer toRestoreNextBuildNumber =
-                            nextBuildNumbers.get(file.getParentFile().getName());
-                    if (currentBuildNumber < toRestoreNextBuildNumber) {
-                        restoreNextBuildNumber(file, toRestoreNextBuildNumber);
-                    }
+            if (restorePlugins && installedPlugins != null) {
+                progress.checkCancelled();
+                progress.setPhase(Phase.RESTORING_PLUGINS);
+                restorePlugins(zip, installedPlugins, getBackupName(installedPlugins));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the names of the full backup and the diff backups up to the restore date, oldest first.
+     */
+    private List<String> getBackupChain(final BackupSet backupSet) {
+        final List<String> backupChain = new ArrayList<>();
+        backupChain.add(backupSet.getFullBackupName());
+        if (!restoreFromDate.equals(Utils.getDateFromBackupDirectoryName(backupSet.getFullBackupName()))) {
+            for (final String diffBackupName : backupSet.getDiffBackupsNames()) {
+                backupChain.add(diffBackupName);
+                if (restoreFromDate.equals(Utils.getDateFromBackupDirectoryName(diffBackupName))) {
+                    break;
                 }
             }
-        } else {
-            restoreNextBuildNumberFilter = FileFilterUtils.and(
-                    FileFilterUtils.notFileFilter(nextBuildNumberFileFilter), noBackupCompletedFile);
         }
+        return backupChain;
+    }
+
+    private static Integer readNextBuildNumber(final ZipFile zip, final ZipEntry entry) throws IOException {
+        try (InputStream in = zip.getInputStream(entry)) {
+            return readNextBuildNumber(new String(in.readAllBytes(), StandardCharsets.UTF_8), entry.getName());
+        }
+    }
+
+    /**
+     * @return the name of the backup containing the entry, or null if the entry is not within a backup.
+     */
+    private static String getBackupName(final ZipEntry entry) {
+        final String name = getNormalizedName(entry);
+        final int separator = name.indexOf('/');
+        return separator <= 0 ? null : name.substring(0, separator);
+    }
+
+    /**
+     * @return the path of the entry within its backup with '/' as separator, or null if the entry is not a file within
+     *         a backup.
+     */
+    private static String getRelativePath(final ZipEntry entry) {
+        final String name = getNormalizedName(entry);
+        final int separator = name.indexOf('/');
+        return entry.isDirectory() || separator <= 0 ? null : name.substring(separator + 1);
+    }
+
+    /**
+     * The entries of backup set ZIP files are named with the file separator of the system which zipped them.
+     */
+    private static String getNormalizedName(final ZipEntry entry) {
+        return entry.getName().replace('\\', '/');
+    }
+
+    private boolean restoreFromUnzippedBackupSet(final BackupSet backupSet) throws IOException {
+        boolean success = false;
+        try {
+            final BackupSet unzippedBackup = backupSet.unzip();
+            if (unzippedBackup.isValid()) {
+                success = restoreFromDirectories(backupSet.getUnzipDir().getAbsolutePath());
+            }
+        } finally {
+            backupSet.deleteUnzipDir();
+        }
+        return success;
+    }
+
+    /**
+     * Restores the plugins from the list of installed plugins in a backup set ZIP file or single backup archive.
+     */
+    private void restorePlugins(final ZipFile zip, final ZipEntry installedPlugins, final String backupName)
+            throws IOException {
+        final File pluginsDirectory = new File(Utils.THINBACKUP_TMP_DIR, "plugins-" + backupName);
+        FileUtils.deleteDirectory(pluginsDirectory);
+        try {
+            Files.createDirectories(pluginsDirectory.toPath());
+            try (InputStream in = zip.getInputStream(installedPlugins)) {
+                Files.copy(in, new File(pluginsDirectory, HudsonBackup.INSTALLED_PLUGINS_XML).toPath());
+            }
+            restorePlugins(pluginsDirectory);
+        } finally {
+            FileUtils.deleteDirectory(pluginsDirectory);
+        }
+    }
+
+    /**
+     * Adds a backup directory or archive of the chain to the restore plan. Files of deduplicated backups are restored
+     * directly from their blobs, skipping the files unchanged since the previous backup of the chain, as the plan
+     * already holds them.
+     *
+     * @param plan the restore plan
+     * @param toRestore the backup directory or archive to restore
+     * @param archive the open archive if the backup is a single backup archive, otherwise null
+     * @param previousManifest manifest of the previous backup of the chain, or null
+     * @return the manifest of the added backup if it references blobs, otherwise null.
+     * @throws IOException if a referenced blob is missing or an I/O Error occurs
+     */
+    private BackupManifest addToPlan(
+            final RestorePlan plan, final File toRestore, final ZipFile archive, final BackupManifest previousManifest)
+            throws IOException {
+        final FileSelector selector = getRestoreSelector();
+        if (archive != null) {
+            plan.add(archive, selector, restorePaths);
+            return null;
+        }
+        final BlobStore blobStore = new BlobStore(new File(backupPath));
+        plan.add(toRestore, selector, restorePaths);
+        if (!blobStore.exists() || !BackupManifest.hasManifest(toRestore)) {
+            return null;
+        }
+
+        final BackupManifest manifest = BackupManifest.load(toRestore);
+        int nrOfFiles = 0;
+        for (final Map.Entry<String, BackupManifest.Entry> entry :
+                manifest.getEntries().entrySet()) {
+            final String path = entry.getKey();
+            final BackupManifest.Entry value = entry.getValue();
+            if (value.hash() == null
+                    || !restorePaths.matches(path)
+                    || (previousManifest != null && value.equals(previousManifest.getEntry(path)))
+                    || new File(toRestore, path).exists()) {
+                continue;
+            }
+            final File blobFile = blobStore.getBlobFile(value.hash());
+            if (!blobFile.isFile()) {
+                throw new IOException(String.format(
+                        "Blob %s of '%s' in backup %s is missing.", value.hash(), path, toRestore.getName()));
+            }
+            if (plan.addBlob(toRestore, path, blobFile, value, selector)) {
+                ++nrOfFiles;
+            }
+        }
+        LOGGER.log(Level.FINE, "Restoring {0} files of {1} from the blob store.", new Object[] {
+            nrOfFiles, toRestore.getName()
+        });
+        return manifest;
+    }
 
-        FileUtils.copyDirectory(toRestore, this.hudsonHome, restoreNextBuildNumberFilter, true);
+    /**
+     * @return the manifest of the newest backup of the chain, if an incremental restore can compare content hashes with
+     *         it, otherwise null.
+     */
+    private BackupManifest loadManifest(final List<File> backupChain) {
+        final File newestBackup = backupChain.get(backupChain.size() - 1);
+        if (!restoreIncremental) {
+            return null;
+        }
+        try {
+            if (BackupArchive.isArchive(newestBackup)) {
+                return BackupArchive.readManifest(newestBackup);
+            }
+            if (!BackupManifest.hasManifest(newestBackup)) {
+                return null;
+            }
+            return BackupManifest.load(newestBackup);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot read backup manifest of " + newestBackup.getName() + ", ignoring it.", e);
+            return null;
+        }
+    }
+
+    private FileSelector getRestoreSelector() {
+        final FileSelector noBackupCompletedFile = FileSelector.name(
+                        COMPLETED_BACKUP_FILE, BackupManifest.MANIFEST_FILE_NAME)
+                .negate();
+        if (restoreNextBuildNumber) {
+            return noBackupCompletedFile;
+        }
+        return FileSelector.name(HudsonBackup.NEXT_BUILD_NUMBER_FILE_NAME)
+                .negate()
+                .and(noBackupCompletedFile);
+    }
 
-        if (restorePlugins) {
-            restorePlugins(toRestore);
+    /**
+     * Keeps the next build numbers in JENKINS_HOME which are not lower than the ones to restore, so no build number is
+     * used twice. The nextBuildNumber files of the plan are looked up by their relative path, thus JENKINS_HOME is not
+     * searched and jobs with the same name in different folders are told apart.
+     */
+    private void restoreNextBuildNumbers(final RestorePlan plan) throws IOException {
+        final Path home = hudsonHome.toPath();
+        for (final Map.Entry<Path, RestorePlan.Source> entry :
+                List.copyOf(plan.getFiles().entrySet())) {
+            final Path relativePath = entry.getKey();
+            if (!relativePath.getFileName().toString().equals(HudsonBackup.NEXT_BUILD_NUMBER_FILE_NAME)) {
+                continue;
+            }
+            final String content;
+            try (InputStream in = entry.getValue().open()) {
+                content = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            if (!isLowerNextBuildNumber(
+                    home.resolve(relativePath), readNextBuildNumber(content, relativePath.toString()))) {
+                plan.remove(relativePath);
+            }
         }
     }
 
+    /**
+     * @param current nextBuildNumber file in JENKINS_HOME
+     * @param toRestore the next build number to restore, or null if it cannot be read
+     * @return true if the current file does not exist or holds a lower next build number than the one to restore.
+     */
+    private static boolean isLowerNextBuildNumber(final Path current, final Integer toRestore) throws IOException {
+        if (toRestore == null || !Files.isRegularFile(current)) {
+            return true;
+        }
+        final Integer currentBuildNumber = readNextBuildNumber(Files.readString(current), current.toString());
+        if (currentBuildNumber != null && currentBuildNumber >= toRestore) {
+            LOGGER.log(Level.FINE, "Keeping next build number {0} of {1}, the backup contains {2}.", new Object[] {
+                currentBuildNumber, current, toRestore
+            });
+            return false;
+        }
+        return true;
+    }
+
+    private static Integer readNextBuildNumber(final String content, final String file) {
+        try {
+            return Integer.parseInt(content.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "Cannot read next build number of {0}.", file);
+            return null;
+        }
+    }
+
+    /**
+     * Restores the plugins from the newest list of installed plugins in the given backups. Differential backups only
+     * contain this list if the plugins changed since the full backup.
+     */
+    private void restorePlugins(final List<File> backupChain, final Map<File, ZipFile> archives) throws IOException {
+        for (int i = backupChain.size() - 1; i >= 0; i--) {
+            final File toRestore = backupChain.get(i);
+            final ZipFile archive = archives.get(toRestore);
+            if (archive != null) {
+                final ZipEntry installedPlugins = archive.getEntry(HudsonBackup.INSTALLED_PLUGINS_XML);
+                if (installedPlugins != null) {
+                    restorePlugins(archive, installedPlugins, BackupArchive.getBackupName(toRestore));
+                    return;
+                }
+            } else if (new File(toRestore, HudsonBackup.INSTALLED_PLUGINS_XML).exists()) {
+                restorePlugins(toRestore);
+                return;
+            }
+        }
+        LOGGER.severe("Cannot restore plugins because no file with the name 'installedPlugins.xml' is in the backup.");
+    }
+
     private void restorePlugins(File toRestore) throws IOException {
         File[] list = toRestore.listFiles((FilenameFilter) FileFilterUtils.nameFileFilter("installedPlugins.xml"));
         if (list == null) {
@@ -228,72 +662,122 @@ public class HudsonRestore {
 
         PluginList pluginList = new PluginList(backupedPlugins);
         pluginList.load();
+        restorePooledPluginArchives(pluginList);
         Map<String, String> toRestorePlugins = pluginList.getPlugins();
-        List<Future<UpdateCenterJob>> pluginRestoreJobs = new ArrayList<>(toRestorePlugins.size());
+        List<CompletableFuture<PluginRestoreJob>> pluginRestoreJobs = new ArrayList<>(toRestorePlugins.size());
         Jenkins jenkins = Jenkins.get();
         PluginManager pluginManager = jenkins.getPluginManager();
-        for (Entry<String, String> entry : toRestorePlugins.entrySet()) {
-            if (pluginManager.getPlugin(entry.getKey())
-                    == null) { // if any version of this plugin is installed do nothing
-                Future<UpdateCenterJob> monitor = installPlugin(entry.getKey(), entry.getValue());
-                if (monitor != null) {
-                    pluginRestoreJobs.add(monitor);
+        // one update center for all plugins, which downloads several plugins at the same time
+        PluginRestoreUpdateCenter updateCenter = new PluginRestoreUpdateCenter(getPluginDownloadThreads());
+        UpdateSiteIndex sites = new UpdateSiteIndex(jenkins.getUpdateCenter().getSites());
+        int restoredArchives = 0;
+        try {
+            for (Entry<String, String> entry : toRestorePlugins.entrySet()) {
+                if (pluginManager.getPlugin(entry.getKey()) != null) {
+                    // if any version of this plugin is installed do nothing
+                    LOGGER.info("Plugin '" + entry.getKey() + "' already installed. Please check manually.");
+                } else if (entry.getValue().equals(getPluginArchiveVersion(entry.getKey()))) {
+                    LOGGER.log(
+                            Level.INFO,
+                            "Restored plugin ''{0}'' from the plugin archive in the backup.",
+                            entry.getKey());
+                    ++restoredArchives;
+                } else {
+                    CompletableFuture<PluginRestoreJob> job =
+                            installPlugin(updateCenter, sites, entry.getKey(), entry.getValue());
+                    if (job != null) {
+                        pluginRestoreJobs.add(job);
+                    }
                 }
-            } else {
-                LOGGER.info("Plugin '" + entry.getKey() + "' already installed. Please check manually.");
             }
+
+            final long failedJobs = CompletableFuture.allOf(pluginRestoreJobs.toArray(new CompletableFuture<?>[0]))
+                    .thenApply(done -> pluginRestoreJobs.stream()
+                            .map(CompletableFuture::join)
+                            .filter(job -> !job.isSuccess())
+                            .count())
+                    .get();
+            LOGGER.log(
+                    Level.INFO,
+                    "Restored {0} plugins from plugin archives in the backup, downloaded {1} of {2} plugins.",
+                    new Object[] {restoredArchives, pluginRestoreJobs.size() - failedJobs, pluginRestoreJobs.size()});
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.WARNING, "Interrupted!", e);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IOException("Could not restore plugins.", e.getCause());
+        } finally {
+            updateCenter.shutdown();
         }
+    }
 
-        boolean finished = pluginRestoreJobs.isEmpty();
-        while (!finished) {
-            try {
-                Thread.sleep(SLEEP_TIMEOUT);
-            } catch (InterruptedException e) {
-                LOGGER.log(Level.WARNING, "Interrupted!", e);
-                Thread.currentThread().interrupt();
+    /**
+     * Copies the plugin archives referenced by the list of installed plugins from the plugin archive pool of the backup
+     * root to JENKINS_HOME, like the plugin archives contained in older backups are restored.
+     */
+    private void restorePooledPluginArchives(PluginList pluginList) throws IOException {
+        final PluginArchivePool pool = new PluginArchivePool(new File(backupPath));
+        final File pluginsDirectory = new File(hudsonHome, HudsonBackup.PLUGINS_DIR_NAME);
+        for (Entry<String, String> entry : pluginList.getArchives().entrySet()) {
+            final File archive = pool.getArchiveFile(entry.getValue());
+            if (!archive.isFile()) {
+                LOGGER.log(Level.WARNING, "Plugin archive {0} is missing in the backup.", entry.getValue());
+                continue;
             }
-            for (Future<UpdateCenterJob> future : pluginRestoreJobs) {
-                finished = future.isDone();
-                if (!finished) {
-                    break;
+            final String extension = entry.getValue().substring(entry.getValue().lastIndexOf('.'));
+            final File target = new File(pluginsDirectory, entry.getKey() + extension);
+            if (target.length() == archive.length() && target.lastModified() == archive.lastModified()) {
+                // restored before, the pool keeps the modification time of the archives
+                continue;
+            }
+            Files.createDirectories(pluginsDirectory.toPath());
+            Files.copy(
+                    archive.toPath(),
+                    target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+
+    /**
+     * Plugin archives in the backup are restored to JENKINS_HOME like all other files, but are only loaded by Jenkins
+     * after a restart.
+     *
+     * @return the version of the archive of the plugin in JENKINS_HOME, or null if there is none.
+     */
+    private String getPluginArchiveVersion(String pluginID) {
+        final File pluginsDirectory = new File(hudsonHome, HudsonBackup.PLUGINS_DIR_NAME);
+        for (String extension : new String[] {HudsonBackup.JPI_FILE_EXTENSION, HudsonBackup.HPI_FILE_EXTENSION}) {
+            final File archive = new File(pluginsDirectory, pluginID + extension);
+            if (archive.isFile()) {
+                try {
+                    return PluginArchivePool.readVersion(archive);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Cannot read plugin archive " + archive + ".", e);
                 }
             }
         }
+        return null;
     }
 
-    private void restoreNextBuildNumber(File file, Integer toRestoreNextBuildNumber) throws IOException {
-        final String buildNumber = toRestoreNextBuildNumber + "\n";
-        Files.writeString(file.toPath(), buildNumber, StandardOpenOption.TRUNCATE_EXISTING);
+    /**
+     * @return the maximum number of plugins downloaded at the same time, as configured by the system property
+     *         {@code org.jvnet.hudson.plugins.thinbackup.restore.HudsonRestore.pluginDownloadThreads}.
+     */
+    private static int getPluginDownloadThreads() {
+        return Math.max(
+                1, SystemProperties.getInteger(PLUGIN_DOWNLOAD_THREADS_PROPERTY, DEFAULT_PLUGIN_DOWNLOAD_THREADS));
     }
 
-    private Future<UpdateCenterJob> installPlugin(String pluginID, String version) {
+    private CompletableFuture<PluginRestoreJob> installPlugin(
+            PluginRestoreUpdateCenter restoreUpdateCenter, UpdateSiteIndex sites, String pluginID, String version) {
         if (!version.contains("SNAPSHOT") && !"Hudson core".equals(pluginID) && !"Jenkins core".equals(pluginID)) {
-            Jenkins jenkins = Jenkins.get();
-            UpdateCenter updateCenter = jenkins.getUpdateCenter();
-
-            for (UpdateSite site : updateCenter.getSites()) {
-                List<Plugin> availablePlugins;
-                if (this.availablePluginLocations.containsKey(site.getId())) {
-                    availablePlugins = this.availablePluginLocations.get(site.getId());
-                } else {
-                    availablePlugins = site.getAvailables();
-                    this.availablePluginLocations.put(site.getId(), availablePlugins);
-                }
-
-                for (Plugin plugin : availablePlugins) {
-                    if (plugin.name.equals(pluginID)) {
-                        LOGGER.log(Level.INFO, "Restore plugin ' {0} '.", pluginID);
-                        if (!plugin.version.equals(version)) {
-                            jenkins.checkPermission(Jenkins.ADMINISTER);
-                            PluginRestoreUpdateCenter pruc = new PluginRestoreUpdateCenter();
-
-                            return pruc.addNewJob(
-                                    pruc.new PluginRestoreJob(site, Jenkins.getAuthentication2(), plugin, version));
-                        } else {
-                            return plugin.deploy();
-                        }
-                    }
-                }
+            UpdateSiteIndex.Offer offer = sites.get(pluginID, version);
+            if (offer != null) {
+                LOGGER.log(Level.INFO, "Restore plugin ' {0} '.", pluginID);
+                // also used for the latest version, so all downloads share the threads of the update center
+                return restoreUpdateCenter.addNewJob(restoreUpdateCenter
+                .new PluginRestoreJob(offer.site(), Jenkins.getAuthentication2(), offer.plugin(), version));
             }
         }
         LOGGER.log(
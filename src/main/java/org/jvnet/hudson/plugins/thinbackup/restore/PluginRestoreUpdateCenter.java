@@ -26,10 +26,18 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import jenkins.model.Jenkins;
 import org.springframework.security.core.Authentication;
 
+/**
+ * Update center which downloads the plugins of a restore. One instance is shared by all plugins of a restore. Its
+ * downloads run in parallel on a bounded number of threads, instead of one after the other on the single installer
+ * thread of an update center, and their completion is reported through {@link CompletableFuture}s.
+ */
 public class PluginRestoreUpdateCenter extends UpdateCenter {
     public class PluginRestoreJob extends DownloadJob {
 
@@ -78,14 +86,59 @@ public class PluginRestoreUpdateCenter extends UpdateCenter {
         protected void _run() throws IOException, InstallationStatus {
             super._run();
         }
+
+        /**
+         * @return true if the plugin has been downloaded.
+         */
+        public boolean isSuccess() {
+            return status != null && status.isSuccess();
+        }
     }
 
-    private Set<UpdateSite> knownUpdateSites = new HashSet<>();
+    private final Set<UpdateSite> knownUpdateSites = new HashSet<>();
+    private final ExecutorService downloadService;
+
+    public PluginRestoreUpdateCenter() {
+        this(1);
+    }
 
-    synchronized Future<UpdateCenterJob> addNewJob(UpdateCenterJob job) {
-        if (knownUpdateSites.add(job.site)) {
-            new ConnectionCheckJob(job.site).submit();
+    /**
+     * @param threads maximum number of plugins downloaded at the same time
+     */
+    public PluginRestoreUpdateCenter(final int threads) {
+        final AtomicInteger workerIndex = new AtomicInteger();
+        this.downloadService = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            final Thread thread =
+                    new Thread(runnable, "ThinBackup plugin restore worker " + workerIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Downloads a plugin in the background. The connection to the update site of the plugin is checked once.
+     *
+     * @param job the download of the plugin
+     * @return the download, completed when the plugin has been downloaded or failed.
+     */
+    CompletableFuture<PluginRestoreJob> addNewJob(final PluginRestoreJob job) {
+        synchronized (this) {
+            if (knownUpdateSites.add(job.site)) {
+                new ConnectionCheckJob(job.site).submit();
+            }
         }
-        return job.submit();
+        return CompletableFuture.supplyAsync(
+                () -> {
+                    job.run();
+                    return job;
+                },
+                downloadService);
+    }
+
+    /**
+     * Stops the download threads once all downloads have completed. No downloads can be added afterwards.
+     */
+    public void shutdown() {
+        downloadService.shutdown();
     }
 }
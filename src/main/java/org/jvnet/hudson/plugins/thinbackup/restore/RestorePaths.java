@@ -0,0 +1,194 @@
+/*
+ *  Copyright (C) 2011  Matthias Steinkogler, Thomas Fürer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see http://www.gnu.org/licenses.
+ */
+package org.jvnet.hudson.plugins.thinbackup.restore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The parts of JENKINS_HOME to restore in a selective restore. Each part is given either as the full name of an item,
+ * e.g. {@code folder/job}, which stands for the directory of the item ({@code jobs/folder/jobs/job}), or as a path
+ * relative to JENKINS_HOME starting with a slash, e.g. {@code /users}. A file is restored if its path equals one of the
+ * paths or lies beneath it.
+ * <p>
+ * Paths use '/' as separator, like the manifests and archives of the backups.
+ */
+public final class RestorePaths {
+    /** Restores everything. */
+    public static final RestorePaths ALL = new RestorePaths(List.of());
+
+    private static final String JOBS_DIRECTORY = "jobs";
+
+    private final Set<String> paths;
+
+    /**
+     * @param itemsOrPaths full names of items and paths relative to JENKINS_HOME starting with a slash; blank entries are
+     *         ignored
+     * @throws IllegalArgumentException if an entry is not a valid item name or path
+     */
+    public RestorePaths(final Collection<String> itemsOrPaths) {
+        final Set<String> sorted = new TreeSet<>();
+        for (final String itemOrPath : itemsOrPaths) {
+            final String trimmed = itemOrPath.trim();
+            if (!trimmed.isEmpty()) {
+                sorted.add(toPath(trimmed));
+            }
+        }
+        // drop paths beneath other paths, so no file is selected twice
+        final Set<String> result = new LinkedHashSet<>();
+        for (final String path : sorted) {
+            if (result.stream().noneMatch(parent -> isBeneath(path, parent))) {
+                result.add(path);
+            }
+        }
+        this.paths = Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * @param text full names of items and paths relative to JENKINS_HOME, one per line
+     * @return the parts of JENKINS_HOME to restore, {@link #ALL} if the text is blank.
+     * @throws IllegalArgumentException if a line is not a valid item name or path
+     */
+    public static RestorePaths parse(final String text) {
+        if (text == null || text.isBlank()) {
+            return ALL;
+        }
+        return new RestorePaths(text.lines().toList());
+    }
+
+    private static String toPath(final String itemOrPath) {
+        final String path;
+        if (itemOrPath.startsWith("/")) {
+            path = itemOrPath.replaceAll("^/+|/+$", "");
+        } else {
+            path = JOBS_DIRECTORY + "/" + String.join("/" + JOBS_DIRECTORY + "/", itemOrPath.split("/+"));
+        }
+        for (final String segment : path.split("/", -1)) {
+            if (segment.isEmpty() || segment.equals(".") || segment.equals("..")) {
+                throw new IllegalArgumentException(
+                        String.format("'%s' is neither an item name nor a path within JENKINS_HOME.", itemOrPath));
+            }
+        }
+        return path;
+    }
+
+    private static boolean isBeneath(final String path, final String parent) {
+        return path.equals(parent) || path.startsWith(parent + "/");
+    }
+
+    /**
+     * @param itemOrPath full name of an item or path relative to JENKINS_HOME starting with a slash
+     * @return the parts of JENKINS_HOME restored by this and the given item or path; {@link #ALL} if everything is
+     *         restored anyway.
+     * @throws IllegalArgumentException if the entry is not a valid item name or path
+     */
+    public RestorePaths and(final String itemOrPath) {
+        if (isAll()) {
+            return this;
+        }
+        final List<String> itemsOrPaths = new ArrayList<>();
+        for (final String path : paths) {
+            itemsOrPaths.add("/" + path);
+        }
+        itemsOrPaths.add(itemOrPath);
+        return new RestorePaths(itemsOrPaths);
+    }
+
+    /**
+     * @return true if everything is restored.
+     */
+    public boolean isAll() {
+        return paths.isEmpty();
+    }
+
+    /**
+     * @return the paths to restore relative to JENKINS_HOME, none of them beneath another one; empty if everything is
+     *         restored.
+     */
+    public Set<String> getPaths() {
+        return paths;
+    }
+
+    /**
+     * @param path a path relative to JENKINS_HOME
+     * @return true if the file or directory with the given path is restored.
+     */
+    public boolean matches(final String path) {
+        return isAll() || paths.stream().anyMatch(parent -> isBeneath(path, parent));
+    }
+
+    /**
+     * @return true if the restore may change any item, i.e. everything or the whole jobs directory is restored.
+     */
+    public boolean affectsAllItems() {
+        return isAll() || paths.contains(JOBS_DIRECTORY);
+    }
+
+    /**
+     * @return the full names of the items whose directories are restored or lie within restored paths, e.g.
+     *         {@code folder/job} for the path {@code jobs/folder/jobs/job/builds}.
+     */
+    public List<String> getItemFullNames() {
+        final List<String> itemFullNames = new ArrayList<>();
+        for (final String path : paths) {
+            final String[] segments = path.split("/");
+            final List<String> names = new ArrayList<>();
+            for (int i = 0; i + 1 < segments.length && segments[i].equals(JOBS_DIRECTORY); i += 2) {
+                names.add(segments[i + 1]);
+            }
+            if (!names.isEmpty()) {
+                itemFullNames.add(String.join("/", names));
+            }
+        }
+        return itemFullNames;
+    }
+
+    /**
+     * Looks up the restored entries of an index sorted by path. Only the matching entries are visited, as the entries
+     * beneath a path form one range of the index: all of them start with the path followed by '/', and '0' is the
+     * character following '/'.
+     *
+     * @param index entries of a backup by their path relative to the backup
+     * @return the restored entries of the index, sorted by path.
+     */
+    public <V> NavigableMap<String, V> select(final NavigableMap<String, V> index) {
+        if (isAll()) {
+            return index;
+        }
+        final NavigableMap<String, V> result = new TreeMap<>();
+        for (final String path : paths) {
+            final V value = index.get(path);
+            if (value != null) {
+                result.put(path, value);
+            }
+            result.putAll(index.subMap(path + "/", true, path + "0", false));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return isAll() ? "everything" : String.join(", ", paths);
+    }
+}
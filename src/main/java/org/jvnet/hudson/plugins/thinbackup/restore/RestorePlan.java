@@ -0,0 +1,467 @@
+/*
+ *  Copyright (C) 2011  Matthias Steinkogler, Thomas Fürer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see http://www.gnu.org/licenses.
+ */
+package org.jvnet.hudson.plugins.thinbackup.restore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.jvnet.hudson.plugins.thinbackup.backup.BackupManifest;
+import org.jvnet.hudson.plugins.thinbackup.backup.BlobStore;
+import org.jvnet.hudson.plugins.thinbackup.utils.FileCopier;
+import org.jvnet.hudson.plugins.thinbackup.utils.FileSelector;
+
+/**
+ * The files to restore from a chain of backup directories and single backup archives. The backups are added oldest
+ * first, and a file of a later backup replaces the copy of an earlier one, so every file is copied to JENKINS_HOME only
+ * once no matter how many backups of the chain contain it.
+ * <p>
+ * An incremental plan skips the files which are already identical in JENKINS_HOME, i.e. have the same size and
+ * modification time, or the same content hash as recorded in the manifest of the backup.
+ */
+class RestorePlan {
+    private static final Logger LOGGER = Logger.getLogger("hudson.plugins.thinbackup");
+
+    /** Directories to create, relative to JENKINS_HOME. */
+    private final Set<Path> directories = new LinkedHashSet<>();
+
+    /** The newest copy of each file, by its path relative to JENKINS_HOME. */
+    private final Map<Path, Source> files = new LinkedHashMap<>();
+
+    private final boolean incremental;
+
+    /**
+     * A copy of a file to restore.
+     */
+    sealed interface Source permits FileSource, EntrySource {
+        /**
+         * @return the attributes of the restored file.
+         */
+        BasicFileAttributes attrs();
+
+        /**
+         * @return the content of the copy.
+         * @throws IOException if the copy cannot be read
+         */
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * @param file the copy to restore
+     * @param attrs the attributes of the restored file
+     * @param blob true if the copy is a blob of the blob store, whose modification time is not the one of the file
+     */
+    record FileSource(Path file, BasicFileAttributes attrs, boolean blob) implements Source {
+        FileSource(final Path file, final BasicFileAttributes attrs) {
+            this(file, attrs, false);
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return Files.newInputStream(file);
+        }
+    }
+
+    /**
+     * An entry of a single backup archive, which is streamed to JENKINS_HOME without extracting the archive.
+     *
+     * @param archive the open archive
+     * @param entry the entry to restore
+     * @param attrs the attributes of the restored file
+     */
+    record EntrySource(ZipFile archive, ZipEntry entry, BasicFileAttributes attrs) implements Source {
+        @Override
+        public InputStream open() throws IOException {
+            return archive.getInputStream(entry);
+        }
+    }
+
+    /**
+     * The attributes of a file as recorded in a manifest or ZIP entry.
+     */
+    private record EntryAttributes(long size, FileTime lastModifiedTime) implements BasicFileAttributes {
+        @Override
+        public FileTime lastAccessTime() {
+            return lastModifiedTime;
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return lastModifiedTime;
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return true;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public boolean isOther() {
+            return false;
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+
+    RestorePlan() {
+        this(false);
+    }
+
+    /**
+     * @param incremental true to skip files which are already identical in JENKINS_HOME
+     */
+    RestorePlan(final boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Adds the selected files of a backup directory, replacing the files of the backups added before. Only
+     * directories accepted by the selector are descended into.
+     *
+     * @param backupDirectory a backup directory of the chain, newer than the ones added before
+     * @param selector selects the files and directories to restore
+     * @throws IOException if the backup directory cannot be read
+     */
+    void add(final File backupDirectory, final FileSelector selector) throws IOException {
+        add(backupDirectory, selector, RestorePaths.ALL);
+    }
+
+    /**
+     * Adds the selected files of a backup directory beneath the given paths, replacing the files of the backups added
+     * before. Only the subtrees of the paths are walked, so the effort depends on the number of restored files rather
+     * than on the size of the backup.
+     *
+     * @param backupDirectory a backup directory of the chain, newer than the ones added before
+     * @param selector selects the files and directories to restore
+     * @param paths the parts of the backup to restore
+     * @throws IOException if the backup directory cannot be read
+     */
+    void add(final File backupDirectory, final FileSelector selector, final RestorePaths paths) throws IOException {
+        final Path source = backupDirectory.toPath();
+        if (paths.isAll()) {
+            walk(source, source, selector);
+            return;
+        }
+        for (final String path : paths.getPaths()) {
+            final Path start = source.resolve(path);
+            if (Files.exists(start)) {
+                // the parents of the path may be missing in JENKINS_HOME, e.g. of a deleted job
+                final Path parent = source.relativize(start).getParent();
+                if (parent != null) {
+                    directories.add(parent);
+                }
+                walk(source, start, selector);
+            }
+        }
+    }
+
+    private void walk(final Path source, final Path start, final FileSelector selector) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                if (!dir.equals(source) && !selector.accept(dir, attrs)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                directories.add(source.relativize(dir));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && selector.accept(file, attrs)) {
+                    files.put(source.relativize(file), new FileSource(file, attrs));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Adds a file of a deduplicated backup which is not contained in the backup directory, replacing the copy of the
+     * backups added before. The file is restored directly from its blob, with the size and modification time recorded
+     * in the manifest.
+     *
+     * @param backupDirectory the backup directory the manifest belongs to
+     * @param path path of the file relative to JENKINS_HOME, using '/' as separator
+     * @param blobFile the blob holding the content of the file
+     * @param entry the manifest entry of the file
+     * @param selector selects the files to restore
+     * @return true if the file has been added, false if the selector rejected it.
+     */
+    boolean addBlob(
+            final File backupDirectory,
+            final String path,
+            final File blobFile,
+            final BackupManifest.Entry entry,
+            final FileSelector selector) {
+        final Path relativePath = Path.of(path);
+        final BasicFileAttributes attrs = new EntryAttributes(entry.size(), FileTime.fromMillis(entry.lastModified()));
+        if (!selector.accept(backupDirectory.toPath().resolve(relativePath), attrs)) {
+            return false;
+        }
+        if (relativePath.getParent() != null) {
+            directories.add(relativePath.getParent());
+        }
+        files.put(relativePath, new FileSource(blobFile.toPath(), attrs, true));
+        return true;
+    }
+
+    /**
+     * Adds the selected entries of a single backup archive beneath the given paths, replacing the files of the backups
+     * added before. The entries are streamed from the open archive when the plan is executed, so the archive is not
+     * extracted.
+     *
+     * @param archive a single backup archive of the chain, newer than the backups added before, open until the plan
+     *         is executed
+     * @param selector selects the files to restore
+     * @param paths the parts of the backup to restore
+     * @throws IOException if the archive contains entries outside of the backup
+     */
+    void add(final ZipFile archive, final FileSelector selector, final RestorePaths paths) throws IOException {
+        final Enumeration<? extends ZipEntry> entries = archive.entries();
+        while (entries.hasMoreElements()) {
+            final ZipEntry entry = entries.nextElement();
+            final String name = entry.getName().replaceAll("/$", "");
+            if (!paths.matches(name)) {
+                continue;
+            }
+            final Path relativePath = Path.of(name).normalize();
+            if (relativePath.isAbsolute() || relativePath.startsWith("..")) {
+                throw new IOException(String.format(
+                        "Entry '%s' of archive %s is outside of the backup.",
+                        entry.getName(), new File(archive.getName()).getName()));
+            }
+            if (entry.isDirectory()) {
+                directories.add(relativePath);
+                continue;
+            }
+            final BasicFileAttributes attrs =
+                    new EntryAttributes(entry.getSize(), FileTime.fromMillis(entry.getTime()));
+            if (!selector.accept(relativePath, attrs)) {
+                continue;
+            }
+            if (relativePath.getParent() != null) {
+                directories.add(relativePath.getParent());
+            }
+            files.put(relativePath, new EntrySource(archive, entry, attrs));
+        }
+    }
+
+    /**
+     * Removes a file from this plan, so the file in JENKINS_HOME is kept.
+     *
+     * @param relativePath path of the file relative to JENKINS_HOME
+     */
+    void remove(final Path relativePath) {
+        files.remove(relativePath);
+    }
+
+    /**
+     * @return the newest copy of each file, by its path relative to JENKINS_HOME.
+     */
+    Map<Path, Source> getFiles() {
+        return Collections.unmodifiableMap(files);
+    }
+
+    /**
+     * Creates the directories and copies the files of this plan to JENKINS_HOME, replacing existing files.
+     *
+     * @param target JENKINS_HOME
+     * @param fileCopier the copier used for the files, which also counts the skipped files
+     * @param threads number of threads used to copy the files
+     * @param manifest manifest of the newest backup of the chain, used by an incremental plan to compare content
+     *         hashes, or null
+     * @param progress progress of the restore, which is checked for cancellation before each file
+     * @throws IOException if a file cannot be copied; with more than one thread the failures of the other threads are
+     *         attached as suppressed exceptions
+     * @throws java.io.InterruptedIOException if the restore has been cancelled
+     */
+    void execute(
+            final File target,
+            final FileCopier fileCopier,
+            final int threads,
+            final BackupManifest manifest,
+            final RestoreProgress progress)
+            throws IOException {
+        final Path targetPath = target.toPath();
+        for (final Path directory : directories) {
+            Files.createDirectories(targetPath.resolve(directory));
+        }
+        LOGGER.log(Level.FINE, "Restoring {0} files with {1} thread(s).", new Object[] {files.size(), threads});
+        progress.setTotal(
+                files.size(),
+                files.values().stream()
+                        .mapToLong(source -> source.attrs().size())
+                        .sum());
+
+        if (threads <= 1) {
+            for (final Map.Entry<Path, Source> file : files.entrySet()) {
+                progress.checkCancelled();
+                restore(file.getKey(), file.getValue(), targetPath, fileCopier, manifest);
+            }
+            return;
+        }
+
+        final List<IOException> failures = Collections.synchronizedList(new ArrayList<>());
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> files.entrySet().parallelStream().forEach(file -> {
+                        if (progress.isCancelled()) {
+                            return;
+                        }
+                        try {
+                            restore(file.getKey(), file.getValue(), targetPath, fileCopier, manifest);
+                        } catch (IOException e) {
+                            failures.add(e);
+                        }
+                    }))
+                    .get();
+        } catch (ExecutionException e) {
+            failures.add(
+                    e.getCause() instanceof UncheckedIOException uioe
+                            ? uioe.getCause()
+                            : new IOException(e.getCause()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failures.add(new IOException("Interrupted while restoring files.", e));
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (!failures.isEmpty()) {
+            final IOException failure = failures.get(0);
+            for (int i = 1; i < failures.size(); i++) {
+                failure.addSuppressed(failures.get(i));
+            }
+            throw failure;
+        }
+        progress.checkCancelled();
+    }
+
+    private void restore(
+            final Path relativePath,
+            final Source source,
+            final Path targetPath,
+            final FileCopier fileCopier,
+            final BackupManifest manifest)
+            throws IOException {
+        final Path target = targetPath.resolve(relativePath);
+        if (incremental && isUnchanged(relativePath, source, target, manifest)) {
+            fileCopier.skip(source.attrs().size());
+            return;
+        }
+        if (source instanceof EntrySource entrySource) {
+            try (InputStream in = entrySource.open()) {
+                fileCopier.copy(in, entrySource.entry().getLastModifiedTime(), target);
+            }
+            return;
+        }
+        final FileSource fileSource = (FileSource) source;
+        fileCopier.copy(fileSource.file(), fileSource.attrs(), target);
+        if (fileSource.blob()) {
+            // copying natively keeps the modification time of the blob
+            Files.setLastModifiedTime(target, fileSource.attrs().lastModifiedTime());
+        }
+    }
+
+    /**
+     * @return true if the file in JENKINS_HOME has the size of the copy to restore and either the same modification
+     *         time or, for archive entries, the same CRC-32 checksum, otherwise the content hash recorded in the
+     *         manifest.
+     */
+    private static boolean isUnchanged(
+            final Path relativePath, final Source source, final Path target, final BackupManifest manifest)
+            throws IOException {
+        final BasicFileAttributes current;
+        try {
+            current = Files.readAttributes(target, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (!current.isRegularFile() || current.size() != source.attrs().size()) {
+            return false;
+        }
+        // copies keep the modification time with different precisions, depending on the file system and copy strategy
+        if (current.lastModifiedTime().toMillis()
+                == source.attrs().lastModifiedTime().toMillis()) {
+            return true;
+        }
+        if (source instanceof EntrySource entrySource) {
+            return isUnchanged(entrySource.entry(), target);
+        }
+        if (manifest == null) {
+            return false;
+        }
+        final BackupManifest.Entry entry =
+                manifest.getEntry(relativePath.toString().replace(File.separatorChar, '/'));
+        return entry != null
+                && entry.hash() != null
+                && entry.size() == current.size()
+                && entry.hash().equals(BlobStore.hash(target.toFile()));
+    }
+
+    /**
+     * @return true if the file has the size and CRC-32 checksum of the entry.
+     */
+    static boolean isUnchanged(final ZipEntry entry, final Path file) throws IOException {
+        if (!Files.isRegularFile(file) || Files.size(file) != entry.getSize() || entry.getCrc() == -1) {
+            return false;
+        }
+        final CRC32 crc = new CRC32();
+        try (InputStream in = new CheckedInputStream(Files.newInputStream(file), crc)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return crc.getValue() == entry.getCrc();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ *  Copyright (C) 2011  Matthias Steinkogler, Thomas Fürer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see http://www.gnu.org/licenses.
+ */
+package org.jvnet.hudson.plugins.thinbackup.restore;
+
+import java.io.InterruptedIOException;
+import org.jvnet.hudson.plugins.thinbackup.utils.FileCopier;
+
+/**
+ * The phase and the file counters of a running restore, and its cancellation flag. The counters are read while the
+ * restore is running, so all state is thread safe.
+ */
+public class RestoreProgress {
+    public enum Phase {
+        QUEUED,
+        WAITING_FOR_IDLE,
+        RESTORING_FILES,
+        RESTORING_PLUGINS,
+        FINISHED,
+        FAILED,
+        CANCELLED;
+
+        /**
+         * @return true if the restore has ended.
+         */
+        public boolean isDone() {
+            return this == FINISHED || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    private final FileCopier fileCopier;
+    private volatile Phase phase = Phase.QUEUED;
+    private volatile long totalFiles;
+    private volatile long totalBytes;
+    private volatile boolean cancelled;
+
+    /**
+     * @param fileCopier the copier of the restore, which counts the copied and skipped files
+     */
+    RestoreProgress(final FileCopier fileCopier) {
+        this.fileCopier = fileCopier;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    void setPhase(final Phase phase) {
+        this.phase = phase;
+    }
+
+    /**
+     * @param files number of files to restore
+     * @param bytes number of bytes of the files to restore
+     */
+    void setTotal(final long files, final long bytes) {
+        this.totalFiles = files;
+        this.totalBytes = bytes;
+    }
+
+    /**
+     * @return the number of files to restore, 0 until they are known.
+     */
+    public long getTotalFiles() {
+        return totalFiles;
+    }
+
+    /**
+     * @return the number of bytes of the files to restore, 0 until they are known.
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getCopiedFiles() {
+        return fileCopier.getCopiedFiles();
+    }
+
+    public long getCopiedBytes() {
+        return fileCopier.getCopiedBytes();
+    }
+
+    /**
+     * @return the number of files skipped by an incremental restore.
+     */
+    public long getSkippedFiles() {
+        return fileCopier.getSkippedFiles();
+    }
+
+    public long getSkippedBytes() {
+        return fileCopier.getSkippedBytes();
+    }
+
+    /**
+     * Asks the restore to stop before the next file. Files already copied are not reverted.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @throws InterruptedIOException if the restore has been cancelled
+     */
+    void checkCancelled() throws InterruptedIOException {
+        if (cancelled) {
+            throw new InterruptedIOException("Restore cancelled.");
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *  Copyright (C) 2011  Matthias Steinkogler, Thomas Fürer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see http://www.gnu.org/licenses.
+ */
+package org.jvnet.hudson.plugins.thinbackup.restore;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Item;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueTaskDispatcher;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the items of a selective restore from being built while their files are restored, instead of putting the whole
+ * controller into quiet mode. Builds of the items themselves and of all items within them wait in the queue.
+ */
+@Extension
+public class RestoreQueueTaskDispatcher extends QueueTaskDispatcher {
+    private final Set<String> blockedItems = ConcurrentHashMap.newKeySet();
+
+    public static RestoreQueueTaskDispatcher get() {
+        return ExtensionList.lookupSingleton(RestoreQueueTaskDispatcher.class);
+    }
+
+    /**
+     * @param itemFullNames full names of the items to block, including the items within them
+     */
+    public void block(final Collection<String> itemFullNames) {
+        blockedItems.addAll(itemFullNames);
+    }
+
+    /**
+     * @param itemFullNames full names of the items blocked before
+     */
+    public void unblock(final Collection<String> itemFullNames) {
+        blockedItems.removeAll(itemFullNames);
+    }
+
+    /**
+     * @param fullName full name of an item
+     * @return true if the item or one of the items containing it is blocked.
+     */
+    public boolean isBlocked(final String fullName) {
+        return blockedItems.stream()
+                .anyMatch(blocked -> fullName.equals(blocked) || fullName.startsWith(blocked + "/"));
+    }
+
+    @Override
+    public CauseOfBlockage canRun(final Queue.Item item) {
+        // only whole builds are held back, the subtasks of running builds still need to run for them to finish
+        if (item.task instanceof Item task && isBlocked(task.getFullName())) {
+            return new CauseOfBlockage() {
+                @Override
+                public String getShortDescription() {
+                    return "Files of " + task.getFullName() + " are being restored by thinBackup.";
+                }
+            };
+        }
+        return null;
+    }
+}
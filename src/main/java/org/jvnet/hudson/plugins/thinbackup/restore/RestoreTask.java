@@ -0,0 +1,168 @@
+/*
+ *  Copyright (C) 2011  Matthias Steinkogler, Thomas Fürer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see http://www.gnu.org/licenses.
+ */
+package org.jvnet.hudson.plugins.thinbackup.restore;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+import org.jvnet.hudson.plugins.thinbackup.restore.RestoreProgress.Phase;
+import org.jvnet.hudson.plugins.thinbackup.utils.Utils;
+
+/**
+ * Runs a restore in the background, so the request starting it does not wait for it. The task waits until Jenkins, or
+ * for a selective restore only the restored items, are idle, restores the backup and finally lets builds run again.
+ * Its progress can be polled by its id.
+ */
+public class RestoreTask implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger("hudson.plugins.thinbackup");
+
+    private final String id = UUID.randomUUID().toString();
+    private final String backup;
+    private final HudsonRestore restore;
+    private final RestorePaths restorePaths;
+
+    /** The thread waiting until Jenkins is idle, interrupted on cancellation. Guarded by this. */
+    private Thread waitingThread;
+
+    /**
+     * @param backup the date of the backup to restore, for display
+     * @param restore the restore to run
+     * @param restorePaths the items and paths restored by the restore, which determine what has to be idle
+     */
+    public RestoreTask(final String backup, final HudsonRestore restore, final RestorePaths restorePaths) {
+        this.backup = backup;
+        this.restore = restore;
+        this.restorePaths = restorePaths;
+    }
+
+    @Override
+    public void run() {
+        final RestoreProgress progress = restore.getProgress();
+        if (progress.isCancelled()) {
+            progress.setPhase(Phase.CANCELLED);
+            return;
+        }
+        LOGGER.log(Level.INFO, "Starting restore task {0}.", id);
+
+        final Jenkins jenkins = Jenkins.get();
+        // a selective restore only holds back the builds of the restored items
+        final boolean quietDown = restorePaths.affectsAllItems();
+        final List<String> itemFullNames = restorePaths.getItemFullNames();
+        progress.setPhase(Phase.WAITING_FOR_IDLE);
+        try {
+            if (quietDown) {
+                jenkins.doQuietDown();
+            } else {
+                RestoreQueueTaskDispatcher.get().block(itemFullNames);
+            }
+            waitUntilIdle(quietDown, itemFullNames);
+            if (progress.isCancelled()) {
+                LOGGER.info("Restore cancelled before any file was restored.");
+                progress.setPhase(Phase.CANCELLED);
+                return;
+            }
+            restore.restore();
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Could not restore. Aborting.", e);
+            progress.setPhase(Phase.FAILED);
+        } finally {
+            if (quietDown) {
+                jenkins.doCancelQuietDown();
+            } else {
+                RestoreQueueTaskDispatcher.get().unblock(itemFullNames);
+            }
+            LOGGER.log(Level.INFO, "Restore task {0} finished.", id);
+        }
+    }
+
+    private void waitUntilIdle(final boolean quietDown, final List<String> itemFullNames) {
+        synchronized (this) {
+            if (restore.getProgress().isCancelled()) {
+                return;
+            }
+            waitingThread = Thread.currentThread();
+        }
+        try {
+            if (quietDown) {
+                LOGGER.fine("Waiting until executors are idle to perform restore...");
+                Utils.waitUntilIdle();
+            } else {
+                LOGGER.fine("Waiting until the items to restore are idle...");
+                Utils.waitUntilIdle(itemFullNames);
+            }
+        } finally {
+            synchronized (this) {
+                waitingThread = null;
+                if (restore.getProgress().isCancelled()) {
+                    // clear the interrupt of cancel()
+                    Thread.interrupted();
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels the task. While waiting until Jenkins is idle, the task ends right away, otherwise the restore stops
+     * before the next file.
+     */
+    public void cancel() {
+        synchronized (this) {
+            restore.getProgress().cancel();
+            if (waitingThread != null) {
+                waitingThread.interrupt();
+            }
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the date of the backup to restore.
+     */
+    public String getBackup() {
+        return backup;
+    }
+
+    public RestoreProgress getProgress() {
+        return restore.getProgress();
+    }
+
+    /**
+     * @return the id, phase and counters of the task.
+     */
+    public JSONObject toJSON() {
+        final RestoreProgress progress = restore.getProgress();
+        final JSONObject json = new JSONObject();
+        json.put("id", id);
+        json.put("backup", backup);
+        json.put("phase", progress.getPhase().name());
+        json.put("done", progress.getPhase().isDone());
+        json.put("totalFiles", progress.getTotalFiles());
+        json.put("totalBytes", progress.getTotalBytes());
+        json.put("copiedFiles", progress.getCopiedFiles());
+        json.put("copiedBytes", progress.getCopiedBytes());
+        json.put("skippedFiles", progress.getSkippedFiles());
+        json.put("skippedBytes", progress.getSkippedBytes());
+        return json;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright (C) 2011  Matthias Steinkogler, Thomas Fürer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see http://www.gnu.org/licenses.
+ */
+package org.jvnet.hudson.plugins.thinbackup.restore;
+
+import hudson.model.UpdateSite;
+import hudson.model.UpdateSite.Plugin;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The plugins offered by the update sites, by plugin name. It is built once per plugin restore, so looking up a plugin
+ * does not walk the plugin lists of the update sites again.
+ */
+final class UpdateSiteIndex {
+    private static final Logger LOGGER = Logger.getLogger("hudson.plugins.thinbackup");
+
+    /**
+     * @param site the update site offering the plugin
+     * @param plugin the latest version of the plugin on the update site
+     */
+    record Offer(UpdateSite site, Plugin plugin) {}
+
+    /** The offers of each plugin, in the order of the update sites. */
+    private final Map<String, List<Offer>> offers = new HashMap<>();
+
+    /**
+     * @param sites the update sites, in the order they are asked for a plugin
+     */
+    UpdateSiteIndex(final List<UpdateSite> sites) {
+        for (final UpdateSite site : sites) {
+            final UpdateSite.Data data = site.getData();
+            if (data == null) {
+                LOGGER.log(Level.FINE, "No plugins of update site {0} available.", site.getId());
+                continue;
+            }
+            for (final Plugin plugin : data.plugins.values()) {
+                offers.computeIfAbsent(plugin.name, name -> new ArrayList<>(1)).add(new Offer(site, plugin));
+            }
+        }
+    }
+
+    /**
+     * @param name name of a plugin
+     * @param version the version to install
+     * @return the offer of the first update site whose latest version of the plugin is the given one, otherwise of the
+     *         first update site offering the plugin at all, or null if no update site offers it.
+     */
+    Offer get(final String name, final String version) {
+        final List<Offer> pluginOffers = offers.get(name);
+        if (pluginOffers == null) {
+            return null;
+        }
+        for (final Offer offer : pluginOffers) {
+            if (offer.plugin().version.equals(version)) {
+                return offer;
+            }
+        }
+        return pluginOffers.get(0);
+    }
+}
@@ -0,0 +1,278 @@
+package org.jvnet.hudson.plugins.thinbackup.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies files with the most efficient strategy supported by the file systems involved. The strategies are tried in the
+ * order of {@link Strategy}. When a strategy fails for a file which a later strategy can copy, the strategy is not
+ * supported here and all further files are copied with the later strategy. Failures of the source or the target, which
+ * the file system reports as {@link FileSystemException}, like a missing file or a denied access, fail with every
+ * strategy and do not change the strategy. The number of files and bytes copied with each strategy is counted, so it
+ * can be reported at the end of a backup or restore.
+ * <p>
+ * Instances are thread safe.
+ */
+public class FileCopier {
+    private static final Logger LOGGER = Logger.getLogger("hudson.plugins.thinbackup");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Strategy[] STRATEGIES = Strategy.values();
+
+    private final AtomicInteger strategyIndex = new AtomicInteger();
+    private final AtomicLongArray copiedFiles = new AtomicLongArray(STRATEGIES.length);
+    private final AtomicLongArray copiedBytes = new AtomicLongArray(STRATEGIES.length);
+    private final AtomicLong skippedFiles = new AtomicLong();
+    private final AtomicLong skippedBytes = new AtomicLong();
+
+    public enum Strategy {
+        /**
+         * {@link Files#copy(Path, Path, java.nio.file.CopyOption...)}, which clones the file on copy-on-write file
+         * systems where the JDK supports it and copies inside the kernel otherwise. Keeps all basic attributes.
+         */
+        NATIVE("native copy") {
+            @Override
+            void copy(final Path source, final BasicFileAttributes attrs, final Path target) throws IOException {
+                Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+            }
+        },
+        /**
+         * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, which lets the kernel
+         * copy the data without passing it through the Java heap. Keeps the modification time.
+         */
+        TRANSFER_TO("channel transfer") {
+            @Override
+            void copy(final Path source, final BasicFileAttributes attrs, final Path target) throws IOException {
+                try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                        FileChannel out = FileChannel.open(
+                                target,
+                                StandardOpenOption.WRITE,
+                                StandardOpenOption.CREATE,
+                                StandardOpenOption.TRUNCATE_EXISTING)) {
+                    final long size = in.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                }
+                Files.setLastModifiedTime(target, attrs.lastModifiedTime());
+            }
+        },
+        /**
+         * Copies through a buffer on the Java heap. Works everywhere. Keeps the modification time.
+         */
+        BUFFERED("buffered copy") {
+            @Override
+            void copy(final Path source, final BasicFileAttributes attrs, final Path target) throws IOException {
+                try (InputStream in = Files.newInputStream(source);
+                        OutputStream out = Files.newOutputStream(target)) {
+                    final byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+                Files.setLastModifiedTime(target, attrs.lastModifiedTime());
+            }
+        };
+
+        private final String displayName;
+
+        Strategy(final String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        abstract void copy(Path source, BasicFileAttributes attrs, Path target) throws IOException;
+    }
+
+    /**
+     * Copies a file into an existing directory, replacing an existing target file.
+     *
+     * @param source the file to copy
+     * @param attrs the attributes of the file to copy
+     * @param target the copy to create
+     * @throws IOException if the file cannot be copied with any strategy
+     */
+    public void copy(final Path source, final BasicFileAttributes attrs, final Path target) throws IOException {
+        final int index = strategyIndex.get();
+        try {
+            copy(index, source, attrs, target);
+        } catch (IOException | UnsupportedOperationException e) {
+            if (index == STRATEGIES.length - 1 || isFileFailure(e)) {
+                throw toIOException(e);
+            }
+            copyWithLaterStrategy(index, source, attrs, target, e);
+        }
+    }
+
+    /**
+     * Copies the file with the first later strategy which succeeds and uses that strategy for all further files. If no
+     * later strategy succeeds either, the failure is not caused by the strategy and the strategy is kept.
+     */
+    private void copyWithLaterStrategy(
+            final int failedIndex,
+            final Path source,
+            final BasicFileAttributes attrs,
+            final Path target,
+            final Exception failure)
+            throws IOException {
+        for (int index = failedIndex + 1; index < STRATEGIES.length; index++) {
+            try {
+                copy(index, source, attrs, target);
+            } catch (IOException | UnsupportedOperationException e) {
+                if (index == STRATEGIES.length - 1 || isFileFailure(e)) {
+                    failure.addSuppressed(e);
+                    throw toIOException(failure);
+                }
+                continue;
+            }
+            if (strategyIndex.getAndAccumulate(index, Math::max) < index) {
+                LOGGER.log(
+                        Level.WARNING,
+                        String.format(
+                                "Cannot copy %s with %s, using %s for all further files.",
+                                source, STRATEGIES[failedIndex].getDisplayName(), STRATEGIES[index].getDisplayName()),
+                        failure);
+            }
+            return;
+        }
+    }
+
+    private void copy(final int index, final Path source, final BasicFileAttributes attrs, final Path target)
+            throws IOException {
+        STRATEGIES[index].copy(source, attrs, target);
+        copiedFiles.incrementAndGet(index);
+        copiedBytes.addAndGet(index, attrs.size());
+    }
+
+    /**
+     * Copies a stream, e.g. of a ZIP file entry, into an existing directory, replacing an existing target file. The
+     * copy is counted as {@link Strategy#BUFFERED}.
+     *
+     * @param source the content to copy, not closed by this method
+     * @param lastModifiedTime the modification time of the copy, or null to keep the current time
+     * @param target the copy to create
+     * @throws IOException if an I/O error occurs
+     */
+    public void copy(final InputStream source, final FileTime lastModifiedTime, final Path target) throws IOException {
+        final long size = Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        if (lastModifiedTime != null) {
+            Files.setLastModifiedTime(target, lastModifiedTime);
+        }
+        copiedFiles.incrementAndGet(Strategy.BUFFERED.ordinal());
+        copiedBytes.addAndGet(Strategy.BUFFERED.ordinal(), size);
+    }
+
+    /**
+     * Failures the file system reports for a file, like {@link java.nio.file.NoSuchFileException} or
+     * {@link java.nio.file.AccessDeniedException}, are {@link FileSystemException}s. Other failures which no later
+     * strategy can avoid either, like a full disk, keep the strategy as no later strategy succeeds.
+     *
+     * @return true if the failure is caused by the source or the target file rather than by the strategy, so every
+     *         strategy would fail.
+     */
+    private static boolean isFileFailure(final Exception e) {
+        return e instanceof FileSystemException || e instanceof ReadOnlyFileSystemException;
+    }
+
+    private static IOException toIOException(final Exception e) {
+        return e instanceof IOException ioe ? ioe : new IOException(e);
+    }
+
+    /**
+     * Counts a file which was not copied because the target is already identical, e.g. in an incremental restore.
+     *
+     * @param size the size of the file in bytes
+     */
+    public void skip(final long size) {
+        skippedFiles.incrementAndGet();
+        skippedBytes.addAndGet(size);
+    }
+
+    /**
+     * @return the number of files not copied because the target was already identical.
+     */
+    public long getSkippedFiles() {
+        return skippedFiles.get();
+    }
+
+    /**
+     * @return the number of bytes of the files not copied because the target was already identical.
+     */
+    public long getSkippedBytes() {
+        return skippedBytes.get();
+    }
+
+    /**
+     * @return the number of files copied with any strategy.
+     */
+    public long getCopiedFiles() {
+        long files = 0;
+        for (int i = 0; i < STRATEGIES.length; i++) {
+            files += copiedFiles.get(i);
+        }
+        return files;
+    }
+
+    /**
+     * @return the number of bytes copied with any strategy.
+     */
+    public long getCopiedBytes() {
+        long bytes = 0;
+        for (int i = 0; i < STRATEGIES.length; i++) {
+            bytes += copiedBytes.get(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * @param strategy a copy strategy
+     * @return the number of files copied with the given strategy.
+     */
+    public long getCopiedFiles(final Strategy strategy) {
+        return copiedFiles.get(strategy.ordinal());
+    }
+
+    /**
+     * @return a summary of the files and bytes copied with each strategy used and of the skipped files, e.g. for
+     *         logging.
+     */
+    public String getSummary() {
+        final List<String> parts = new ArrayList<>();
+        for (final Strategy strategy : STRATEGIES) {
+            final long files = copiedFiles.get(strategy.ordinal());
+            if (files > 0) {
+                parts.add(String.format(
+                        "%d files (%d bytes) by %s",
+                        files, copiedBytes.get(strategy.ordinal()), strategy.getDisplayName()));
+            }
+        }
+        final String summary = parts.isEmpty() ? "no files copied" : String.join(", ", parts);
+        final long skipped = skippedFiles.get();
+        if (skipped > 0) {
+            return String.format("%s, skipped %d unchanged files (%d bytes)", summary, skipped, skippedBytes.get());
+        }
+        return summary;
+    }
+}
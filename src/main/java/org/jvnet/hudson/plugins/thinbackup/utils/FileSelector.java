@@ -0,0 +1,77 @@
+package org.jvnet.hudson.plugins.thinbackup.utils;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Date;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Selects entries of a file tree by their path and the attributes read while walking the tree, so selecting an entry
+ * never touches the file system again. Selectors are combined like the filters of commons-io FileFilterUtils.
+ */
+@FunctionalInterface
+public interface FileSelector {
+
+    /**
+     * @param path the path of the entry
+     * @param attrs the attributes of the entry
+     * @return true if the entry is selected.
+     */
+    boolean accept(Path path, BasicFileAttributes attrs);
+
+    default FileSelector and(final FileSelector other) {
+        return (path, attrs) -> accept(path, attrs) && other.accept(path, attrs);
+    }
+
+    default FileSelector or(final FileSelector other) {
+        return (path, attrs) -> accept(path, attrs) || other.accept(path, attrs);
+    }
+
+    default FileSelector negate() {
+        return (path, attrs) -> !accept(path, attrs);
+    }
+
+    static FileSelector all() {
+        return (path, attrs) -> true;
+    }
+
+    static FileSelector files() {
+        return (path, attrs) -> attrs.isRegularFile();
+    }
+
+    static FileSelector directories() {
+        return (path, attrs) -> attrs.isDirectory();
+    }
+
+    static FileSelector name(final String... names) {
+        final Set<String> nameSet = Set.of(names);
+        return (path, attrs) -> nameSet.contains(getName(path));
+    }
+
+    static FileSelector nameSuffix(final String suffix) {
+        return (path, attrs) -> getName(path).endsWith(suffix);
+    }
+
+    /**
+     * @param pattern pattern the whole name of the entry has to match
+     * @return a selector accepting entries with a matching name.
+     */
+    static FileSelector nameMatches(final Pattern pattern) {
+        return (path, attrs) -> pattern.matcher(getName(path)).matches();
+    }
+
+    /**
+     * @param date the cutoff date
+     * @return a selector accepting entries modified after the given date.
+     */
+    static FileSelector modifiedAfter(final Date date) {
+        final long cutoff = date.getTime();
+        return (path, attrs) -> attrs.lastModifiedTime().toMillis() > cutoff;
+    }
+
+    private static String getName(final Path path) {
+        final Path name = path.getFileName();
+        return name == null ? "" : name.toString();
+    }
+}
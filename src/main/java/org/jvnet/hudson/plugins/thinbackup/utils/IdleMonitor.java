@@ -0,0 +1,263 @@
+/*
+ *  Copyright (C) 2011  Matthias Steinkogler, Thomas Fürer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see http://www.gnu.org/licenses.
+ */
+package org.jvnet.hudson.plugins.thinbackup.utils;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.ExecutorListener;
+import hudson.model.Item;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.slaves.ComputerListener;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.function.Predicate;
+import jenkins.model.Jenkins;
+
+/**
+ * Keeps track of the running builds and busy executors from the events of Jenkins, so waiting until Jenkins or some
+ * items are idle does not poll the executors. Waiting threads are woken up when a build is finalized, i.e. when all its
+ * files are written, and when an executor completes its task. Executors count as well, so tasks which are no builds,
+ * e.g. the indexing of a multibranch project, are waited for too.
+ * <p>
+ * Builds and tasks which started before this monitor saw them, e.g. builds resumed after a restart of Jenkins or on
+ * reconnected agents, are taken from the executors of all computers whenever waiting starts and when a computer comes
+ * online. Executors whose completion was missed are dropped when waiting starts and they are found idle. The executors
+ * are read before the monitor is entered, as they are locked by Jenkins while they call the listeners of this monitor.
+ */
+@Extension
+public class IdleMonitor extends RunListener<Run<?, ?>> {
+    /** Guarded by this. */
+    private final Set<Run<?, ?>> runningBuilds = new HashSet<>();
+
+    /** The tasks of the busy executors. Guarded by this. */
+    private final Map<Executor, BusyExecutor> busyExecutors = new HashMap<>();
+
+    /** Counts the tasks taken up by executors, so executors found idle are not dropped when busy again. Guarded by this. */
+    private long acceptedTasks = 0;
+
+    /**
+     * Executables whose task completed while their executor may still look busy, so they are not taken up again from
+     * the executors. Guarded by this.
+     */
+    private final Map<Queue.Executable, Boolean> completedExecutables = new WeakHashMap<>();
+
+    public static IdleMonitor get() {
+        return ExtensionList.lookupSingleton(IdleMonitor.class);
+    }
+
+    @Override
+    public void onStarted(final Run<?, ?> run, final TaskListener listener) {
+        synchronized (this) {
+            runningBuilds.add(run);
+        }
+    }
+
+    @Override
+    public void onFinalized(final Run<?, ?> run) {
+        buildEnded(run);
+    }
+
+    @Override
+    public void onDeleted(final Run<?, ?> run) {
+        buildEnded(run);
+    }
+
+    private synchronized void buildEnded(final Run<?, ?> run) {
+        if (runningBuilds.remove(run)) {
+            notifyAll();
+        }
+    }
+
+    synchronized void taskAccepted(final Executor executor, final Queue.Task task) {
+        busyExecutors.put(executor, new BusyExecutor(task, ++acceptedTasks));
+    }
+
+    synchronized void taskCompleted(final Executor executor) {
+        final Queue.Executable executable = executor.getCurrentExecutable();
+        if (executable != null) {
+            completedExecutables.put(executable, Boolean.TRUE);
+        }
+        if (busyExecutors.remove(executor) != null) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of running builds.
+     */
+    public synchronized int countRunningBuilds() {
+        return runningBuilds.size();
+    }
+
+    /**
+     * @return the number of executors running a task, whether it is a build or not.
+     */
+    public synchronized int countBusyExecutors() {
+        return busyExecutors.size();
+    }
+
+    /**
+     * Waits until no build and no other task of an item accepted by the filter is running.
+     *
+     * @param itemFilter accepts the full names of the items to wait for, gets <code>null</code> for tasks which do not
+     *     belong to an item
+     * @param timeoutMillis the maximum time to wait in milliseconds, 0 to wait without a timeout
+     * @return true if nothing accepted by the filter is running, false if the timeout elapsed before.
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean awaitIdle(final Predicate<String> itemFilter, final long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        final long acceptedBefore;
+        synchronized (this) {
+            acceptedBefore = acceptedTasks;
+        }
+        final List<ExecutorState> executors = readExecutors(Jenkins.get().getComputers());
+
+        synchronized (this) {
+            addBuildsOfComputers(executors);
+            // builds and tasks whose events were missed must not block forever
+            runningBuilds.removeIf(run -> !run.isLogUpdated());
+            final Set<Executor> busy = new HashSet<>();
+            for (final ExecutorState state : executors) {
+                if (state.busy()) {
+                    busy.add(state.executor());
+                }
+            }
+            // executors which are idle or gone, unless they took up a task after they were read
+            busyExecutors
+                    .entrySet()
+                    .removeIf(entry ->
+                            !busy.contains(entry.getKey()) && entry.getValue().accepted() <= acceptedBefore);
+            while (isBusy(itemFilter)) {
+                if (timeoutMillis == 0) {
+                    wait();
+                } else {
+                    final long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    wait(remaining);
+                }
+            }
+            return true;
+        }
+    }
+
+    private boolean isBusy(final Predicate<String> itemFilter) {
+        return runningBuilds.stream()
+                        .anyMatch(run -> itemFilter.test(run.getParent().getFullName()))
+                || busyExecutors.values().stream()
+                        .anyMatch(busyExecutor -> itemFilter.test(getItemFullName(busyExecutor.task())));
+    }
+
+    private static String getItemFullName(final Queue.Task task) {
+        return task.getOwnerTask() instanceof Item item ? item.getFullName() : null;
+    }
+
+    /**
+     * Reads the executors of the computers without holding the monitor.
+     */
+    private static List<ExecutorState> readExecutors(final Computer... computers) {
+        final List<ExecutorState> executors = new ArrayList<>();
+        for (final Computer computer : computers) {
+            for (final Executor executor : computer.getAllExecutors()) {
+                final Queue.Executable executable = executor.getCurrentExecutable();
+                final Queue.Task task =
+                        executable != null ? executable.getParent().getOwnerTask() : null;
+                executors.add(new ExecutorState(executor, executor.isBusy(), executable, task));
+            }
+        }
+        return executors;
+    }
+
+    private void addBuildsOfComputers(final List<ExecutorState> executors) {
+        for (final ExecutorState state : executors) {
+            final Queue.Executable executable = state.executable();
+            if (executable == null || completedExecutables.containsKey(executable)) {
+                continue;
+            }
+            if (executable instanceof Run<?, ?> run && run.isLogUpdated()) {
+                runningBuilds.add(run);
+            }
+            if (state.busy() && state.task() != null) {
+                busyExecutors.putIfAbsent(state.executor(), new BusyExecutor(state.task(), ++acceptedTasks));
+            }
+        }
+    }
+
+    void computerOnline(final Computer computer) {
+        final List<ExecutorState> executors = readExecutors(computer);
+        synchronized (this) {
+            addBuildsOfComputers(executors);
+        }
+    }
+
+    /**
+     * The task of a busy executor.
+     *
+     * @param accepted the number of tasks taken up by executors when this one was, to tell it from later tasks
+     */
+    private record BusyExecutor(Queue.Task task, long accepted) {}
+
+    /**
+     * An executor as read from its computer.
+     */
+    private record ExecutorState(Executor executor, boolean busy, Queue.Executable executable, Queue.Task task) {}
+
+    /**
+     * Tells the monitor about the builds running on computers coming online, e.g. builds resumed on reconnected agents.
+     */
+    @Extension
+    public static class ComputerEvents extends ComputerListener {
+        @Override
+        public void onOnline(final Computer computer, final TaskListener listener) {
+            get().computerOnline(computer);
+        }
+    }
+
+    /**
+     * Tells the monitor when executors take up and complete their tasks.
+     */
+    @Extension
+    public static class ExecutorEvents implements ExecutorListener {
+        @Override
+        public void taskAccepted(final Executor executor, final Queue.Task task) {
+            get().taskAccepted(executor, task);
+        }
+
+        @Override
+        public void taskCompleted(final Executor executor, final Queue.Task task, final long durationMS) {
+            get().taskCompleted(executor);
+        }
+
+        @Override
+        public void taskCompletedWithProblems(
+                final Executor executor, final Queue.Task task, final long durationMS, final Throwable problems) {
+            get().taskCompleted(executor);
+        }
+    }
+}
@@ -17,7 +17,6 @@
 package org.jvnet.hudson.plugins.thinbackup.utils;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
-import hudson.model.Computer;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
@@ -39,7 +38,9 @@ import org.apache.commons.io.filefilter.FileFileFilter;
 import org.apache.commons.io.filefilter.FileFilterUtils;
 import org.apache.commons.io.filefilter.IOFileFilter;
 import org.jvnet.hudson.plugins.thinbackup.ThinBackupPeriodicWork.BackupType;
+import org.jvnet.hudson.plugins.thinbackup.backup.BackupCatalogFile;
 import org.jvnet.hudson.plugins.thinbackup.backup.BackupSet;
+import org.jvnet.hudson.plugins.thinbackup.backup.BackupSetGraph;
 import org.jvnet.hudson.plugins.thinbackup.backup.HudsonBackup;
 
 public final class Utils {
@@ -47,7 +48,6 @@ public final class Utils {
 
     private static final Logger LOGGER = Logger.getLogger("hudson.plugins.thinbackup");
 
-    private static final int QUIETMODE_MONITORING_SLEEP = 500;
     private static final String DIRECTORY_NAME_DATE_EXTRACTION_REGEX =
             String.format("(%s|%s)-", BackupType.FULL, BackupType.DIFF);
     private static final String START_ENV_VAR_TOKEN = "${";
@@ -62,35 +62,45 @@ public final class Utils {
     private Utils() {}
 
     /**
-     * Waits until all Hudson slaves are idle.
+     * Waits until all Hudson slaves are idle. Returns early if the thread is interrupted, keeping its interrupted
+     * status.
      */
     public static void waitUntilIdle() {
-        Jenkins jenkins = Jenkins.get();
-        final Computer[] computers = jenkins.getComputers();
-
-        boolean running;
-        do {
-            running = false;
-            for (final Computer computer : computers) {
-                if (computer.countBusy() != 0) {
-                    running = true;
-                    break;
-                }
-            }
+        try {
+            IdleMonitor.get().awaitIdle(item -> true, 0);
+        } catch (final InterruptedException e) {
+            LOGGER.log(Level.WARNING, e.getMessage(), e);
+            Thread.currentThread().interrupt();
+        }
+    }
 
-            try {
-                Thread.sleep(QUIETMODE_MONITORING_SLEEP);
-            } catch (final InterruptedException e) {
-                LOGGER.log(Level.WARNING, e.getMessage(), e);
-                Thread.currentThread().interrupt();
-            }
-        } while (running);
+    /**
+     * Waits until no build or other task of the given items and of the items within them is running. Items which do
+     * not exist are ignored. Returns early if the thread is interrupted, keeping its interrupted status.
+     *
+     * @param itemFullNames full names of the items
+     */
+    public static void waitUntilIdle(final Collection<String> itemFullNames) {
+        try {
+            IdleMonitor.get().awaitIdle(item -> item != null && isWithin(item, itemFullNames), 0);
+        } catch (final InterruptedException e) {
+            LOGGER.log(Level.WARNING, e.getMessage(), e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean isWithin(final String fullName, final Collection<String> itemFullNames) {
+        return itemFullNames.stream()
+                .anyMatch(itemFullName -> fullName.equals(itemFullName) || fullName.startsWith(itemFullName + "/"));
     }
 
     /**
      * Waits until all executors are idle and switch jenkins to quiet mode. If it takes to long that all executors are
      * idle because in the mean time other jobs are executed the timeout ensure that the quiet mode is forced.
      * But if timeout is set to -1, it will never force jenkins to quiet mode.
+     * <p>
+     * The wait ends as soon as the last running build is finalized, also for builds on agents which came online while
+     * waiting. Returns early if the thread is interrupted, keeping its interrupted status.
      *
      * @param timeout
      *          specifies when a quiet mode is forced.
@@ -101,33 +111,20 @@ public final class Utils {
      */
     public static void waitUntilIdleAndSwitchToQuietMode(int timeout, TimeUnit unit) throws IOException {
         Jenkins jenkins = Jenkins.get();
-        final Computer[] computers = jenkins.getComputers();
-
-        boolean running;
-        long starttime = System.currentTimeMillis();
-        do {
-            running = false;
-            for (final Computer computer : computers) {
-                if (computer.countBusy() != 0) {
-                    running = true;
-                    break;
-                }
-            }
-
-            try {
-                TimeUnit.MILLISECONDS.sleep(QUIETMODE_MONITORING_SLEEP);
-            } catch (final InterruptedException e) {
-                LOGGER.log(Level.WARNING, e.getMessage(), e);
-                Thread.currentThread().interrupt();
-            }
+        final IdleMonitor monitor = IdleMonitor.get();
 
+        try {
             if (timeout != -1
-                    && !jenkins.isQuietingDown()
-                    && starttime + unit.toMillis(timeout) < System.currentTimeMillis()) {
+                    && !monitor.awaitIdle(item -> true, Math.max(1, unit.toMillis(timeout)))
+                    && !jenkins.isQuietingDown()) {
                 LOGGER.info("Force quiet mode for jenkins now and wait until all executors are idle.");
                 jenkins.doQuietDown();
             }
-        } while (running);
+            monitor.awaitIdle(item -> true, 0);
+        } catch (final InterruptedException e) {
+            LOGGER.log(Level.WARNING, e.getMessage(), e);
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -190,11 +187,16 @@ public final class Utils {
     /**
      * @param parentDir root directory of all backups
      * @param backupType type of backup
-     * @return an unordered list of backup directories of the given backup type.
+     * @return an unordered list of backup directories and single backup archives of the given backup type.
      */
     public static List<File> getBackupTypeDirectories(final File parentDir, final BackupType backupType) {
         IOFileFilter prefixFilter = FileFilterUtils.and(
-                FileFilterUtils.prefixFileFilter(backupType.toString()), DirectoryFileFilter.DIRECTORY);
+                FileFilterUtils.prefixFileFilter(backupType.toString()),
+                FileFilterUtils.or(
+                        DirectoryFileFilter.DIRECTORY,
+                        FileFilterUtils.and(
+                                FileFilterUtils.suffixFileFilter(HudsonBackup.ZIP_FILE_EXTENSION),
+                                FileFileFilter.INSTANCE)));
 
         final File[] existingDirs = parentDir.listFiles((FilenameFilter) prefixFilter);
         if (existingDirs == null) {
@@ -230,53 +232,19 @@ public final class Utils {
         if (diffBackup.getName().startsWith(BackupType.FULL.toString())) {
             return diffBackup;
         }
-
-        final Collection<File> backups = getBackupTypeDirectories(diffBackup.getParentFile(), BackupType.FULL);
-
-        if (backups.isEmpty()) {
-            return null;
-        }
-
-        File referencedFullBackup = null;
-
-        final Date curBackupDate = getDateFromBackupDirectory(diffBackup);
-        if (curBackupDate != null) {
-            Date closestPreviousBackupDate = new Date(0);
-            for (final File fullBackupDir : backups) {
-                final Date tmpBackupDate = getDateFromBackupDirectory(fullBackupDir);
-                if ((tmpBackupDate != null)
-                        && (tmpBackupDate.after(closestPreviousBackupDate)
-                                && (tmpBackupDate.getTime() <= curBackupDate.getTime()))) {
-                    closestPreviousBackupDate = tmpBackupDate;
-                    referencedFullBackup = fullBackupDir;
-                }
-            }
-        }
-
-        return referencedFullBackup;
+        return BackupSetGraph.build(diffBackup.getParentFile()).getReferencedFullBackup(diffBackup);
     }
 
     /**
      * @param fullBackup fill backup
-     * @return a list of all diff backups which reference the given full backup.
+     * @return a list of all diff backups which reference the given full backup, ordered ascending by date.
      */
     @NonNull
     public static List<File> getReferencingDiffBackups(final File fullBackup) {
-        final List<File> diffBackups = new ArrayList<>();
         if (fullBackup.getName().startsWith(BackupType.DIFF.toString())) {
-            return diffBackups;
-        }
-
-        final Collection<File> allDiffBackups = getBackupTypeDirectories(fullBackup.getParentFile(), BackupType.DIFF);
-
-        for (final File diffBackup : allDiffBackups) {
-            final File tmpFullBackup = getReferencedFullBackup(diffBackup);
-            if ((tmpFullBackup != null) && (tmpFullBackup.getAbsolutePath().equals(fullBackup.getAbsolutePath()))) {
-                diffBackups.add(diffBackup);
-            }
+            return new ArrayList<>();
         }
-
-        return diffBackups;
+        return new ArrayList<>(BackupSetGraph.build(fullBackup.getParentFile()).getReferencingDiffBackups(fullBackup));
     }
 
     /**
@@ -285,9 +253,17 @@ public final class Utils {
      *         from both directories and ZIP files, ordered descending by the date encoded in the backups' name.
      */
     public static List<String> getBackupsAsDates(final File directory) {
+        return getBackupsAsDates(getValidBackupSets(directory));
+    }
+
+    /**
+     * @param backupSets valid backup sets
+     * @return a list of the backups in the given backup sets (both FULL and DIFF), displayed as the respective backup
+     *         date, ordered descending by the date encoded in the backups' name.
+     */
+    public static List<String> getBackupsAsDates(final List<BackupSet> backupSets) {
         final List<String> backupDates = new ArrayList<>();
 
-        final List<BackupSet> backupSets = getValidBackupSets(directory);
         for (final BackupSet backupSet : backupSets) {
             final String fullName = backupSet.getFullBackupName();
             try {
@@ -331,11 +307,8 @@ public final class Utils {
      *         given directory, ordered ascending by the backup date of the BackupSets' full backup.
      */
     public static List<BackupSet> getValidBackupSetsFromDirectories(final File directory) {
-        final Collection<File> backups = Utils.getBackupTypeDirectories(directory, BackupType.FULL);
-
         final List<BackupSet> validSets = new ArrayList<>();
-        for (final File backup : backups) {
-            final BackupSet set = new BackupSet(backup);
+        for (final BackupSet set : BackupSetGraph.build(directory).getBackupSets()) {
             if (set.isValid()) {
                 validSets.add(set);
             }
@@ -382,21 +355,37 @@ public final class Utils {
 
     /**
      * Moves all backup sets (that are not already zipped) other than the one containing currentBackup to ZIP files
-     * located in backupRoot.
+     * located in backupRoot. Backup sets containing single backup archives are already compressed and thus skipped.
      *
      * @param backupRoot root directory of all backups
      * @param currentBackup
      *          specified which backup should be omitted from being moved. If null, all backups are moved to ZIP files.
      */
     public static void moveOldBackupsToZipFile(final File backupRoot, final File currentBackup) {
+        moveOldBackupsToZipFile(backupRoot, currentBackup, 1);
+    }
+
+    /**
+     * Moves all backup sets (that are not already zipped) other than the one containing currentBackup to ZIP files
+     * located in backupRoot, compressing each of them with the given number of threads.
+     *
+     * @param backupRoot root directory of all backups
+     * @param currentBackup
+     *          specified which backup should be omitted from being moved. If null, all backups are moved to ZIP files.
+     * @param zipThreads number of threads used to compress the files of a backup set
+     */
+    public static void moveOldBackupsToZipFile(final File backupRoot, final File currentBackup, final int zipThreads) {
         LOGGER.fine("Moving old backups to zip files...");
 
-        final List<BackupSet> validBackupSets = Utils.getValidBackupSetsFromDirectories(backupRoot);
+        final List<BackupSet> validBackupSets =
+                BackupCatalogFile.load(backupRoot).getBackupSets();
         int numberOfZippedBackupSets = 0;
         int numberOfMovedBackupSets = 0;
         for (final BackupSet backupSet : validBackupSets) {
-            if ((!backupSet.containsDirectory(currentBackup)) && (!backupSet.isInZipFile())) {
-                final File zippedBackupSet = backupSet.zipTo(backupRoot);
+            if ((!backupSet.containsDirectory(currentBackup))
+                    && (!backupSet.isInZipFile())
+                    && (!backupSet.containsBackupArchives())) {
+                final File zippedBackupSet = backupSet.zipTo(backupRoot, zipThreads);
                 ++numberOfZippedBackupSets;
                 if (zippedBackupSet != null) {
                     LOGGER.fine(String.format(
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
+import org.jvnet.hudson.plugins.thinbackup.backup.BackupCatalogFile;
 import org.jvnet.hudson.plugins.thinbackup.backup.HudsonBackup;
 
 public class TestHelper {
@@ -122,4 +123,18 @@ public class TestHelper {
         }
         return result;
     }
+
+    /**
+     * @return the backups and backup set ZIP files in the backup directory, without the backup catalog.
+     */
+    public static File[] listBackups(File backupDir) {
+        return backupDir.listFiles(file -> !file.getName().equals(BackupCatalogFile.FILE_NAME));
+    }
+
+    /**
+     * @return the names of the backups and backup set ZIP files in the backup directory, without the backup catalog.
+     */
+    public static String[] listBackupNames(File backupDir) {
+        return backupDir.list((dir, name) -> !name.equals(BackupCatalogFile.FILE_NAME));
+    }
 }
@@ -6,6 +6,7 @@ import io.jenkins.plugins.casc.misc.ConfiguredWithCode;
 import io.jenkins.plugins.casc.misc.JenkinsConfiguredWithCodeRule;
 import io.jenkins.plugins.casc.misc.junit.jupiter.WithJenkinsConfiguredWithCode;
 import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.plugins.thinbackup.ThinBackupPluginImpl.StorageMode;
 
 @WithJenkinsConfiguredWithCode
 class TestJenkinsConfigAsCode {
@@ -24,6 +25,9 @@ class TestJenkinsConfigAsCode {
         // test numbers
         assertEquals(120, thinBackupPluginConfig.getForceQuietModeTimeout());
         assertEquals(-1, thinBackupPluginConfig.getNrMaxStoredFull());
+        assertEquals(4, thinBackupPluginConfig.getBackupThreads());
+        assertEquals(2, thinBackupPluginConfig.getZipThreads());
+        assertEquals(StorageMode.HARDLINK, thinBackupPluginConfig.getStorageMode());
         // test booleans
         assertTrue(thinBackupPluginConfig.isWaitForIdle());
         assertTrue(thinBackupPluginConfig.isBackupBuildResults());
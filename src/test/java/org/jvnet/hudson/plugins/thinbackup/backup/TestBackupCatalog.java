@@ -0,0 +1,68 @@
+package org.jvnet.hudson.plugins.thinbackup.backup;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TestBackupCatalog {
+
+    @TempDir
+    private File backupDir;
+
+    private final BackupCatalog catalog = new BackupCatalog();
+
+    @AfterEach
+    void tearDown() {
+        catalog.stopWatching();
+    }
+
+    @Test
+    void testUnchangedBackupDirectoryIsNotListedAgain() {
+        assertTrue(new File(backupDir, "FULL-2011-02-13_10-48").mkdir());
+
+        final List<String> backups = catalog.getBackupsAsDates(backupDir);
+        assertEquals(List.of("2011-02-13 10:48"), backups);
+        assertSame(backups, catalog.getBackupsAsDates(backupDir));
+    }
+
+    @Test
+    void testReportedChangesUpdateTheCatalog() throws Exception {
+        assertTrue(new File(backupDir, "FULL-2011-02-13_10-48").mkdir());
+        assertEquals(List.of("2011-02-13 10:48"), catalog.getBackupsAsDates(backupDir));
+
+        final File diff = new File(backupDir, "DIFF-2011-02-14_10-48");
+        assertTrue(diff.mkdir());
+        catalog.changed(diff);
+        assertEquals(List.of("2011-02-14 10:48", "2011-02-13 10:48"), catalog.getBackupsAsDates(backupDir));
+
+        FileUtils.deleteDirectory(diff);
+        catalog.changed(diff);
+        assertEquals(List.of("2011-02-13 10:48"), catalog.getBackupsAsDates(backupDir));
+    }
+
+    @Test
+    void testZippedBackupSetsAreAddedAndRemoved() throws Exception {
+        final File full = new File(backupDir, "FULL-2011-02-13_10-48");
+        assertTrue(full.mkdir());
+        FileUtils.writeStringToFile(new File(full, "config.xml"), "<hudson/>", "UTF-8");
+        assertEquals(List.of("2011-02-13 10:48"), catalog.getBackupsAsDates(backupDir));
+
+        final BackupSet backupSet = new BackupSet(full);
+        final File zipFile = backupSet.zipTo(backupDir);
+        backupSet.delete();
+        catalog.changed(zipFile);
+        catalog.changed(full);
+        assertEquals(List.of("2011-02-13 10:48"), catalog.getBackupsAsDates(backupDir));
+
+        new BackupSet(zipFile).delete();
+        catalog.changed(zipFile);
+        assertEquals(List.of(), catalog.getBackupsAsDates(backupDir));
+    }
+}
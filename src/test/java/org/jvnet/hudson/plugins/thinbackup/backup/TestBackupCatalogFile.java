@@ -0,0 +1,103 @@
+package org.jvnet.hudson.plugins.thinbackup.backup;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.jvnet.hudson.plugins.thinbackup.TestHelper.newFile;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.plugins.thinbackup.ThinBackupPeriodicWork.BackupType;
+import org.jvnet.hudson.plugins.thinbackup.backup.BackupCatalogFile.Entry;
+import org.jvnet.hudson.plugins.thinbackup.backup.BackupCatalogFile.Location;
+import org.jvnet.hudson.plugins.thinbackup.utils.Utils;
+
+class TestBackupCatalogFile extends BackupDirStructureSetup {
+
+    @Test
+    void testMissingCatalogIsRebuiltFromScan() throws Exception {
+        Files.writeString(new File(full1, "config.xml").toPath(), "<hudson/>");
+        newFile(full1, HudsonBackup.COMPLETED_BACKUP_FILE);
+        newFile(full3, HudsonBackup.COMPLETED_BACKUP_FILE);
+
+        final BackupCatalogFile catalog = BackupCatalogFile.load(backupDir);
+
+        assertTrue(new File(backupDir, BackupCatalogFile.FILE_NAME).isFile());
+        assertEquals(10, catalog.getEntries().size());
+        final Entry entry = catalog.getEntries().get(1);
+        assertEquals(full1.getName(), entry.name());
+        assertEquals(Location.DIRECTORY, entry.location());
+        assertEquals(9, entry.size());
+        assertEquals(1, entry.files());
+        assertTrue(entry.completed());
+        assertFalse(catalog.getEntries().get(2).completed());
+        assertEquals(full3.getName(), getName(catalog.getLatestFullBackupDate()));
+        assertThat(catalog.getBackups(BackupType.FULL), contains(full1, full2, full3));
+
+        final List<BackupSet> backupSets = catalog.getBackupSets();
+        assertEquals(3, backupSets.size());
+        assertEquals(full1, backupSets.get(0).getFullBackup());
+        assertThat(backupSets.get(0).getDiffBackups(), contains(diff11, diff12, diff13, diff14));
+    }
+
+    @Test
+    void testChangesArePlannedFromTheCatalog() throws Exception {
+        Files.writeString(new File(full1, "config.xml").toPath(), "<hudson/>");
+        Files.writeString(new File(diff11, "config.xml").toPath(), "<hudson/>");
+        newFile(full3, HudsonBackup.COMPLETED_BACKUP_FILE);
+        BackupCatalogFile.load(backupDir);
+        // not in the catalog until it is rebuilt
+        final File full4 = new File(backupDir, "FULL-2011-04-01_00-00");
+        assertTrue(full4.mkdir());
+
+        final BackupSet backupSet =
+                BackupCatalogFile.load(backupDir).getBackupSets().get(0);
+        final File zipFile = backupSet.zipTo(backupDir);
+        backupSet.delete();
+
+        final BackupCatalogFile catalog = BackupCatalogFile.load(backupDir);
+        assertEquals(3, catalog.getBackupSets().size());
+        assertTrue(catalog.getBackupSets().get(0).isInZipFile());
+        assertEquals(Location.BACKUP_SET, catalog.getEntries().get(1).location());
+        assertEquals(zipFile.getName(), catalog.getEntries().get(1).file());
+        assertEquals(full3.getName(), getName(catalog.getLatestFullBackupDate()));
+
+        assertEquals(4, BackupCatalogFile.rebuild(backupDir).getBackupSets().size());
+    }
+
+    @Test
+    void testIncompleteAndDeletedFullBackupsAreNoBaseForDiffs() throws Exception {
+        newFile(full1, HudsonBackup.COMPLETED_BACKUP_FILE);
+
+        assertEquals(full1.getName(), getName(BackupCatalogFile.load(backupDir).getLatestFullBackupDate()));
+
+        FileUtils.deleteDirectory(full1);
+        assertNull(BackupCatalogFile.load(backupDir).getLatestFullBackupDate());
+    }
+
+    @Test
+    void testCorruptCatalogIsRebuilt() throws Exception {
+        Files.writeString(new File(backupDir, BackupCatalogFile.FILE_NAME).toPath(), "garbage\n");
+
+        assertEquals(10, BackupCatalogFile.load(backupDir).getEntries().size());
+
+        BackupCatalogFile.update(backupDir, catalog -> {
+            for (final Entry entry : List.copyOf(catalog.getEntries())) {
+                catalog.remove(entry.file());
+            }
+        });
+        assertThat(BackupCatalogFile.load(backupDir).getEntries(), empty());
+    }
+
+    private static String getName(final Date date) {
+        return Utils.getFormattedDirectory(null, BackupType.FULL, date).getName();
+    }
+}
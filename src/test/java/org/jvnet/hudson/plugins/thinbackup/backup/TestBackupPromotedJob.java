@@ -4,6 +4,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasItems;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.jvnet.hudson.plugins.thinbackup.TestHelper.listBackupNames;
 import static org.jvnet.hudson.plugins.thinbackup.TestHelper.newFolder;
 
 import hudson.model.FreeStyleProject;
@@ -45,8 +46,8 @@ class TestBackupPromotedJob {
         TestHelper.addSinglePromotionResult(projectRootDir);
 
         // run backup
-        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date, r.jenkins).backup();
-        final String[] listedBackupDirs = backupDir.list();
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date).backup();
+        final String[] listedBackupDirs = listBackupNames(backupDir);
         assertEquals(1, listedBackupDirs.length);
 
         Path backupFolderName =
@@ -0,0 +1,51 @@
+package org.jvnet.hudson.plugins.thinbackup.backup;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.jvnet.hudson.plugins.thinbackup.TestHelper.newFile;
+
+import java.io.File;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class TestBackupSetGraph extends BackupDirStructureSetup {
+
+    @Test
+    void testDiffBackupsBelongToPreviousFullBackup() {
+        final BackupSetGraph graph = BackupSetGraph.build(backupDir);
+
+        assertEquals(full1, graph.getReferencedFullBackup(diff13));
+        assertEquals(full2, graph.getReferencedFullBackup(diff21));
+        assertEquals(full3, graph.getReferencedFullBackup(full3));
+        assertNull(graph.getReferencedFullBackup(diff41));
+
+        assertThat(graph.getReferencingDiffBackups(full1), contains(diff11, diff12, diff13, diff14));
+        assertThat(graph.getReferencingDiffBackups(full3), contains(diff31));
+        assertThat(graph.getReferencingDiffBackups(diff41), empty());
+    }
+
+    @Test
+    void testBackupSetsAreOrderedByDate() throws Exception {
+        // neither a backup directory nor a single backup archive
+        newFile(backupDir, "FULL-2011-04-01_00-00.txt");
+        newFile(backupDir, "FULL-not-a-date");
+
+        final List<BackupSet> backupSets = BackupSetGraph.build(backupDir).getBackupSets();
+
+        assertEquals(3, backupSets.size());
+        assertEquals(full1, backupSets.get(0).getFullBackup());
+        assertThat(backupSets.get(0).getDiffBackups(), contains(diff11, diff12, diff13, diff14));
+        assertEquals(full2, backupSets.get(1).getFullBackup());
+        assertEquals(full3, backupSets.get(2).getFullBackup());
+    }
+
+    @Test
+    void testMissingBackupRoot() {
+        final BackupSetGraph graph = BackupSetGraph.build(new File(backupDir, "missing"));
+
+        assertThat(graph.getBackupSets(), empty());
+    }
+}
@@ -5,6 +5,7 @@ import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.hasItems;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.jvnet.hudson.plugins.thinbackup.TestHelper.listBackupNames;
 import static org.jvnet.hudson.plugins.thinbackup.TestHelper.newFolder;
 
 import hudson.model.FreeStyleProject;
@@ -48,8 +49,8 @@ class TestBackupWithCloudBeesFolder {
         r.assertBuildStatusSuccess(elementsJob.scheduleBuild2(0));
 
         // run backup
-        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date, r.jenkins).backup();
-        final String[] listedBackupDirs = backupDir.list();
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date).backup();
+        final String[] listedBackupDirs = listBackupNames(backupDir);
         assertEquals(1, listedBackupDirs.length);
 
         Path backupFolderName =
@@ -83,4 +84,55 @@ class TestBackupWithCloudBeesFolder {
         final List<String> listedJobElements = List.of(folderJobDir.list());
         assertThat(listedJobElements, containsInAnyOrder("config.xml", "builds"));
     }
+
+    @Test
+    void testWithFolderInParallel(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+
+        final ThinBackupPluginImpl thinBackupPlugin = ThinBackupPluginImpl.get();
+        thinBackupPlugin.setBackupPath(backupDir.getAbsolutePath());
+        thinBackupPlugin.setBackupBuildResults(true);
+        thinBackupPlugin.setBackupThreads(4);
+        final Date date = new Date();
+
+        // create jobs on top level and in nested folders
+        for (int i = 0; i < 5; i++) {
+            r.createFreeStyleProject("freeStyleJob" + i);
+        }
+        final MockFolder folder1 = r.createFolder("folder1");
+        final MockFolder folder2 = folder1.createProject(MockFolder.class, "folder2");
+        for (int i = 0; i < 5; i++) {
+            folder1.createProject(FreeStyleProject.class, "elements" + i);
+            folder2.createProject(FreeStyleProject.class, "nested" + i);
+        }
+        var elementsJob = (FreeStyleProject) folder1.getItem("elements0");
+        r.assertBuildStatusSuccess(elementsJob.scheduleBuild2(0));
+
+        // run backup
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date).backup();
+
+        File jobBackup = new File(Utils.getFormattedDirectory(backupDir, BackupType.FULL, date), "jobs");
+        assertThat(
+                List.of(jobBackup.list()),
+                containsInAnyOrder(
+                        "folder1",
+                        "freeStyleJob0",
+                        "freeStyleJob1",
+                        "freeStyleJob2",
+                        "freeStyleJob3",
+                        "freeStyleJob4"));
+
+        File folder1Backup = new File(jobBackup, "folder1");
+        assertTrue(new File(folder1Backup, "config.xml").exists());
+        assertThat(
+                List.of(new File(folder1Backup, "jobs").list()),
+                containsInAnyOrder("folder2", "elements0", "elements1", "elements2", "elements3", "elements4"));
+        assertTrue(new File(folder1Backup, "jobs/elements0/builds").isDirectory());
+
+        File folder2Backup = new File(folder1Backup, "jobs/folder2");
+        assertTrue(new File(folder2Backup, "config.xml").exists());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(new File(folder2Backup, "jobs/nested" + i + "/config.xml").exists());
+        }
+    }
 }
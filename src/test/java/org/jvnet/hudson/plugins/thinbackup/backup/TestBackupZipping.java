@@ -1,16 +1,23 @@
 package org.jvnet.hudson.plugins.thinbackup.backup;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.jvnet.hudson.plugins.thinbackup.TestHelper.listBackupNames;
+import static org.jvnet.hudson.plugins.thinbackup.TestHelper.listBackups;
 import static org.jvnet.hudson.plugins.thinbackup.TestHelper.newFolder;
 
 import hudson.model.FreeStyleProject;
 import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
@@ -59,15 +66,15 @@ class TestBackupZipping {
         folder1.createProject(FreeStyleProject.class, "elements");
 
         // run backup full
-        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.FULL, dateBefore, r.jenkins).backup();
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.FULL, dateBefore).backup();
 
         // create another job
         folder1.createProject(FreeStyleProject.class, "elements2");
 
         // run backup diff
-        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.DIFF, date, r.jenkins).backup();
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.DIFF, date).backup();
 
-        final String[] listedBackupDirs = backupDir.list();
+        final String[] listedBackupDirs = listBackupNames(backupDir);
         assertEquals(2, listedBackupDirs.length);
 
         Path backupFolderName = Utils.getFormattedDirectory(
@@ -86,7 +93,7 @@ class TestBackupZipping {
                         "jobs"));
 
         // create BackupSet
-        final File[] listedFiles = backupDir.listFiles();
+        final File[] listedFiles = listBackups(backupDir);
         assertEquals(2, listedFiles.length);
         final BackupSet backupSetFromDirectory = new BackupSet(listedFiles[0]);
 
@@ -98,7 +105,7 @@ class TestBackupZipping {
         final File zippedBackupSet = backupSetFromDirectory.zipTo(backupDir);
         assertNotNull(zippedBackupSet);
 
-        File[] files = backupDir.listFiles();
+        File[] files = listBackups(backupDir);
         assertEquals(3, files.length);
 
         final ZipFile zipFile = new ZipFile(zippedBackupSet);
@@ -111,6 +118,12 @@ class TestBackupZipping {
         assertThat(entryCount, lessThan(30));
         zipFile.close();
 
+        final BackupSetIndex index = BackupSetIndex.read(zippedBackupSet);
+        assertNotNull(index);
+        assertEquals(backupSetFromDirectory.getFullBackupName(), index.fullBackupName());
+        assertEquals(backupSetFromDirectory.getDiffBackupsNames(), index.diffBackupNames());
+        assertEquals(entryCount, index.entries());
+
         final BackupSet backupSetFromZip = new BackupSet(zippedBackupSet);
         assertTrue(backupSetFromZip.isValid());
         assertTrue(backupSetFromZip.isInZipFile());
@@ -130,4 +143,69 @@ class TestBackupZipping {
             assertTrue(diffBackup.exists());
         }
     }
+
+    @Test
+    void testParallelZipperKeepsEntriesAndOrder(JenkinsRule r) throws Exception {
+        final File backupDir = newFolder(tmpFolder, "junit");
+        final File backup = new File(backupDir, "FULL-2011-02-13_10-48");
+        for (int i = 0; i < 20; i++) {
+            final Path file = backup.toPath().resolve("jobs/job" + i + "/config.xml");
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, "<project>" + "x".repeat(i * 1000) + "</project>");
+        }
+
+        final File sequentialZip = new File(backupDir, "sequential.zip");
+        try (DirectoriesZipper zipper = new DirectoriesZipper(sequentialZip)) {
+            zipper.addToZip(backup);
+        }
+        final File parallelZip = new File(backupDir, "parallel.zip");
+        try (DirectoriesZipper zipper = new DirectoriesZipper(parallelZip, 3)) {
+            zipper.addToZip(backup);
+        }
+
+        try (ZipFile sequential = new ZipFile(sequentialZip);
+                ZipFile parallel = new ZipFile(parallelZip)) {
+            final List<String> sequentialEntries =
+                    sequential.stream().map(ZipEntry::getName).toList();
+            final List<String> parallelEntries =
+                    parallel.stream().map(ZipEntry::getName).toList();
+            assertEquals(20, parallelEntries.size());
+            assertEquals(sequentialEntries, parallelEntries);
+            for (final String name : parallelEntries) {
+                try (InputStream expected = sequential.getInputStream(sequential.getEntry(name));
+                        InputStream actual = parallel.getInputStream(parallel.getEntry(name))) {
+                    assertArrayEquals(expected.readAllBytes(), actual.readAllBytes());
+                }
+            }
+        }
+        // the compressed batches are removed
+        assertThat(
+                List.of(backupDir.list()),
+                containsInAnyOrder("FULL-2011-02-13_10-48", "sequential.zip", "parallel.zip"));
+    }
+
+    @Test
+    void testBackupSetFromZipFileWithoutIndex(JenkinsRule r) throws Exception {
+        final File backupDir = newFolder(tmpFolder, "junit");
+        final String fullBackupName = "FULL-2011-02-13_10-48";
+        final String diffBackupName = "DIFF-2011-02-14_10-48";
+        for (final String backupName : List.of(fullBackupName, diffBackupName)) {
+            final Path file = backupDir.toPath().resolve(backupName).resolve("config.xml");
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, "<hudson/>");
+        }
+
+        // ZIP files written by older versions have no index
+        final File zipFile = new File(backupDir, "BACKUPSET_2011-02-13_10-48_2011-02-14_10-48.zip");
+        try (DirectoriesZipper zipper = new DirectoriesZipper(zipFile)) {
+            zipper.addToZip(new File(backupDir, fullBackupName));
+            zipper.addToZip(new File(backupDir, diffBackupName));
+        }
+        assertNull(BackupSetIndex.read(zipFile));
+
+        final BackupSet backupSet = new BackupSet(zipFile);
+        assertTrue(backupSet.isValid());
+        assertEquals(fullBackupName, backupSet.getFullBackupName());
+        assertEquals(List.of(diffBackupName), backupSet.getDiffBackupsNames());
+    }
 }
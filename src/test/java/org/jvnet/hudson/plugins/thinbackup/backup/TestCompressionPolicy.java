@@ -0,0 +1,134 @@
+package org.jvnet.hudson.plugins.thinbackup.backup;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TestCompressionPolicy {
+
+    @TempDir
+    private File tmpFolder;
+
+    @Test
+    void testCompressedExtensionsAreStored() throws IOException {
+        final File plugin = randomFile("credentials.jpi");
+        final File log = textFile("log.gz");
+
+        final CompressionPolicy policy = new CompressionPolicy();
+        assertEquals(ZipEntry.STORED, policy.getMethod(plugin, plugin.length()));
+        assertEquals(ZipEntry.STORED, policy.getMethod(log, log.length()));
+    }
+
+    @Test
+    void testSampledEntropyDecidesForUnknownExtensions() throws IOException {
+        final File artifact = randomFile("artifact.bin");
+        final File config = textFile("config.xml");
+
+        final CompressionPolicy policy = new CompressionPolicy();
+        assertEquals(ZipEntry.STORED, policy.getMethod(artifact, artifact.length()));
+        assertEquals(ZipEntry.DEFLATED, policy.getMethod(config, config.length()));
+    }
+
+    @Test
+    void testSmallFilesAreDeflated() throws IOException {
+        final File small = new File(tmpFolder, "small.jpi");
+        Files.write(small.toPath(), new byte[100]);
+
+        assertEquals(ZipEntry.DEFLATED, new CompressionPolicy().getMethod(small, small.length()));
+    }
+
+    @Test
+    void testRecordedRatiosReplaceSampling() throws IOException {
+        final File text = textFile("data.dat");
+
+        final CompressionPolicy policy = new CompressionPolicy();
+        assertEquals(ZipEntry.DEFLATED, policy.getMethod(text, text.length()));
+        for (int i = 1; i < CompressionPolicy.MIN_RECORDED_FILES; i++) {
+            policy.record("job" + i + "/data.dat", ZipEntry.DEFLATED, 100_000, 99_000);
+        }
+        assertEquals(ZipEntry.DEFLATED, policy.getMethod(text, text.length()));
+
+        policy.record("job0/DATA.DAT", ZipEntry.DEFLATED, 100_000, 99_000);
+        assertEquals(ZipEntry.STORED, policy.getMethod(text, text.length()));
+    }
+
+    @Test
+    void testStoredFilesAndFilesWithoutExtensionAreNotLearned() throws IOException {
+        final File text = textFile("data.dat");
+        final File log = textFile("log");
+
+        final CompressionPolicy policy = new CompressionPolicy();
+        for (int i = 0; i < CompressionPolicy.MIN_RECORDED_FILES; i++) {
+            policy.record("job" + i + "/data.dat", ZipEntry.STORED, 100_000, 100_000);
+            policy.record("job" + i + "/builds/1/log", ZipEntry.DEFLATED, 100_000, 99_000);
+        }
+        assertEquals(ZipEntry.DEFLATED, policy.getMethod(text, text.length()));
+        assertEquals(ZipEntry.DEFLATED, policy.getMethod(log, log.length()));
+    }
+
+    @Test
+    void testIncompressibleExtensionsAreSampledAgain() throws IOException {
+        final File text = textFile("data.dat");
+
+        final CompressionPolicy policy = new CompressionPolicy();
+        for (int i = 0; i < CompressionPolicy.MIN_RECORDED_FILES; i++) {
+            policy.record("job" + i + "/data.dat", ZipEntry.DEFLATED, 100_000, 99_000);
+        }
+        int deflated = 0;
+        for (int i = 0; i < CompressionPolicy.RESAMPLE_INTERVAL; i++) {
+            if (policy.getMethod(text, text.length()) == ZipEntry.DEFLATED) {
+                ++deflated;
+            }
+        }
+        assertEquals(1, deflated);
+    }
+
+    @Test
+    void testRatiosAreKeptInTheBackupRoot() throws IOException {
+        final File text = textFile("data.dat");
+
+        final CompressionPolicy policy = new CompressionPolicy(tmpFolder);
+        for (int i = 0; i < CompressionPolicy.MIN_RECORDED_FILES; i++) {
+            policy.record("job" + i + "/data.dat", ZipEntry.DEFLATED, 100_000, 99_000);
+        }
+        policy.save();
+
+        assertTrue(new File(tmpFolder, CompressionPolicy.FILE_NAME).isFile());
+        assertEquals(ZipEntry.STORED, new CompressionPolicy(tmpFolder).getMethod(text, text.length()));
+    }
+
+    @Test
+    void testSavedRatiosAreNotCountedTwice() throws IOException {
+        final CompressionPolicy policy = new CompressionPolicy(tmpFolder);
+        for (int i = 0; i < CompressionPolicy.MIN_RECORDED_FILES; i++) {
+            policy.record("job" + i + "/data.dat", ZipEntry.DEFLATED, 100_000, 99_000);
+        }
+        policy.save();
+        new CompressionPolicy(tmpFolder).save();
+
+        final List<String> lines = Files.readAllLines(new File(tmpFolder, CompressionPolicy.FILE_NAME).toPath());
+        assertEquals(List.of("thinBackup compression ratios 1", "dat\t5\t500000\t495000"), lines);
+    }
+
+    private File randomFile(final String name) throws IOException {
+        final byte[] content = new byte[64 * 1024];
+        new Random(42).nextBytes(content);
+        final File file = new File(tmpFolder, name);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    private File textFile(final String name) throws IOException {
+        final File file = new File(tmpFolder, name);
+        Files.writeString(file.toPath(), "<project><builders/></project>\n".repeat(1000));
+        return file;
+    }
+}
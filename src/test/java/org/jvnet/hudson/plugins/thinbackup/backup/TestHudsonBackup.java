@@ -26,24 +26,37 @@ import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.Matchers.not;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.jvnet.hudson.plugins.thinbackup.TestHelper.listBackupNames;
 import static org.jvnet.hudson.plugins.thinbackup.TestHelper.newFile;
 import static org.jvnet.hudson.plugins.thinbackup.TestHelper.newFolder;
 
 import hudson.model.FreeStyleProject;
 import hudson.model.Label;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.jvnet.hudson.plugins.thinbackup.TestHelper;
 import org.jvnet.hudson.plugins.thinbackup.ThinBackupPeriodicWork.BackupType;
 import org.jvnet.hudson.plugins.thinbackup.ThinBackupPluginImpl;
+import org.jvnet.hudson.plugins.thinbackup.ThinBackupPluginImpl.StorageMode;
 import org.jvnet.hudson.plugins.thinbackup.utils.Utils;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
@@ -72,8 +85,8 @@ class TestHudsonBackup {
         TestHelper.createMaliciousMultiJob(rootDir, "jobs");
 
         // run backup
-        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date, r.jenkins).backup();
-        final String[] listedBackupDirs = backupDir.list();
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date).backup();
+        final String[] listedBackupDirs = listBackupNames(backupDir);
         assertEquals(1, listedBackupDirs.length);
 
         Path backupFolderName =
@@ -90,7 +103,7 @@ class TestHudsonBackup {
                         "hudson.model.UpdateCenter.xml",
                         "jobs"));
 
-        String[] list = backupDir.list();
+        String[] list = listBackupNames(backupDir);
         assertNotNull(list);
         assertEquals(1, list.length);
         final File backup = new File(backupDir, list[0]);
@@ -142,10 +155,10 @@ class TestHudsonBackup {
         TestHelper.createMaliciousMultiJob(rootDir, "jobs/emptyJob");
 
         // run backup
-        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date, r.jenkins).backup();
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date).backup();
 
         // verify
-        String[] list = backupDir.list();
+        String[] list = listBackupNames(backupDir);
         assertNotNull(list);
         assertEquals(1, list.length);
         final File backup = new File(backupDir, list[0]);
@@ -189,9 +202,9 @@ class TestHudsonBackup {
         newFile(buildDir, "logfile.xlog");
 
         // run backup
-        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date, r.jenkins).backup();
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date).backup();
 
-        String[] list = backupDir.list();
+        String[] list = listBackupNames(backupDir);
         assertNotNull(list);
         assertEquals(1, list.length);
         final File backup = new File(backupDir, list[0]);
@@ -233,8 +246,8 @@ class TestHudsonBackup {
         newFile(test.getRootDir(), "nextBuildNumber");
 
         // run backup
-        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date, r.jenkins).backup();
-        final String[] listedBackupDirs = backupDir.list();
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date).backup();
+        final String[] listedBackupDirs = listBackupNames(backupDir);
         assertEquals(1, listedBackupDirs.length);
 
         Path backupFolderName =
@@ -251,7 +264,7 @@ class TestHudsonBackup {
                         "hudson.model.UpdateCenter.xml",
                         "jobs"));
 
-        String[] list = backupDir.list();
+        String[] list = listBackupNames(backupDir);
         assertNotNull(list);
         assertEquals(1, list.length);
         final File backup = new File(backupDir, list[0]);
@@ -293,8 +306,8 @@ class TestHudsonBackup {
         File buildDir = TestHelper.addNewBuildToJob(test.getRootDir());
 
         // run backup
-        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date, r.jenkins).backup();
-        final String[] listedBackupDirs = backupDir.list();
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date).backup();
+        final String[] listedBackupDirs = listBackupNames(backupDir);
         assertEquals(1, listedBackupDirs.length);
 
         Path backupFolderName =
@@ -311,7 +324,7 @@ class TestHudsonBackup {
                         "hudson.model.UpdateCenter.xml",
                         "jobs"));
 
-        String[] list = backupDir.list();
+        String[] list = listBackupNames(backupDir);
         assertNotNull(list);
         assertEquals(1, list.length);
         final File backup = new File(backupDir, list[0]);
@@ -357,8 +370,8 @@ class TestHudsonBackup {
         newFile(buildDir, "log.txt");
 
         // run backup
-        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date, r.jenkins).backup();
-        final String[] listedBackupDirs = backupDir.list();
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date).backup();
+        final String[] listedBackupDirs = listBackupNames(backupDir);
         assertEquals(1, listedBackupDirs.length);
 
         Path backupFolderName =
@@ -375,7 +388,7 @@ class TestHudsonBackup {
                         "hudson.model.UpdateCenter.xml",
                         "jobs"));
 
-        String[] list = backupDir.list();
+        String[] list = listBackupNames(backupDir);
         assertNotNull(list);
         assertEquals(1, list.length);
         final File backup = new File(backupDir, list[0]);
@@ -390,6 +403,36 @@ class TestHudsonBackup {
         assertThat(List.of(list), containsInAnyOrder("config.xml", "builds"));
     }
 
+    @Test
+    void testBackupKeptBuildsOnly_readsKeepLogFromBuildXml(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+
+        final ThinBackupPluginImpl thinBackupPlugin = ThinBackupPluginImpl.get();
+        thinBackupPlugin.setBackupPath(backupDir.getAbsolutePath());
+        thinBackupPlugin.setBackupBuildResults(true);
+        thinBackupPlugin.setBackupBuildsToKeepOnly(true);
+        final Date date = new Date();
+
+        // create job with a kept and a not kept build
+        final FreeStyleProject test = r.createFreeStyleProject("test");
+        final File builds = newFolder(test.getRootDir(), HudsonBackup.BUILDS_DIR_NAME);
+        Files.writeString(
+                new File(newFolder(builds, "1"), HudsonBackup.BUILD_XML).toPath(),
+                "<?xml version='1.1' encoding='UTF-8'?>\n<build>\n  <actions/>\n  <keepLog>true</keepLog>\n</build>");
+        Files.writeString(
+                new File(newFolder(builds, "2"), HudsonBackup.BUILD_XML).toPath(),
+                "<?xml version='1.1' encoding='UTF-8'?>\n<build>\n  <actions>\n    <keepLog>true</keepLog>\n"
+                        + "  </actions>\n  <keepLog>false</keepLog>\n</build>");
+
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date).backup();
+
+        final File backupBuilds = new File(
+                Utils.getFormattedDirectory(backupDir, BackupType.FULL, date),
+                "jobs/test/" + HudsonBackup.BUILDS_DIR_NAME);
+        assertTrue(new File(backupBuilds, "1/" + HudsonBackup.BUILD_XML).exists());
+        assertFalse(new File(backupBuilds, "2").exists());
+    }
+
     @Test
     void testRemovingEmptyDirs(JenkinsRule r) throws Exception {
         File backupDir = newFolder(tmpFolder, "junit");
@@ -424,8 +467,8 @@ class TestHudsonBackup {
         assertThat(filesAndFolders.size(), greaterThan(70));
 
         // run backup (which will clean up empty folders)
-        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date, r.jenkins).backup();
-        final String[] listedBackupDirs = backupDir.list();
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date).backup();
+        final String[] listedBackupDirs = listBackupNames(backupDir);
         assertEquals(1, listedBackupDirs.length);
 
         // count files
@@ -454,9 +497,9 @@ class TestHudsonBackup {
 
         r.createSlave(Label.get("label"));
 
-        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date, r.jenkins).backup();
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, date).backup();
 
-        String[] list = backupDir.list();
+        String[] list = listBackupNames(backupDir);
         assertNotNull(list);
         assertEquals(1, list.length);
         final File backup = new File(backupDir, list[0]);
@@ -476,4 +519,325 @@ class TestHudsonBackup {
         assertEquals(1, list.length);
         assertEquals(HudsonBackup.CONFIG_XML, list[0]);
     }
+
+    @Test
+    void testDiffBackupOnlyContainsChangesSincePreviousBackup(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+
+        final ThinBackupPluginImpl thinBackupPlugin = ThinBackupPluginImpl.get();
+        thinBackupPlugin.setBackupPath(backupDir.getAbsolutePath());
+        final Date fullDate = new Date();
+        final Date firstDiffDate = new Date(fullDate.getTime() + 60_000);
+        final Date secondDiffDate = new Date(fullDate.getTime() + 120_000);
+
+        // create job
+        final FreeStyleProject test = r.createFreeStyleProject("test");
+
+        // run full backup
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, fullDate).backup();
+        final File fullBackup = Utils.getFormattedDirectory(backupDir, BackupType.FULL, fullDate);
+        assertTrue(BackupManifest.hasManifest(fullBackup));
+
+        // change the job configuration
+        final File config = new File(test.getRootDir(), HudsonBackup.CONFIG_XML);
+        Files.writeString(config.toPath(), "<!-- changed -->", StandardOpenOption.APPEND);
+        assertTrue(config.setLastModified(config.lastModified() + 60_000));
+
+        // first diff contains the changed configuration
+        new HudsonBackup(thinBackupPlugin, BackupType.DIFF, firstDiffDate).backup();
+        final File firstDiff = Utils.getFormattedDirectory(backupDir, BackupType.DIFF, firstDiffDate);
+        assertTrue(new File(firstDiff, "jobs/test/config.xml").exists());
+        assertTrue(BackupManifest.hasManifest(firstDiff));
+
+        // second diff does not contain it again, as it did not change since the first diff
+        new HudsonBackup(thinBackupPlugin, BackupType.DIFF, secondDiffDate).backup();
+        final File secondDiff = Utils.getFormattedDirectory(backupDir, BackupType.DIFF, secondDiffDate);
+        assertFalse(new File(secondDiff, "jobs/test/config.xml").exists());
+        assertTrue(BackupManifest.hasManifest(secondDiff));
+
+        final BackupManifest manifest = BackupManifest.load(secondDiff);
+        assertTrue(manifest.isUnchanged("jobs/test/config.xml", config.length(), config.lastModified()));
+    }
+
+    @Test
+    void testDiffBackupFallsBackToFullBackupWhenFullBackupWasDeleted(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+
+        final ThinBackupPluginImpl thinBackupPlugin = ThinBackupPluginImpl.get();
+        thinBackupPlugin.setBackupPath(backupDir.getAbsolutePath());
+        final Date fullDate = new Date();
+        final Date diffDate = new Date(fullDate.getTime() + 60_000);
+
+        r.createFreeStyleProject("test");
+
+        // run full backup and delete it by hand, the catalog still lists it
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, fullDate).backup();
+        final File fullBackup = Utils.getFormattedDirectory(backupDir, BackupType.FULL, fullDate);
+        assertTrue(fullBackup.exists());
+        FileUtils.deleteDirectory(fullBackup);
+
+        // the diff backup has no full backup to refer to and is taken as full backup instead
+        new HudsonBackup(thinBackupPlugin, BackupType.DIFF, diffDate).backup();
+        assertFalse(Utils.getFormattedDirectory(backupDir, BackupType.DIFF, diffDate)
+                .exists());
+        final File fallbackBackup = Utils.getFormattedDirectory(backupDir, BackupType.FULL, diffDate);
+        assertTrue(new File(fallbackBackup, "jobs/test/config.xml").exists());
+        assertTrue(BackupManifest.hasManifest(fallbackBackup));
+    }
+
+    @Test
+    void testHardlinkUnchangedFilesToPreviousFullBackup(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+
+        final ThinBackupPluginImpl thinBackupPlugin = ThinBackupPluginImpl.get();
+        thinBackupPlugin.setBackupPath(backupDir.getAbsolutePath());
+        thinBackupPlugin.setStorageMode(StorageMode.HARDLINK);
+        final Date firstDate = new Date();
+        final Date secondDate = new Date(firstDate.getTime() + 60_000);
+
+        // create jobs
+        final FreeStyleProject test = r.createFreeStyleProject("test");
+        final FreeStyleProject changed = r.createFreeStyleProject("changed");
+
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, firstDate).backup();
+
+        final File config = new File(changed.getRootDir(), HudsonBackup.CONFIG_XML);
+        Files.writeString(config.toPath(), "<!-- changed -->", StandardOpenOption.APPEND);
+        assertTrue(config.setLastModified(config.lastModified() + 60_000));
+
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, secondDate).backup();
+
+        final File firstBackup = Utils.getFormattedDirectory(backupDir, BackupType.FULL, firstDate);
+        final File secondBackup = Utils.getFormattedDirectory(backupDir, BackupType.FULL, secondDate);
+
+        // unchanged file is the same file in both backups
+        final Path unchangedInFirst = new File(firstBackup, "jobs/test/config.xml").toPath();
+        final Path unchangedInSecond = new File(secondBackup, "jobs/test/config.xml").toPath();
+        assertTrue(Files.exists(unchangedInSecond));
+        assertTrue(Files.isSameFile(unchangedInFirst, unchangedInSecond));
+
+        // changed file has been copied
+        final Path changedInFirst = new File(firstBackup, "jobs/changed/config.xml").toPath();
+        final Path changedInSecond = new File(secondBackup, "jobs/changed/config.xml").toPath();
+        assertFalse(Files.isSameFile(changedInFirst, changedInSecond));
+        assertEquals(Files.readString(config.toPath()), Files.readString(changedInSecond));
+    }
+
+    @Test
+    void testDeduplicateStoresContentOnceAndRemovesUnreferencedBlobs(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+
+        final ThinBackupPluginImpl thinBackupPlugin = ThinBackupPluginImpl.get();
+        thinBackupPlugin.setBackupPath(backupDir.getAbsolutePath());
+        thinBackupPlugin.setStorageMode(StorageMode.DEDUPLICATE);
+        thinBackupPlugin.setNrMaxStoredFull(1);
+        final Date firstDate = new Date();
+        final Date secondDate = new Date(firstDate.getTime() + 60_000);
+
+        // create jobs
+        final FreeStyleProject test = r.createFreeStyleProject("test");
+        final FreeStyleProject changed = r.createFreeStyleProject("changed");
+
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, firstDate).backup();
+
+        final File firstBackup = Utils.getFormattedDirectory(backupDir, BackupType.FULL, firstDate);
+        final BlobStore blobStore = new BlobStore(backupDir);
+        assertTrue(blobStore.exists());
+        assertFalse(new File(firstBackup, HudsonBackup.JOBS_DIR_NAME).exists());
+
+        // identical configurations share one blob
+        final BackupManifest firstManifest = BackupManifest.load(firstBackup);
+        final String testHash = firstManifest.getEntry("jobs/test/config.xml").hash();
+        final String oldHash = firstManifest.getEntry("jobs/changed/config.xml").hash();
+        assertNotNull(testHash);
+        assertEquals(testHash, oldHash);
+        assertTrue(blobStore.contains(testHash));
+
+        final File config = new File(changed.getRootDir(), HudsonBackup.CONFIG_XML);
+        Files.writeString(config.toPath(), "<!-- changed -->", StandardOpenOption.APPEND);
+        assertTrue(config.setLastModified(config.lastModified() + 60_000));
+        final File testConfig = new File(test.getRootDir(), HudsonBackup.CONFIG_XML);
+        Files.writeString(testConfig.toPath(), "<!-- changed too -->", StandardOpenOption.APPEND);
+        assertTrue(testConfig.setLastModified(testConfig.lastModified() + 60_000));
+
+        // the first backup set is removed, so the blob of the old configuration is no longer referenced
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, secondDate).backup();
+
+        final File secondBackup = Utils.getFormattedDirectory(backupDir, BackupType.FULL, secondDate);
+        assertFalse(firstBackup.exists());
+        final BackupManifest secondManifest = BackupManifest.load(secondBackup);
+        final String newHash =
+                secondManifest.getEntry("jobs/changed/config.xml").hash();
+        assertNotEquals(oldHash, newHash);
+        assertTrue(blobStore.contains(newHash));
+        assertFalse(blobStore.contains(oldHash));
+        assertEquals(
+                Files.readString(config.toPath()),
+                Files.readString(blobStore.getBlobFile(newHash).toPath()));
+    }
+
+    @Test
+    void testPluginArchivesAreStoredOnceInThePool(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+
+        final ThinBackupPluginImpl thinBackupPlugin = ThinBackupPluginImpl.get();
+        thinBackupPlugin.setBackupPath(backupDir.getAbsolutePath());
+        thinBackupPlugin.setBackupPluginArchives(true);
+        thinBackupPlugin.setNrMaxStoredFull(2);
+        final File rootDir = r.jenkins.getRootDir();
+        final Date firstDate = new Date();
+        final Date secondDate = new Date(firstDate.getTime() + 60_000);
+        final Date thirdDate = new Date(firstDate.getTime() + 120_000);
+
+        final File archive = new File(rootDir, "plugins/pooled-plugin.jpi");
+        writePluginArchive(archive, "1.0");
+        newFile(new File(rootDir, HudsonBackup.PLUGINS_DIR_NAME), "pooled-plugin.jpi.disabled");
+
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, firstDate).backup();
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, secondDate).backup();
+
+        // both backups reference the same archive in the pool and only contain the marker of the disabled plugin
+        final PluginArchivePool pool = new PluginArchivePool(backupDir);
+        for (final Date date : new Date[] {firstDate, secondDate}) {
+            final File backup = Utils.getFormattedDirectory(backupDir, BackupType.FULL, date);
+            final PluginList pluginList = new PluginList(new File(backup, HudsonBackup.INSTALLED_PLUGINS_XML));
+            pluginList.load();
+            assertEquals("pooled-plugin@1.0.jpi", pluginList.getArchives().get("pooled-plugin"));
+            assertFalse(new File(backup, "plugins/pooled-plugin.jpi").exists());
+            assertTrue(new File(backup, "plugins/pooled-plugin.jpi.disabled").exists());
+        }
+        assertTrue(pool.getArchiveFile("pooled-plugin@1.0.jpi").isFile());
+
+        // the old version is removed with the last backup set referencing it
+        writePluginArchive(archive, "2.0");
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, thirdDate).backup();
+        assertTrue(pool.getArchiveFile("pooled-plugin@1.0.jpi").isFile());
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, new Date(firstDate.getTime() + 180_000)).backup();
+        assertFalse(pool.getArchiveFile("pooled-plugin@1.0.jpi").exists());
+        assertTrue(pool.getArchiveFile("pooled-plugin@2.0.jpi").isFile());
+    }
+
+    @Test
+    void testPluginArchivesReferencedFromZippedBackupSetsAreKept(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+        final PluginArchivePool pool = new PluginArchivePool(backupDir);
+        final File referenced = pool.getArchiveFile("referenced@1.0.jpi");
+        final File unreferenced = pool.getArchiveFile("unreferenced@1.0.jpi");
+        writePluginArchive(referenced, "1.0");
+        writePluginArchive(unreferenced, "1.0");
+
+        final File pluginsXml = new File(newFolder(tmpFolder, "list"), HudsonBackup.INSTALLED_PLUGINS_XML);
+        final PluginList pluginList = new PluginList(pluginsXml);
+        pluginList.add("referenced", "1.0");
+        pluginList.setArchives(Map.of("referenced", referenced.getName()));
+        pluginList.save();
+
+        // entries zipped on Windows are separated by backslashes
+        final File zip = new File(backupDir, "BACKUPSET_2024-01-01_00-00_2024-01-01_00-00.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip.toPath()))) {
+            out.putNextEntry(new ZipEntry("FULL-2024-01-01_00-00\\" + HudsonBackup.INSTALLED_PLUGINS_XML));
+            Files.copy(pluginsXml.toPath(), out);
+            out.closeEntry();
+        }
+        assertEquals(1, pool.collectGarbage());
+        assertTrue(referenced.isFile());
+        assertFalse(unreferenced.exists());
+
+        // a zipped backup set without a list of installed plugins is not understood, so nothing is removed
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip.toPath()))) {
+            out.putNextEntry(new ZipEntry("FULL-2024-01-01_00-00/" + HudsonBackup.CONFIG_XML));
+            out.closeEntry();
+        }
+        assertEquals(0, pool.collectGarbage());
+        assertTrue(referenced.isFile());
+    }
+
+    @Test
+    void testBackupCatalogCountsTheWrittenFiles(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+
+        final ThinBackupPluginImpl thinBackupPlugin = ThinBackupPluginImpl.get();
+        thinBackupPlugin.setBackupPath(backupDir.getAbsolutePath());
+        final Date directoryDate = new Date();
+        final Date archiveDate = new Date(directoryDate.getTime() + 60_000);
+        r.createFreeStyleProject("test");
+
+        // the entries recorded while backing up match the ones measured from disk when the catalog is rebuilt
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, directoryDate).backup();
+        final File directory = Utils.getFormattedDirectory(backupDir, BackupType.FULL, directoryDate);
+        assertEquals(BackupCatalogFile.measure(directory), getCatalogEntry(backupDir, directory.getName()));
+
+        thinBackupPlugin.setStorageMode(StorageMode.ZIP);
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, archiveDate).backup();
+        final File archive =
+                BackupArchive.getArchiveFile(Utils.getFormattedDirectory(backupDir, BackupType.FULL, archiveDate));
+        final BackupCatalogFile.Entry entry = getCatalogEntry(backupDir, BackupArchive.getBackupName(archive));
+        assertEquals(BackupCatalogFile.measure(archive), entry);
+        assertThat(entry.files(), greaterThan(1));
+        assertTrue(entry.completed());
+    }
+
+    private static BackupCatalogFile.Entry getCatalogEntry(final File backupDir, final String name) {
+        return BackupCatalogFile.load(backupDir).getEntries().stream()
+                .filter(entry -> entry.name().equals(name))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    @Test
+    void testZipStorageModeWritesSingleBackupArchives(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+
+        final ThinBackupPluginImpl thinBackupPlugin = ThinBackupPluginImpl.get();
+        thinBackupPlugin.setBackupPath(backupDir.getAbsolutePath());
+        thinBackupPlugin.setStorageMode(StorageMode.ZIP);
+        final Date fullDate = new Date();
+        final Date diffDate = new Date(fullDate.getTime() + 60_000);
+
+        final FreeStyleProject test = r.createFreeStyleProject("test");
+        r.createFreeStyleProject("unchanged");
+
+        new HudsonBackup(thinBackupPlugin, BackupType.FULL, fullDate).backup();
+
+        final File fullBackup = Utils.getFormattedDirectory(backupDir, BackupType.FULL, fullDate);
+        final File fullArchive = BackupArchive.getArchiveFile(fullBackup);
+        assertFalse(fullBackup.exists());
+        assertTrue(BackupArchive.isArchive(fullArchive));
+        final BackupManifest fullManifest = BackupArchive.readManifest(fullArchive);
+        assertNotNull(fullManifest.getEntry("jobs/test/config.xml"));
+        assertNotNull(fullManifest.getEntry("jobs/unchanged/config.xml"));
+
+        final File config = new File(test.getRootDir(), HudsonBackup.CONFIG_XML);
+        Files.writeString(config.toPath(), "<!-- changed -->", StandardOpenOption.APPEND);
+        assertTrue(config.setLastModified(config.lastModified() + 60_000));
+
+        new HudsonBackup(thinBackupPlugin, BackupType.DIFF, diffDate).backup();
+
+        final File diffBackup = Utils.getFormattedDirectory(backupDir, BackupType.DIFF, diffDate);
+        final File diffArchive = BackupArchive.getArchiveFile(diffBackup);
+        assertFalse(diffBackup.exists());
+        assertTrue(BackupArchive.isArchive(diffArchive));
+
+        final File extracted = BackupArchive.extractTo(diffArchive, newFolder(tmpFolder, "extracted"));
+        assertEquals(
+                Files.readString(config.toPath()),
+                Files.readString(new File(extracted, "jobs/test/config.xml").toPath()));
+        assertFalse(new File(extracted, "jobs/unchanged/config.xml").exists());
+        assertTrue(new File(extracted, HudsonBackup.COMPLETED_BACKUP_FILE).exists());
+
+        final BackupSet backupSet = new BackupSet(fullArchive);
+        assertTrue(backupSet.isValid());
+        assertTrue(backupSet.containsBackupArchives());
+        assertEquals(List.of(diffArchive.getName()), backupSet.getDiffBackupsNames());
+        assertEquals(2, Utils.getBackupsAsDates(backupDir).size());
+        assertThat(Arrays.asList(backupDir.list()), not(hasItem(containsString(".tmp"))));
+    }
+
+    private static void writePluginArchive(final File archive, final String version) throws IOException {
+        Files.createDirectories(archive.getParentFile().toPath());
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue(PluginArchivePool.PLUGIN_VERSION_ATTRIBUTE, version);
+        new JarOutputStream(Files.newOutputStream(archive.toPath()), manifest).close();
+    }
 }
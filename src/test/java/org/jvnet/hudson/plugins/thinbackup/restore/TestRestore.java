@@ -2,7 +2,9 @@ package org.jvnet.hudson.plugins.thinbackup.restore;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.jvnet.hudson.plugins.thinbackup.TestHelper.listBackups;
 import static org.jvnet.hudson.plugins.thinbackup.TestHelper.newFile;
 import static org.jvnet.hudson.plugins.thinbackup.TestHelper.newFolder;
 import static org.jvnet.hudson.plugins.thinbackup.backup.HudsonBackup.NEXT_BUILD_NUMBER_FILE_NAME;
@@ -11,19 +13,28 @@ import static org.jvnet.hudson.test.LogRecorder.recorded;
 import hudson.model.FreeStyleProject;
 import java.io.File;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 import java.util.logging.Level;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.jvnet.hudson.plugins.thinbackup.ThinBackupPeriodicWork;
 import org.jvnet.hudson.plugins.thinbackup.ThinBackupPluginImpl;
+import org.jvnet.hudson.plugins.thinbackup.backup.BackupManifest;
 import org.jvnet.hudson.plugins.thinbackup.backup.HudsonBackup;
+import org.jvnet.hudson.plugins.thinbackup.backup.PluginList;
 import org.jvnet.hudson.plugins.thinbackup.utils.Utils;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.LogRecorder;
+import org.jvnet.hudson.test.MockFolder;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 
 @WithJenkins
@@ -60,7 +71,7 @@ class TestRestore {
         newFile(buildsDir, "logfile.xlog"); // should be copied
 
         // run backup
-        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.FULL, date, r.jenkins).backup();
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.FULL, date).backup();
 
         // delete jobs
         test.delete();
@@ -117,7 +128,7 @@ class TestRestore {
         newFile(buildsDir, "logfile.xlog"); // should be copied
 
         // run backup
-        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.FULL, date, r.jenkins).backup();
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.FULL, date).backup();
 
         List<String> backupsAsDates = Utils.getBackupsAsDates(backupDir);
         assertEquals(1, backupsAsDates.size());
@@ -126,7 +137,7 @@ class TestRestore {
         Utils.moveOldBackupsToZipFile(backupDir, null);
 
         // check that backupset is present
-        File[] files = backupDir.listFiles();
+        File[] files = listBackups(backupDir);
         assertEquals(1, files.length);
 
         // delete jobs
@@ -163,6 +174,381 @@ class TestRestore {
         assertTrue(new File(test2rootDir, "nextBuildNumber").exists());
     }
 
+    @Test
+    void testRestoreNextBuildNumberOfJobsInFolders(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+
+        final ThinBackupPluginImpl thinBackupPlugin = ThinBackupPluginImpl.get();
+        thinBackupPlugin.setBackupPath(backupDir.getAbsolutePath());
+        thinBackupPlugin.setBackupNextBuildNumber(true);
+        final File rootDir = r.jenkins.getRootDir();
+        final Date date = new Date();
+
+        // jobs with the same name in different folders
+        final File job1 = r.createFolder("folder1")
+                .createProject(FreeStyleProject.class, "job")
+                .getRootDir();
+        final File job2 = r.createFolder("folder2")
+                .createProject(FreeStyleProject.class, "job")
+                .getRootDir();
+        Files.writeString(new File(job1, NEXT_BUILD_NUMBER_FILE_NAME).toPath(), "10");
+        Files.writeString(new File(job2, NEXT_BUILD_NUMBER_FILE_NAME).toPath(), "20");
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.FULL, date).backup();
+
+        Files.writeString(new File(job1, NEXT_BUILD_NUMBER_FILE_NAME).toPath(), "15");
+        Files.writeString(new File(job2, NEXT_BUILD_NUMBER_FILE_NAME).toPath(), "5");
+
+        // a next build number is restored only if it is higher than the current one
+        new HudsonRestore(rootDir, backupDir.getAbsolutePath(), date, true, false).restore();
+        assertEquals("15", Files.readString(new File(job1, NEXT_BUILD_NUMBER_FILE_NAME).toPath()));
+        assertEquals("20", Files.readString(new File(job2, NEXT_BUILD_NUMBER_FILE_NAME).toPath()));
+    }
+
+    @Test
+    void testRestoreFromDiffChain(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+
+        final ThinBackupPluginImpl thinBackupPlugin = ThinBackupPluginImpl.get();
+        thinBackupPlugin.setBackupPath(backupDir.getAbsolutePath());
+        final File rootDir = r.jenkins.getRootDir();
+        final Date fullDate = new Date();
+        final Date firstDiffDate = new Date(fullDate.getTime() + 60_000);
+        final Date secondDiffDate = new Date(fullDate.getTime() + 120_000);
+
+        final FreeStyleProject test = r.createFreeStyleProject("test");
+        final FreeStyleProject test2 = r.createFreeStyleProject("test2");
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.FULL, fullDate).backup();
+
+        // each diff only contains the file added since the previous backup
+        final File first = new File(test.getRootDir(), "first.xml");
+        Files.writeString(first.toPath(), "<first/>");
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.DIFF, firstDiffDate).backup();
+        final File second = new File(test2.getRootDir(), "second.xml");
+        Files.writeString(second.toPath(), "<second/>");
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.DIFF, secondDiffDate).backup();
+
+        Files.delete(first.toPath());
+        Files.delete(second.toPath());
+
+        // restoring the second diff needs the full backup and both diffs
+        new HudsonRestore(rootDir, backupDir.getAbsolutePath(), secondDiffDate, false, false).restore();
+        assertTrue(first.exists());
+        assertTrue(second.exists());
+        assertFalse(new File(test.getRootDir(), BackupManifest.MANIFEST_FILE_NAME).exists());
+        assertFalse(new File(rootDir, BackupManifest.MANIFEST_FILE_NAME).exists());
+
+        Files.delete(first.toPath());
+        Files.delete(second.toPath());
+
+        // restoring the first diff must not apply the newer one
+        new HudsonRestore(rootDir, backupDir.getAbsolutePath(), firstDiffDate, false, false).restore();
+        assertTrue(first.exists());
+        assertFalse(second.exists());
+    }
+
+    @Test
+    void testRestoreFromDiffChainWithThreads(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+
+        final ThinBackupPluginImpl thinBackupPlugin = ThinBackupPluginImpl.get();
+        thinBackupPlugin.setBackupPath(backupDir.getAbsolutePath());
+        final File rootDir = r.jenkins.getRootDir();
+        final Date fullDate = new Date();
+        final Date diffDate = new Date(fullDate.getTime() + 60_000);
+
+        final FreeStyleProject test = r.createFreeStyleProject("test");
+        final FreeStyleProject test2 = r.createFreeStyleProject("test2");
+        final File changed = new File(test.getRootDir(), "changed.xml");
+        Files.writeString(changed.toPath(), "<full/>");
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.FULL, fullDate).backup();
+        Files.writeString(changed.toPath(), "<diff/>");
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.DIFF, diffDate).backup();
+
+        Files.delete(changed.toPath());
+        final File config2 = new File(test2.getRootDir(), HudsonBackup.CONFIG_XML);
+        final String originalConfig2 = Files.readString(config2.toPath());
+        Files.writeString(config2.toPath(), "<broken/>");
+
+        // the merged chain is copied once, with the copy of the diff backup replacing the one of the full backup
+        new HudsonRestore(rootDir, backupDir.getAbsolutePath(), diffDate, false, false, false, 4).restore();
+        assertEquals("<diff/>", Files.readString(changed.toPath()));
+        assertEquals(originalConfig2, Files.readString(config2.toPath()));
+        assertFalse(new File(rootDir, HudsonBackup.COMPLETED_BACKUP_FILE).exists());
+    }
+
+    @Test
+    void testIncrementalRestore(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+
+        final ThinBackupPluginImpl thinBackupPlugin = ThinBackupPluginImpl.get();
+        thinBackupPlugin.setBackupPath(backupDir.getAbsolutePath());
+        // only the manifests of deduplicated backups hold content hashes
+        thinBackupPlugin.setStorageMode(ThinBackupPluginImpl.StorageMode.DEDUPLICATE);
+        final File rootDir = r.jenkins.getRootDir();
+        final Date date = new Date();
+
+        final FreeStyleProject test = r.createFreeStyleProject("test");
+        final File config = new File(test.getRootDir(), HudsonBackup.CONFIG_XML);
+        final String originalConfig = Files.readString(config.toPath());
+        final Path unchanged =
+                new File(r.createFreeStyleProject("unchanged").getRootDir(), HudsonBackup.CONFIG_XML).toPath();
+        final Path touched =
+                new File(r.createFreeStyleProject("touched").getRootDir(), HudsonBackup.CONFIG_XML).toPath();
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.FULL, date).backup();
+
+        Files.writeString(config.toPath(), "<broken/>");
+        // same size and content, but another modification time, so only the content hash of the manifest tells
+        Files.setLastModifiedTime(
+                touched, FileTime.fromMillis(Files.getLastModifiedTime(touched).toMillis() - 60_000));
+        final FileTime touchedTime = Files.getLastModifiedTime(touched);
+        final BasicFileAttributes unchangedAttrs = Files.readAttributes(unchanged, BasicFileAttributes.class);
+        final Object touchedKey =
+                Files.readAttributes(touched, BasicFileAttributes.class).fileKey();
+
+        // the files which are identical in JENKINS_HOME are skipped
+        final HudsonRestore restore =
+                new HudsonRestore(rootDir, backupDir.getAbsolutePath(), date, false, false, true, 1);
+        try (LogRecorder l = new LogRecorder().capture(10).record("hudson.plugins.thinbackup", Level.INFO)) {
+            restore.restore();
+            assertThat(l, recorded(Level.INFO, containsString("unchanged files")));
+        }
+        assertEquals(originalConfig, Files.readString(config.toPath()));
+        assertThat(restore.getProgress().getCopiedFiles(), greaterThanOrEqualTo(1L));
+        assertThat(restore.getProgress().getSkippedFiles(), greaterThanOrEqualTo(2L));
+
+        final BasicFileAttributes unchangedAfter = Files.readAttributes(unchanged, BasicFileAttributes.class);
+        assertEquals(unchangedAttrs.lastModifiedTime(), unchangedAfter.lastModifiedTime());
+        assertEquals(unchangedAttrs.fileKey(), unchangedAfter.fileKey());
+        assertEquals(touchedTime, Files.getLastModifiedTime(touched));
+        assertEquals(
+                touchedKey,
+                Files.readAttributes(touched, BasicFileAttributes.class).fileKey());
+    }
+
+    @Test
+    void testSelectiveRestore(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+
+        final ThinBackupPluginImpl thinBackupPlugin = ThinBackupPluginImpl.get();
+        thinBackupPlugin.setBackupPath(backupDir.getAbsolutePath());
+        final File rootDir = r.jenkins.getRootDir();
+        final Date date = new Date();
+
+        final MockFolder folder = r.createFolder("folder");
+        final File job = folder.createProject(FreeStyleProject.class, "job").getRootDir();
+        final File jobConfig = new File(job, HudsonBackup.CONFIG_XML);
+        final String originalJobConfig = Files.readString(jobConfig.toPath());
+        final File otherConfig = new File(r.createFreeStyleProject("other").getRootDir(), HudsonBackup.CONFIG_XML);
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.FULL, date).backup();
+
+        folder.delete();
+        Files.writeString(otherConfig.toPath(), "<changed/>");
+
+        // only the deleted folder is restored, the changes of other items are kept
+        new HudsonRestore(
+                        rootDir,
+                        backupDir.getAbsolutePath(),
+                        date,
+                        false,
+                        false,
+                        false,
+                        1,
+                        RestorePaths.parse("folder"))
+                .restore();
+        assertEquals(originalJobConfig, Files.readString(jobConfig.toPath()));
+        assertEquals("<changed/>", Files.readString(otherConfig.toPath()));
+    }
+
+    @Test
+    void testRestoreTask(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+
+        final ThinBackupPluginImpl thinBackupPlugin = ThinBackupPluginImpl.get();
+        thinBackupPlugin.setBackupPath(backupDir.getAbsolutePath());
+        final File rootDir = r.jenkins.getRootDir();
+        final Date date = new Date();
+
+        final FreeStyleProject test = r.createFreeStyleProject("test");
+        final File config = new File(test.getRootDir(), HudsonBackup.CONFIG_XML);
+        final String originalConfig = Files.readString(config.toPath());
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.FULL, date).backup();
+        Files.writeString(config.toPath(), "<broken/>");
+
+        // a cancelled task does not restore anything
+        final RestoreTask cancelledTask = new RestoreTask(
+                "backup",
+                new HudsonRestore(rootDir, backupDir.getAbsolutePath(), date, false, false),
+                RestorePaths.ALL);
+        cancelledTask.cancel();
+        cancelledTask.run();
+        assertEquals(
+                RestoreProgress.Phase.CANCELLED, cancelledTask.getProgress().getPhase());
+        assertEquals("<broken/>", Files.readString(config.toPath()));
+
+        final RestoreTask task = new RestoreTask(
+                "backup",
+                new HudsonRestore(rootDir, backupDir.getAbsolutePath(), date, false, false),
+                RestorePaths.ALL);
+        task.run();
+        assertEquals(RestoreProgress.Phase.FINISHED, task.getProgress().getPhase());
+        assertEquals(originalConfig, Files.readString(config.toPath()));
+        assertEquals("FINISHED", task.toJSON().getString("phase"));
+        assertTrue(task.toJSON().getLong("copiedFiles") > 0);
+        assertFalse(r.jenkins.isQuietingDown());
+    }
+
+    @Test
+    void testRestorePluginFromPluginArchive(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+        final File rootDir = r.jenkins.getRootDir();
+        final Date date = new Date();
+
+        // a backup with the archive of a plugin which is not installed
+        final File backup = Utils.getFormattedDirectory(backupDir, ThinBackupPeriodicWork.BackupType.FULL, date);
+        final File archive = new File(backup, "plugins/restored-plugin.jpi");
+        Files.createDirectories(archive.getParentFile().toPath());
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Plugin-Version", "1.0");
+        new JarOutputStream(Files.newOutputStream(archive.toPath()), manifest).close();
+        final PluginList pluginList = new PluginList(new File(backup, HudsonBackup.INSTALLED_PLUGINS_XML));
+        pluginList.add("restored-plugin", "1.0");
+        pluginList.save();
+
+        // the archive is restored instead of downloading the plugin
+        try (LogRecorder l = new LogRecorder().capture(10).record("hudson.plugins.thinbackup", Level.INFO)) {
+            new HudsonRestore(rootDir, backupDir.getAbsolutePath(), date, false, true).restore();
+            assertThat(l, recorded(Level.INFO, containsString("from the plugin archive in the backup")));
+        }
+        assertTrue(new File(rootDir, "plugins/restored-plugin.jpi").isFile());
+        assertFalse(new File(rootDir, "plugins/restored-plugin.hpi").exists());
+    }
+
+    @Test
+    void testRestorePluginFromPluginArchivePool(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+
+        final ThinBackupPluginImpl thinBackupPlugin = ThinBackupPluginImpl.get();
+        thinBackupPlugin.setBackupPath(backupDir.getAbsolutePath());
+        thinBackupPlugin.setBackupPluginArchives(true);
+        final File rootDir = r.jenkins.getRootDir();
+        final Date date = new Date();
+
+        final File archive = new File(rootDir, "plugins/pooled-plugin.jpi");
+        Files.createDirectories(archive.getParentFile().toPath());
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Plugin-Version", "1.0");
+        new JarOutputStream(Files.newOutputStream(archive.toPath()), manifest).close();
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.FULL, date).backup();
+        Files.delete(archive.toPath());
+
+        // Jenkins did not load the plugin, so it is added to the list of installed plugins of the backup
+        final PluginList pluginList = new PluginList(new File(
+                Utils.getFormattedDirectory(backupDir, ThinBackupPeriodicWork.BackupType.FULL, date),
+                HudsonBackup.INSTALLED_PLUGINS_XML));
+        pluginList.load();
+        pluginList.add("pooled-plugin", "1.0");
+        pluginList.save();
+
+        try (LogRecorder l = new LogRecorder().capture(10).record("hudson.plugins.thinbackup", Level.INFO)) {
+            new HudsonRestore(rootDir, backupDir.getAbsolutePath(), date, false, true).restore();
+            assertThat(l, recorded(Level.INFO, containsString("from the plugin archive in the backup")));
+        }
+        assertTrue(archive.isFile());
+    }
+
+    @Test
+    void testRestoreFromZippedDiffChain(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+
+        final ThinBackupPluginImpl thinBackupPlugin = ThinBackupPluginImpl.get();
+        thinBackupPlugin.setBackupPath(backupDir.getAbsolutePath());
+        final File rootDir = r.jenkins.getRootDir();
+        final Date fullDate = new Date();
+        final Date diffDate = new Date(fullDate.getTime() + 60_000);
+
+        final FreeStyleProject test = r.createFreeStyleProject("test");
+        final File changed = new File(test.getRootDir(), "changed.xml");
+        Files.writeString(changed.toPath(), "<full/>");
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.FULL, fullDate).backup();
+        Files.writeString(changed.toPath(), "<diff/>");
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.DIFF, diffDate).backup();
+
+        Utils.moveOldBackupsToZipFile(backupDir, null);
+        assertEquals(1, listBackups(backupDir).length);
+        Files.delete(changed.toPath());
+
+        // the copy in the diff backup replaces the one in the full backup
+        new HudsonRestore(rootDir, backupDir.getAbsolutePath(), diffDate, false, false).restore();
+        assertEquals("<diff/>", Files.readString(changed.toPath()));
+        assertFalse(new File(rootDir, HudsonBackup.COMPLETED_BACKUP_FILE).exists());
+
+        // restoring the full backup must not apply the diff backup
+        new HudsonRestore(rootDir, backupDir.getAbsolutePath(), fullDate, false, false).restore();
+        assertEquals("<full/>", Files.readString(changed.toPath()));
+    }
+
+    @Test
+    void testRestoreFromDeduplicatedDiffChain(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+
+        final ThinBackupPluginImpl thinBackupPlugin = ThinBackupPluginImpl.get();
+        thinBackupPlugin.setBackupPath(backupDir.getAbsolutePath());
+        thinBackupPlugin.setStorageMode(ThinBackupPluginImpl.StorageMode.DEDUPLICATE);
+        final File rootDir = r.jenkins.getRootDir();
+        final Date fullDate = new Date();
+        final Date diffDate = new Date(fullDate.getTime() + 60_000);
+
+        final FreeStyleProject test = r.createFreeStyleProject("test");
+        final File config = new File(test.getRootDir(), HudsonBackup.CONFIG_XML);
+        final String originalConfig = Files.readString(config.toPath());
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.FULL, fullDate).backup();
+
+        final File added = new File(test.getRootDir(), "added.xml");
+        Files.writeString(added.toPath(), "<added/>");
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.DIFF, diffDate).backup();
+
+        final long addedModified = added.lastModified();
+        Files.delete(added.toPath());
+        Files.writeString(config.toPath(), "<broken/>");
+
+        // the files are copied directly from the blob store, keeping their modification time
+        new HudsonRestore(rootDir, backupDir.getAbsolutePath(), diffDate, false, false).restore();
+        assertEquals("<added/>", Files.readString(added.toPath()));
+        assertEquals(addedModified, added.lastModified());
+        assertEquals(originalConfig, Files.readString(config.toPath()));
+    }
+
+    @Test
+    void testRestoreFromArchivedDiffChain(JenkinsRule r) throws Exception {
+        File backupDir = newFolder(tmpFolder, "junit");
+
+        final ThinBackupPluginImpl thinBackupPlugin = ThinBackupPluginImpl.get();
+        thinBackupPlugin.setBackupPath(backupDir.getAbsolutePath());
+        thinBackupPlugin.setStorageMode(ThinBackupPluginImpl.StorageMode.ZIP);
+        final File rootDir = r.jenkins.getRootDir();
+        final Date fullDate = new Date();
+        final Date diffDate = new Date(fullDate.getTime() + 60_000);
+
+        final FreeStyleProject test = r.createFreeStyleProject("test");
+        final File config = new File(test.getRootDir(), HudsonBackup.CONFIG_XML);
+        final String originalConfig = Files.readString(config.toPath());
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.FULL, fullDate).backup();
+
+        final File added = new File(test.getRootDir(), "added.xml");
+        Files.writeString(added.toPath(), "<added/>");
+        new HudsonBackup(thinBackupPlugin, ThinBackupPeriodicWork.BackupType.DIFF, diffDate).backup();
+
+        Files.delete(added.toPath());
+        Files.writeString(config.toPath(), "<broken/>");
+
+        // both archives of the chain are extracted and restored
+        new HudsonRestore(rootDir, backupDir.getAbsolutePath(), diffDate, false, false).restore();
+        assertEquals("<added/>", Files.readString(added.toPath()));
+        assertEquals(originalConfig, Files.readString(config.toPath()));
+    }
+
     @Test
     void testLogsForRestoringWithoutBackupPath(JenkinsRule r) {
         try (LogRecorder l = new LogRecorder().capture(3).record("hudson.plugins.thinbackup", Level.SEVERE)) {
@@ -0,0 +1,88 @@
+package org.jvnet.hudson.plugins.thinbackup.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TestFileCopier {
+
+    @TempDir
+    private File tmpFolder;
+
+    @Test
+    void testEveryStrategyCopiesContentAndModificationTime() throws IOException {
+        final Path source = tmpFolder.toPath().resolve("source.log");
+        Files.writeString(source, "build log\n".repeat(10_000));
+        final FileTime lastModified = FileTime.fromMillis(1_300_000_000_000L);
+        Files.setLastModifiedTime(source, lastModified);
+        final BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+
+        for (final FileCopier.Strategy strategy : FileCopier.Strategy.values()) {
+            final Path target = tmpFolder.toPath().resolve(strategy.name());
+            Files.writeString(target, "to be replaced");
+            strategy.copy(source, attrs, target);
+            assertEquals(Files.readString(source), Files.readString(target));
+            assertEquals(lastModified, Files.getLastModifiedTime(target));
+        }
+    }
+
+    @Test
+    void testCopyIsCountedPerStrategy() throws IOException {
+        final Path source = tmpFolder.toPath().resolve("config.xml");
+        Files.writeString(source, "<project/>");
+        final BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+
+        final FileCopier fileCopier = new FileCopier();
+        fileCopier.copy(source, attrs, tmpFolder.toPath().resolve("copy.xml"));
+
+        assertEquals(1, fileCopier.getCopiedFiles(FileCopier.Strategy.NATIVE));
+        assertEquals("1 files (10 bytes) by native copy", fileCopier.getSummary());
+    }
+
+    @Test
+    void testMissingSourceDoesNotChangeStrategy() throws IOException {
+        final Path source = tmpFolder.toPath().resolve("missing.xml");
+        final Path existing = tmpFolder.toPath().resolve("existing.xml");
+        Files.writeString(existing, "<project/>");
+        final BasicFileAttributes attrs = Files.readAttributes(existing, BasicFileAttributes.class);
+
+        final FileCopier fileCopier = new FileCopier();
+        assertThrows(
+                NoSuchFileException.class,
+                () -> fileCopier.copy(source, attrs, tmpFolder.toPath().resolve("copy.xml")));
+
+        fileCopier.copy(existing, attrs, tmpFolder.toPath().resolve("copy.xml"));
+        assertEquals(1, fileCopier.getCopiedFiles(FileCopier.Strategy.NATIVE));
+    }
+
+    @Test
+    void testTargetFailureDoesNotChangeStrategy() throws IOException {
+        final Path source = tmpFolder.toPath().resolve("config.xml");
+        Files.writeString(source, "<project/>");
+        final BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+        final FileCopier fileCopier = new FileCopier();
+
+        // the parent directory of the target is missing
+        assertThrows(
+                NoSuchFileException.class,
+                () -> fileCopier.copy(source, attrs, tmpFolder.toPath().resolve("missing/copy.xml")));
+
+        // the target is a non-empty directory, which no strategy can replace
+        final Path directory = tmpFolder.toPath().resolve("directory");
+        Files.createDirectories(directory.resolve("child"));
+        assertThrows(IOException.class, () -> fileCopier.copy(source, attrs, directory));
+
+        fileCopier.copy(source, attrs, tmpFolder.toPath().resolve("copy.xml"));
+        assertEquals(1, fileCopier.getCopiedFiles(FileCopier.Strategy.NATIVE));
+        assertEquals("1 files (10 bytes) by native copy", fileCopier.getSummary());
+    }
+}
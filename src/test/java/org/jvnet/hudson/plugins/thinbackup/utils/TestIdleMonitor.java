@@ -0,0 +1,139 @@
+/*
+ *  Copyright (C) 2011  Matthias Steinkogler, Thomas Fürer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see http://www.gnu.org/licenses.
+ */
+package org.jvnet.hudson.plugins.thinbackup.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Queue;
+import hudson.model.queue.SubTask;
+import hudson.util.OneShotEvent;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import jenkins.util.Timer;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.SleepBuilder;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class TestIdleMonitor {
+
+    @Test
+    void testWaitUntilIdleEndsWhenTheLastBuildIsFinalized(JenkinsRule r) throws Exception {
+        final FreeStyleProject project = r.createFreeStyleProject("slow");
+        project.getBuildersList().add(new SleepBuilder(2000));
+        final FreeStyleBuild build = project.scheduleBuild2(0).waitForStart();
+
+        // builds of other items are not waited for
+        Utils.waitUntilIdle(List.of("other"));
+        assertTrue(build.isLogUpdated());
+        assertEquals(1, IdleMonitor.get().countRunningBuilds());
+
+        Utils.waitUntilIdle(List.of("slow"));
+        assertFalse(build.isLogUpdated());
+        assertEquals(0, IdleMonitor.get().countRunningBuilds());
+        r.assertBuildStatusSuccess(build);
+    }
+
+    @Test
+    void testForceQuietModeAfterTimeout(JenkinsRule r) throws Exception {
+        final FreeStyleProject project = r.createFreeStyleProject("slow");
+        project.getBuildersList().add(new SleepBuilder(2000));
+        final FreeStyleBuild build = project.scheduleBuild2(0).waitForStart();
+
+        Utils.waitUntilIdleAndSwitchToQuietMode(0, TimeUnit.MINUTES);
+        assertTrue(r.jenkins.isQuietingDown());
+        assertFalse(build.isLogUpdated());
+        r.jenkins.doCancelQuietDown();
+    }
+
+    @Test
+    void testWaitUntilIdleWaitsForTasksWhichAreNoBuilds(JenkinsRule r) throws Exception {
+        final BlockingTask task = new BlockingTask();
+        r.jenkins.getQueue().schedule2(task, 0);
+        task.started.block();
+        assertEquals(0, IdleMonitor.get().countRunningBuilds());
+        assertEquals(1, IdleMonitor.get().countBusyExecutors());
+
+        Timer.get().schedule(task.release::signal, 1, TimeUnit.SECONDS);
+        Utils.waitUntilIdle();
+        assertTrue(task.finished);
+        assertEquals(0, IdleMonitor.get().countBusyExecutors());
+    }
+
+    /**
+     * A task which is no build, like the indexing of a multibranch project, running until it is released.
+     */
+    private static final class BlockingTask implements Queue.Task, Queue.TransientTask {
+        private final OneShotEvent started = new OneShotEvent();
+        private final OneShotEvent release = new OneShotEvent();
+        private volatile boolean finished;
+
+        @Override
+        public String getName() {
+            return "blocking";
+        }
+
+        @Override
+        public String getFullDisplayName() {
+            return getName();
+        }
+
+        @Override
+        public String getDisplayName() {
+            return getName();
+        }
+
+        @Override
+        public String getUrl() {
+            return "blocking/";
+        }
+
+        @Override
+        public void checkAbortPermission() {}
+
+        @Override
+        public boolean hasAbortPermission() {
+            return true;
+        }
+
+        @Override
+        public Queue.Executable createExecutable() {
+            return new Queue.Executable() {
+                @Override
+                public SubTask getParent() {
+                    return BlockingTask.this;
+                }
+
+                @Override
+                public void run() {
+                    started.signal();
+                    try {
+                        release.block();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finished = true;
+                }
+            };
+        }
+    }
+}